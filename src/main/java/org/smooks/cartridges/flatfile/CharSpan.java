@@ -0,0 +1,132 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile;
+
+/**
+ * A view of a span of chars in a backing char sequence, e.g. a field value in the parser's record buffer.
+ * <p/>
+ * The chars are not copied, so the span is only valid for as long as the backing sequence holds the same
+ * text.  {@link #toString()} copies the chars out.
+ */
+public final class CharSpan implements CharSequence {
+
+    private CharSequence backing;
+    private int start;
+    private int end;
+
+    /**
+     * Public constructor.
+     *
+     * @param backing The backing char sequence.
+     * @param start   The start index of the span in the backing sequence.
+     * @param end     The end index (exclusive) of the span in the backing sequence.
+     */
+    public CharSpan(CharSequence backing, int start, int end) {
+        reset(backing, start, end);
+    }
+
+    /**
+     * Reset the span, for reuse as a view of another span.
+     *
+     * @param backing The backing char sequence.
+     * @param start   The start index of the span in the backing sequence.
+     * @param end     The end index (exclusive) of the span in the backing sequence.
+     * @return This span instance.
+     */
+    public CharSpan reset(CharSequence backing, int start, int end) {
+        if (start < 0 || end < start || end > backing.length()) {
+            throw new IndexOutOfBoundsException("Span [" + start + ", " + end + ") out of bounds for length " + backing.length() + ".");
+        }
+        this.backing = backing;
+        this.start = start;
+        this.end = end;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + (end - start));
+        }
+        return backing.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end < start || end > this.end - this.start) {
+            throw new IndexOutOfBoundsException("Span [" + start + ", " + end + ") out of bounds for length " + (this.end - this.start) + ".");
+        }
+        return new CharSpan(backing, this.start + start, this.start + end);
+    }
+
+    /**
+     * Copy the chars into the destination array.
+     *
+     * @param dst      The destination array.
+     * @param dstBegin The start offset in the destination array.
+     */
+    public void getChars(char[] dst, int dstBegin) {
+        if (backing instanceof String) {
+            ((String) backing).getChars(start, end, dst, dstBegin);
+        } else if (backing instanceof StringBuilder) {
+            ((StringBuilder) backing).getChars(start, end, dst, dstBegin);
+        } else {
+            for (int i = start; i < end; i++) {
+                dst[dstBegin++] = backing.charAt(i);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (backing instanceof String) {
+            return ((String) backing).substring(start, end);
+        }
+        return backing.subSequence(start, end).toString();
+    }
+}
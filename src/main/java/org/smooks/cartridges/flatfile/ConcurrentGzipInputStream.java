@@ -0,0 +1,432 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * GZIP {@link InputStream} that inflates the members of a multi-member GZIP stream concurrently.
+ * <p/>
+ * Members that record their compressed size in the header (BGZF members, as written by <code>bgzip</code>
+ * and other block compressors, see the "BC" extra subfield) are read whole and inflated on a small worker pool,
+ * a bounded number of members ahead of the consumer.  Any other member can only be delimited by inflating it, so
+ * it is inflated as a stream on the consumer thread, once the members before it have been consumed.  Either way,
+ * the inflated output is returned in member order, and each member is checked against its CRC-32 and size trailer.
+ * <p/>
+ * Closing this stream stops the worker pool, but does not close the underlying stream.
+ */
+public class ConcurrentGzipInputStream extends InputStream {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int TRAILER_LENGTH = 8;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final PushbackInputStream input;
+    private final ExecutorService executor;
+    private final int maxPendingMembers;
+    private final Deque<Future<byte[]>> pendingMembers = new ArrayDeque<>();
+    private final byte[] singleByte = new byte[1];
+
+    private boolean firstMember = true;
+    private boolean endOfInput;
+    private boolean streamedMemberPending;
+
+    private byte[] currentMember;
+    private int position;
+
+    private Inflater streamInflater;
+    private final CRC32 streamCrc = new CRC32();
+    private long streamSize;
+    private final byte[] inputBuffer = new byte[BUFFER_SIZE];
+    private int inputLength;
+
+    /**
+     * Public constructor.
+     *
+     * @param stream  The underlying GZIP stream.
+     * @param threads The number of inflater threads.  Block members are inflated on the calling thread if less than 2.
+     */
+    public ConcurrentGzipInputStream(InputStream stream, int threads) {
+        this.input = new PushbackInputStream(stream, BUFFER_SIZE);
+        if (threads > 1) {
+            String threadNamePrefix = "flatfile-inflater-" + POOL_COUNT.incrementAndGet() + "-";
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, threadNamePrefix + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.maxPendingMembers = threads * 2;
+        } else {
+            this.executor = null;
+            this.maxPendingMembers = 1;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        return (read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        while (true) {
+            if (currentMember != null && position < currentMember.length) {
+                int count = Math.min(length, currentMember.length - position);
+                System.arraycopy(currentMember, position, bytes, offset, count);
+                position += count;
+                return count;
+            }
+            if (streamInflater != null) {
+                int count = inflateStream(bytes, offset, length);
+                if (count > 0) {
+                    return count;
+                }
+                continue;
+            }
+            if (!nextMember()) {
+                return -1;
+            }
+        }
+    }
+
+    @Override
+    public int available() {
+        return (currentMember != null ? currentMember.length - position : 0);
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        pendingMembers.clear();
+        if (streamInflater != null) {
+            streamInflater.end();
+            streamInflater = null;
+        }
+    }
+
+    private boolean nextMember() throws IOException {
+        currentMember = null;
+        queueMembers();
+
+        Future<byte[]> pendingMember = pendingMembers.poll();
+        if (pendingMember != null) {
+            currentMember = getMember(pendingMember);
+            position = 0;
+            queueMembers();
+            return true;
+        }
+        if (streamedMemberPending) {
+            streamedMemberPending = false;
+            streamInflater = new Inflater(true);
+            streamCrc.reset();
+            streamSize = 0;
+            return true;
+        }
+
+        return false;
+    }
+
+    private void queueMembers() throws IOException {
+        while (!endOfInput && !streamedMemberPending && pendingMembers.size() < maxPendingMembers) {
+            int blockSize = readHeader();
+            if (blockSize == -1) {
+                endOfInput = true;
+            } else if (blockSize == 0) {
+                // Not a block member... the next member is only delimited by inflating it...
+                streamedMemberPending = true;
+            } else {
+                byte[] block = new byte[blockSize];
+                readFully(block, 0, blockSize);
+                Callable<byte[]> inflateTask = () -> inflateBlock(block);
+                if (executor != null) {
+                    pendingMembers.add(executor.submit(inflateTask));
+                } else {
+                    FutureTask<byte[]> task = new FutureTask<>(inflateTask);
+                    task.run();
+                    pendingMembers.add(task);
+                }
+            }
+        }
+    }
+
+    private byte[] getMember(Future<byte[]> pendingMember) throws IOException {
+        try {
+            return pendingMember.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on a GZIP member.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Error inflating GZIP member.", cause);
+        }
+    }
+
+    /**
+     * Read the next member header.
+     *
+     * @return The remaining block size (compressed data plus trailer) of a block member, 0 if the member
+     * is not a block member, or -1 at the end of the input.
+     * @throws IOException Error reading the header.
+     */
+    private int readHeader() throws IOException {
+        int byte1 = input.read();
+        if (byte1 == -1 && !firstMember) {
+            return -1;
+        }
+        int byte2 = input.read();
+        if ((byte1 | (byte2 << 8)) != GZIP_MAGIC) {
+            if (firstMember) {
+                throw new ZipException("Not in GZIP format.");
+            }
+            // Trailing garbage after the last member is ignored, as it is by java.util.zip.GZIPInputStream...
+            return -1;
+        }
+        firstMember = false;
+
+        if (readUByte() != 8) {
+            throw new ZipException("Unsupported GZIP compression method.");
+        }
+        int flags = readUByte();
+        // MTIME, XFL and OS...
+        skipFully(6);
+        int headerLength = 10;
+
+        int blockSize = 0;
+        if ((flags & FEXTRA) == FEXTRA) {
+            byte[] extra = new byte[readUShort()];
+            readFully(extra, 0, extra.length);
+            headerLength += 2 + extra.length;
+            for (int i = 0; i + 4 <= extra.length; ) {
+                int subfieldLength = (extra[i + 2] & 0xFF) | ((extra[i + 3] & 0xFF) << 8);
+                if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2 && i + 6 <= extra.length) {
+                    // BGZF block size, less 1...
+                    blockSize = ((extra[i + 4] & 0xFF) | ((extra[i + 5] & 0xFF) << 8)) + 1;
+                }
+                i += 4 + subfieldLength;
+            }
+        }
+        if ((flags & FNAME) == FNAME) {
+            headerLength += skipZeroTerminated();
+        }
+        if ((flags & FCOMMENT) == FCOMMENT) {
+            headerLength += skipZeroTerminated();
+        }
+        if ((flags & FHCRC) == FHCRC) {
+            skipFully(2);
+            headerLength += 2;
+        }
+
+        if (blockSize == 0) {
+            return 0;
+        }
+        if (blockSize < headerLength + TRAILER_LENGTH) {
+            throw new ZipException("Invalid GZIP block size.");
+        }
+        return blockSize - headerLength;
+    }
+
+    private byte[] inflateBlock(byte[] block) throws IOException {
+        int dataLength = block.length - TRAILER_LENGTH;
+        long expectedCrc = readUInt(block, dataLength);
+        long expectedSize = readUInt(block, dataLength + 4);
+        if (expectedSize > MAX_BLOCK_SIZE) {
+            throw new ZipException("Invalid GZIP block.  Uncompressed size exceeds " + MAX_BLOCK_SIZE + " bytes.");
+        }
+
+        // One spare byte, so the inflater always has room to reach the end of the deflate data...
+        byte[] member = new byte[(int) expectedSize + 1];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, 0, dataLength);
+            int memberLength = 0;
+            while (!inflater.finished()) {
+                int count = inflater.inflate(member, memberLength, member.length - memberLength);
+                if (count == 0 && !inflater.finished()) {
+                    throw new ZipException("Corrupt GZIP block.");
+                }
+                memberLength += count;
+            }
+            if (memberLength != expectedSize) {
+                throw new ZipException("Corrupt GZIP trailer.  Size mismatch.");
+            }
+            member = Arrays.copyOf(member, memberLength);
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt GZIP block.  " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(member, 0, member.length);
+        if (crc.getValue() != expectedCrc) {
+            throw new ZipException("Corrupt GZIP trailer.  CRC mismatch.");
+        }
+
+        return member;
+    }
+
+    private int inflateStream(byte[] bytes, int offset, int length) throws IOException {
+        try {
+            while (true) {
+                int count = streamInflater.inflate(bytes, offset, length);
+                if (count > 0) {
+                    streamCrc.update(bytes, offset, count);
+                    streamSize += count;
+                    return count;
+                }
+                if (streamInflater.finished()) {
+                    endStreamedMember();
+                    return 0;
+                }
+                if (streamInflater.needsDictionary()) {
+                    throw new ZipException("Corrupt GZIP member.  Unexpected preset dictionary.");
+                }
+                if (streamInflater.needsInput()) {
+                    inputLength = input.read(inputBuffer, 0, inputBuffer.length);
+                    if (inputLength == -1) {
+                        throw new EOFException("Unexpected end of GZIP input.");
+                    }
+                    streamInflater.setInput(inputBuffer, 0, inputLength);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt GZIP member.  " + e.getMessage());
+        }
+    }
+
+    private void endStreamedMember() throws IOException {
+        int remaining = streamInflater.getRemaining();
+        if (remaining > 0) {
+            // Hand the bytes following the deflate data back to the input, for the trailer and next member...
+            input.unread(inputBuffer, inputLength - remaining, remaining);
+        }
+        streamInflater.end();
+        streamInflater = null;
+
+        byte[] trailer = new byte[TRAILER_LENGTH];
+        readFully(trailer, 0, TRAILER_LENGTH);
+        if (readUInt(trailer, 0) != streamCrc.getValue()) {
+            throw new ZipException("Corrupt GZIP trailer.  CRC mismatch.");
+        }
+        if (readUInt(trailer, 4) != (streamSize & 0xFFFFFFFFL)) {
+            throw new ZipException("Corrupt GZIP trailer.  Size mismatch.");
+        }
+    }
+
+    private int readUByte() throws IOException {
+        int b = input.read();
+        if (b == -1) {
+            throw new EOFException("Unexpected end of GZIP input.");
+        }
+        return b;
+    }
+
+    private int readUShort() throws IOException {
+        return readUByte() | (readUByte() << 8);
+    }
+
+    private static long readUInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFFL) | ((bytes[offset + 1] & 0xFFL) << 8) | ((bytes[offset + 2] & 0xFFL) << 16) | ((bytes[offset + 3] & 0xFFL) << 24);
+    }
+
+    private int skipZeroTerminated() throws IOException {
+        int length = 1;
+        while (readUByte() != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private void skipFully(int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            readUByte();
+        }
+    }
+
+    private void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = input.read(bytes, offset, length);
+            if (count == -1) {
+                throw new EOFException("Unexpected end of GZIP input.");
+            }
+            offset += count;
+            length -= count;
+        }
+    }
+}
@@ -42,8 +42,11 @@
  */
 package org.smooks.cartridges.flatfile;
 
+import org.smooks.api.SmooksException;
 import org.smooks.assertion.AssertArgument;
 
+import java.io.IOException;
+
 /**
  * Flat file record field.
  *
@@ -51,8 +54,10 @@ import org.smooks.assertion.AssertArgument;
  */
 public class Field {
 
-    private final String name;
-    private final String value;
+    private String name;
+    private String value;
+    private CharSequence valueChars;
+    private SpilledValue spilledValue;
     private FieldMetaData metaData;
 
     /**
@@ -65,6 +70,61 @@ public class Field {
         AssertArgument.isNotNullAndNotEmpty(name, "name");
         this.name = name;
         this.value = value;
+        this.valueChars = null;
+        this.spilledValue = null;
+    }
+
+    /**
+     * Public constructor for a field whose value string is built lazily.
+     * <p/>
+     * The value string is built from the supplied chars the first time it's got.
+     *
+     * @param name  The field name. Used to create the field value element.
+     * @param value The field value chars.
+     */
+    public Field(String name, CharSequence value) {
+        AssertArgument.isNotNullAndNotEmpty(name, "name");
+        AssertArgument.isNotNull(value, "value");
+        this.name = name;
+        this.value = null;
+        this.valueChars = value;
+        this.spilledValue = null;
+    }
+
+    /**
+     * Public constructor for a field whose value has been spilled to disk.
+     *
+     * @param name         The field name. Used to create the field value element.
+     * @param spilledValue The spilled field value.
+     */
+    public Field(String name, SpilledValue spilledValue) {
+        AssertArgument.isNotNullAndNotEmpty(name, "name");
+        AssertArgument.isNotNull(spilledValue, "spilledValue");
+        this.name = name;
+        this.value = null;
+        this.valueChars = null;
+        this.spilledValue = spilledValue;
+    }
+
+    /**
+     * Reset the field, for reuse by a parser.
+     * <p/>
+     * As with {@link #Field(String, CharSequence)}, the value string is built from the supplied chars the first
+     * time it's got.  The field metadata is cleared.
+     *
+     * @param name  The field name. Used to create the field value element.
+     * @param value The field value chars.  Can be <code>null</code>.
+     * @return This field instance.
+     * @see RecordParser#nextRecord()
+     */
+    public Field reset(String name, CharSequence value) {
+        AssertArgument.isNotNullAndNotEmpty(name, "name");
+        this.name = name;
+        this.value = (value instanceof String ? (String) value : null);
+        this.valueChars = value;
+        this.spilledValue = null;
+        this.metaData = null;
+        return this;
     }
 
     /**
@@ -78,13 +138,53 @@ public class Field {
 
     /**
      * Get the field value.
+     * <p/>
+     * A spilled field value (see {@link #getSpilledValue()}) is read into memory on the first call, and held
+     * on the field from then on.  Stream it through {@link #getSpilledValue()} instead to keep it out of
+     * memory.  A lazily built field value is built on the first call.
      *
      * @return The field value.
+     * @throws SmooksException Error reading the spilled field value.
      */
     public String getValue() {
+        if (value == null && spilledValue != null) {
+            try {
+                value = spilledValue.read();
+            } catch (IOException e) {
+                throw new SmooksException("Error reading spilled value of field '" + name + "'.", e);
+            }
+        }
+        if (value == null && valueChars != null) {
+            value = valueChars.toString();
+        }
         return value;
     }
 
+    /**
+     * Get the field value chars, without building the value string.
+     * <p/>
+     * For a lazily built field value (see {@link #Field(String, CharSequence)}) that hasn't been got yet, these
+     * are the chars the field was created with, e.g. a {@link CharSpan} view of the parser's record buffer.
+     * Such a view is only valid until the parser reads the next record.
+     *
+     * @return The field value chars, or null if the field value has been spilled to disk.
+     */
+    public CharSequence getValueChars() {
+        if (spilledValue != null) {
+            return null;
+        }
+        return (value != null ? value : valueChars);
+    }
+
+    /**
+     * Get the spilled field value.
+     *
+     * @return The spilled field value, or null if the field value is held in memory.
+     */
+    public SpilledValue getSpilledValue() {
+        return spilledValue;
+    }
+
     /**
      * Set optional field metadata.
      *
@@ -44,6 +44,8 @@ package org.smooks.cartridges.flatfile;
 
 import org.smooks.api.ApplicationContext;
 import org.smooks.api.ExecutionContext;
+import org.smooks.api.SmooksConfigException;
+import org.smooks.api.SmooksException;
 import org.smooks.api.delivery.ContentHandlerBinding;
 import org.smooks.api.delivery.VisitorAppender;
 import org.smooks.api.resource.config.ResourceConfig;
@@ -60,9 +62,19 @@ import jakarta.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.xml.XMLConstants;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Flat file reader.
@@ -77,8 +89,15 @@ public class FlatFileReader implements SmooksXMLReader, VisitorAppender {
     private static final char[] INDENTCHARS = new char[]{'\t', '\t'};
     private static final String RECORD_NUMBER_ATTR = "number";
     private static final String RECORD_TRUNCATED_ATTR = "truncated";
+    private static final int DEFAULT_READ_AHEAD_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_INFLATE_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private static final int SPILLED_VALUE_CHUNK_SIZE = 8192;
+    private static final String GZIP_COMPRESSION = "gzip";
+    private static final String DEFLATE_COMPRESSION = "deflate";
+    private static final String NO_COMPRESSION = "none";
 
     private ContentHandler contentHandler;
+    private char[] valueBuffer = new char[256];
     private ExecutionContext execContext;
 
     @Inject
@@ -98,8 +117,23 @@ public class FlatFileReader implements SmooksXMLReader, VisitorAppender {
     @Inject
     private Boolean indent = false;
 
+    @Inject
+    private Optional<String> compression;
+
+    @Inject
+    private Integer inflateThreads = DEFAULT_INFLATE_THREADS;
+
+    @Inject
+    private Integer readAheadBuffers = 0;
+
+    @Inject
+    private Integer readAheadBufferSize = DEFAULT_READ_AHEAD_BUFFER_SIZE;
+
     @PostConstruct
     public void initialize() throws IllegalAccessException, InstantiationException {
+        if (compression.isPresent() && !Arrays.asList(GZIP_COMPRESSION, DEFLATE_COMPRESSION, NO_COMPRESSION).contains(compression.get())) {
+            throw new SmooksConfigException("Unsupported flat file 'compression' value '" + compression.get() + "'.  Must be one of '" + GZIP_COMPRESSION + "', '" + DEFLATE_COMPRESSION + "' or '" + NO_COMPRESSION + "'.");
+        }
         parserFactory = parserFactoryClass.newInstance();
         appContext.getRegistry().lookup(new LifecycleManagerLookup()).applyPhase(parserFactory, new PostConstructLifecyclePhase(new Scope(appContext.getRegistry(), resourceConfig, parserFactory)));
     }
@@ -131,10 +165,22 @@ public class FlatFileReader implements SmooksXMLReader, VisitorAppender {
             throw new IllegalStateException("'execContext' not set.  Cannot parse Record stream.");
         }
 
+        Closeable decompression = null;
+        Closeable readAhead = null;
         try {
             // Create the record parser....
             RecordParser recordParser = parserFactory.newRecordParser();
             recordParser.setRecordParserFactory(parserFactory);
+            if (inputSource.getEncoding() == null) {
+                // Byte stream data sources are decoded using the content encoding...
+                inputSource.setEncoding(execContext.getContentEncoding());
+            }
+            if (inputSource.getSystemId() == null && execContext.getDocumentSource() != null && !ExecutionContext.DOCUMENT_URI.equals(execContext.getDocumentSource())) {
+                // Identifies the data source file (if it's a file: URI), for memory mapping and record indexing...
+                inputSource.setSystemId(execContext.getDocumentSource().toString());
+            }
+            decompression = applyDecompression(inputSource);
+            readAhead = applyReadAhead(inputSource);
             recordParser.setDataSource(inputSource);
 
             try {
@@ -177,8 +223,16 @@ public class FlatFileReader implements SmooksXMLReader, VisitorAppender {
 
                         contentHandler.startElement(XMLConstants.NULL_NS_URI, fieldName, "", EMPTY_ATTRIBS);
 
-                        String value = recordField.getValue();
-                        contentHandler.characters(value.toCharArray(), 0, value.length());
+                        SpilledValue spilledValue = recordField.getSpilledValue();
+                        if (spilledValue != null) {
+                            try {
+                                writeSpilledValue(spilledValue);
+                            } finally {
+                                spilledValue.delete();
+                            }
+                        } else {
+                            writeValueChars(recordField.getValueChars());
+                        }
                         contentHandler.endElement(XMLConstants.NULL_NS_URI, fieldName, "");
                     }
 
@@ -203,12 +257,133 @@ public class FlatFileReader implements SmooksXMLReader, VisitorAppender {
                 recordParser.uninitialize();
             }
         } finally {
+            if (readAhead != null) {
+                readAhead.close();
+            }
+            if (decompression != null) {
+                decompression.close();
+            }
             // These properties need to be reset for every execution (e.g. when reader is pooled).
             contentHandler = null;
             execContext = null;
         }
     }
 
+    /**
+     * Wrap the data source byte stream in a decompressing stream, if configured (see <code>compression</code>).
+     *
+     * @param inputSource The data source.
+     * @return The decompression resource to be released once parsing is complete, or <code>null</code> if the
+     * data source is not compressed.
+     */
+    private Closeable applyDecompression(InputSource inputSource) {
+        if (!compression.isPresent() || compression.get().equals(NO_COMPRESSION)) {
+            return null;
+        }
+
+        InputStream byteStream = inputSource.getByteStream();
+        if (byteStream == null) {
+            throw new SmooksException("Unable to decompress the flat file data source.  Compressed input requires a byte stream data source.");
+        }
+
+        Closeable decompression;
+        if (compression.get().equals(GZIP_COMPRESSION)) {
+            ConcurrentGzipInputStream gzipStream = new ConcurrentGzipInputStream(byteStream, inflateThreads);
+            setByteStream(inputSource, gzipStream);
+            decompression = gzipStream;
+        } else {
+            Inflater inflater = new Inflater();
+            setByteStream(inputSource, new InflaterInputStream(byteStream, inflater));
+            decompression = inflater::end;
+        }
+        // The system ID identifies the compressed data, so it can't be used for reading the records...
+        inputSource.setSystemId(null);
+
+        return decompression;
+    }
+
+    /**
+     * Wrap the data source stream in a read-ahead stream, if configured (see <code>readAheadBuffers</code>).
+     * <p/>
+     * The character stream is wrapped if there is one, as it's the stream the records are read from.  Otherwise,
+     * the byte stream is wrapped.
+     *
+     * @param inputSource The data source.
+     * @return The read-ahead stream, or <code>null</code> if read-ahead is not configured.
+     */
+    private Closeable applyReadAhead(InputSource inputSource) {
+        if (readAheadBuffers <= 0) {
+            return null;
+        }
+
+        Reader reader = inputSource.getCharacterStream();
+        InputStream byteStream = inputSource.getByteStream();
+        if (reader == null && byteStream != null) {
+            ReadAheadInputStream readAheadStream = new ReadAheadInputStream(byteStream, readAheadBuffers, readAheadBufferSize);
+            setByteStream(inputSource, readAheadStream);
+            return readAheadStream;
+        } else if (reader != null) {
+            ReadAheadReader readAheadReader = new ReadAheadReader(reader, readAheadBuffers, readAheadBufferSize);
+            inputSource.setCharacterStream(readAheadReader);
+            return readAheadReader;
+        }
+
+        return null;
+    }
+
+    private void writeSpilledValue(SpilledValue spilledValue) throws IOException, SAXException {
+        try (Reader reader = spilledValue.openReader()) {
+            char[] chars = new char[SPILLED_VALUE_CHUNK_SIZE];
+            int count;
+            while ((count = reader.read(chars, 0, chars.length)) != -1) {
+                contentHandler.characters(chars, 0, count);
+            }
+        }
+    }
+
+    /**
+     * Write a field value, copying its chars straight out of the backing string or record buffer into the
+     * reused value buffer.
+     */
+    private void writeValueChars(CharSequence value) throws SAXException {
+        int length = value.length();
+        if (valueBuffer.length < length) {
+            valueBuffer = new char[Math.max(length, valueBuffer.length * 2)];
+        }
+
+        if (value instanceof String) {
+            ((String) value).getChars(0, length, valueBuffer, 0);
+        } else if (value instanceof CharSpan) {
+            ((CharSpan) value).getChars(valueBuffer, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                valueBuffer[i] = value.charAt(i);
+            }
+        }
+        contentHandler.characters(valueBuffer, 0, length);
+    }
+
+    /**
+     * Replace the data source byte stream.
+     * <p/>
+     * A character stream created by Smooks over the old byte stream is replaced with one over the new byte stream.
+     *
+     * @param inputSource The data source.
+     * @param byteStream  The new byte stream.
+     */
+    private static void setByteStream(InputSource inputSource, InputStream byteStream) {
+        Reader reader = inputSource.getCharacterStream();
+        inputSource.setByteStream(byteStream);
+        if (reader instanceof InputStreamReader) {
+            // A closed InputStreamReader has no encoding... fall back to the configured encoding...
+            String encoding = ((InputStreamReader) reader).getEncoding();
+            if (encoding == null) {
+                encoding = inputSource.getEncoding();
+            }
+            inputSource.setCharacterStream(new InputStreamReader(byteStream, (encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8)));
+        }
+    }
+
     public void setContentHandler(ContentHandler contentHandler) {
         this.contentHandler = contentHandler;
     }
@@ -0,0 +1,90 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read-ahead {@link InputStream}.
+ * <p/>
+ * Reads the underlying stream on a background thread, into a bounded queue of byte buffers, so that
+ * I/O latency on the underlying stream overlaps with record parsing.  Closing this stream stops the
+ * background thread, but does not close the underlying stream.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private final ReadAheadQueue<byte[]> queue;
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * Public constructor.
+     *
+     * @param stream      The underlying stream.
+     * @param bufferCount The number of buffers that can be read ahead (the queue depth).
+     * @param bufferSize  The buffer size, in bytes.
+     */
+    public ReadAheadInputStream(InputStream stream, int bufferCount, int bufferSize) {
+        this.queue = new ReadAheadQueue<>(buffer -> stream.read(buffer, 0, buffer.length), byte.class, bufferCount, bufferSize);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return (queue.read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        return queue.read(bytes, offset, length);
+    }
+
+    @Override
+    public int available() {
+        return queue.available();
+    }
+
+    @Override
+    public void close() {
+        queue.close();
+    }
+}
@@ -0,0 +1,235 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Array;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-ahead buffer queue.
+ * <p/>
+ * A background thread fills a bounded pool of buffers (<code>byte[]</code> or <code>char[]</code>) from the
+ * underlying data source, while the consumer drains the filled buffers in order.  The reader thread blocks once
+ * all buffers are filled, so at most <code>bufferCount</code> buffers are read ahead of the consumer.
+ * Errors on the reader thread are rethrown to the consumer once it has drained the buffers read before the error.
+ * Closing the queue stops the reader thread, waiting a bounded time for it to finish a read in progress, so that
+ * the underlying data source can be closed once the queue is closed.
+ *
+ * @param <B> The buffer array type.
+ */
+final class ReadAheadQueue<B> implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadAheadQueue.class);
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Underlying data source.
+     *
+     * @param <B> The buffer array type.
+     */
+    interface Source<B> {
+
+        /**
+         * Read into the buffer.
+         *
+         * @param buffer The buffer.
+         * @return The number of elements read, or -1 at the end of the data source.
+         * @throws IOException Error reading the data source.
+         */
+        int read(B buffer) throws IOException;
+    }
+
+    private static final Chunk<Object> END_OF_SOURCE = new Chunk<>(null, -1, null);
+
+    private final BlockingQueue<B> freeBuffers;
+    private final BlockingQueue<Chunk<B>> filledBuffers;
+    private final Thread readerThread;
+    private volatile boolean closed;
+
+    private Chunk<B> currentChunk;
+    private int position;
+
+    ReadAheadQueue(Source<B> source, Class<?> componentType, int bufferCount, int bufferSize) {
+        if (bufferCount < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("Invalid read-ahead buffer count '" + bufferCount + "' or buffer size '" + bufferSize + "'.  Must be greater than zero.");
+        }
+        this.freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        // Room for every buffer plus the end/error marker, so the reader thread never blocks on a put...
+        this.filledBuffers = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            freeBuffers.add(newBuffer(componentType, bufferSize));
+        }
+
+        this.readerThread = new Thread(() -> fill(source), "flatfile-read-ahead-" + THREAD_COUNT.incrementAndGet());
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+    }
+
+    /**
+     * Read from the filled buffers.
+     *
+     * @param destination The destination array.
+     * @param offset      The destination offset.
+     * @param length      The maximum number of elements to read.
+     * @return The number of elements read, or -1 at the end of the data source.
+     * @throws IOException Error reading the data source.
+     */
+    int read(B destination, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (currentChunk == null || currentChunk.buffer == null || position == currentChunk.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+
+        int count = Math.min(length, currentChunk.length - position);
+        System.arraycopy(currentChunk.buffer, position, destination, offset, count);
+        position += count;
+
+        return count;
+    }
+
+    /**
+     * Get the number of elements that can be read without blocking.
+     *
+     * @return The number of elements that can be read without blocking.
+     */
+    int available() {
+        return (currentChunk != null && currentChunk.buffer != null ? currentChunk.length - position : 0);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        readerThread.interrupt();
+        try {
+            readerThread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (readerThread.isAlive()) {
+            LOGGER.warn("Read-ahead thread '{}' did not stop within {} ms of being closed.  It's blocked reading the flat file data source.", readerThread.getName(), CLOSE_TIMEOUT_MILLIS);
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (currentChunk != null) {
+            if (currentChunk.buffer == null) {
+                return finish(currentChunk);
+            }
+            freeBuffers.add(currentChunk.buffer);
+        }
+
+        try {
+            currentChunk = filledBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on the read-ahead thread.");
+        }
+        position = 0;
+
+        if (currentChunk.buffer == null) {
+            return finish(currentChunk);
+        }
+        return true;
+    }
+
+    private boolean finish(Chunk<B> marker) throws IOException {
+        if (marker.error != null) {
+            throw new IOException("Error reading ahead on the flat file data source.", marker.error);
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fill(Source<B> source) {
+        try {
+            while (!closed) {
+                B buffer = freeBuffers.take();
+                int count = source.read(buffer);
+                if (count == -1) {
+                    filledBuffers.add((Chunk<B>) END_OF_SOURCE);
+                    return;
+                } else if (count == 0) {
+                    freeBuffers.add(buffer);
+                } else {
+                    filledBuffers.add(new Chunk<>(buffer, count, null));
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed...
+        } catch (Throwable t) {
+            // Every error is handed to the consumer, which would otherwise wait on the queue forever...
+            filledBuffers.add(new Chunk<>(null, -1, t));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <B> B newBuffer(Class<?> componentType, int bufferSize) {
+        return (B) Array.newInstance(componentType, bufferSize);
+    }
+
+    private static class Chunk<B> {
+
+        private final B buffer;
+        private final int length;
+        private final Throwable error;
+
+        private Chunk(B buffer, int length, Throwable error) {
+            this.buffer = buffer;
+            this.length = length;
+            this.error = error;
+        }
+    }
+}
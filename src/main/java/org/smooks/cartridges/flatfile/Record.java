@@ -53,9 +53,9 @@ import java.util.List;
  */
 public class Record {
 
-    private final String name;
-    private final List<Field> fields;
-    private final RecordMetaData recordMetaData;
+    private String name;
+    private List<Field> fields;
+    private RecordMetaData recordMetaData;
 
     /**
      * Public constructor.
@@ -73,6 +73,24 @@ public class Record {
         this.recordMetaData = recordMetaData;
     }
 
+    /**
+     * Reset the record, for reuse by a parser.
+     *
+     * @param name           The record name.
+     * @param fields         The record fields.
+     * @param recordMetaData Record metadata.
+     * @return This record instance.
+     * @see RecordParser#nextRecord()
+     */
+    public Record reset(String name, List<Field> fields, RecordMetaData recordMetaData) {
+        AssertArgument.isNotNullAndNotEmpty(name, "name");
+        AssertArgument.isNotNullAndNotEmpty(fields, "fields");
+        this.name = name;
+        this.fields = fields;
+        this.recordMetaData = recordMetaData;
+        return this;
+    }
+
     /**
      * Get the name of the record.
      *
@@ -0,0 +1,445 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of records, laid out in columns.
+ * <p/>
+ * The field values of all the records in the batch are copied into one shared char buffer (see {@link #getChars()}).
+ * Column <i>c</i> holds the <i>c</i>'th field of each record, i.e. the <i>c</i>'th of the record type's
+ * {@link RecordMetaData#getFieldNames() field names}.  Per column, the batch holds the offset and length of each
+ * record's value in the char buffer, and a bitmap flagging the records whose value is null (the record has no
+ * such field) or empty.  A null value has an offset of <code>-1</code>.
+ * <p/>
+ * A value spilled to disk (see {@link SpilledValue}) is not read into the char buffer.  It has an offset of
+ * <code>-2</code> and is got through {@link #getSpilledValue(int, int)}.  The batch doesn't delete the spill
+ * files (see {@link #deleteSpilledValues()}).
+ * <p/>
+ * The record type of each record is held as an id (see {@link #getRecordTypeIds()}), indexing the record types
+ * returned by {@link #getRecordType(int)}.  Record type ids stay the same when the batch is {@link #clear() cleared}
+ * and refilled.
+ *
+ * @see RecordParser#nextBatch(int)
+ */
+public class RecordBatch {
+
+    private static final int INITIAL_RECORD_CAPACITY = 64;
+    private static final int NULL_OFFSET = -1;
+    private static final int SPILLED_OFFSET = -2;
+
+    private final List<RecordMetaData> recordTypes = new ArrayList<RecordMetaData>();
+    private char[] chars = new char[1024];
+    private int charCount;
+    private int[] recordTypeIds = new int[INITIAL_RECORD_CAPACITY];
+    private int[][] offsets = new int[0][];
+    private int[][] lengths = new int[0][];
+    private long[][] nullOrEmpty = new long[0][];
+    private int columnCount;
+    private int size;
+    private int recordValueCount = -1;
+    // Spilled values are rare... each is held with its record and column index...
+    private final List<SpilledValue> spilledValues = new ArrayList<SpilledValue>();
+    private final List<int[]> spilledValueIndexes = new ArrayList<int[]>();
+
+    /**
+     * Clear the batch, for reuse.
+     */
+    public void clear() {
+        charCount = 0;
+        size = 0;
+        recordValueCount = -1;
+        spilledValues.clear();
+        spilledValueIndexes.clear();
+        for (int i = 0; i < columnCount; i++) {
+            Arrays.fill(nullOrEmpty[i], 0L);
+        }
+    }
+
+    /**
+     * Start adding a record to the batch.
+     *
+     * @param recordMetaData The record type.
+     */
+    public void startRecord(RecordMetaData recordMetaData) {
+        if (recordValueCount != -1) {
+            throw new IllegalStateException("Call to startRecord() before the previous record was ended.");
+        }
+        if (size == recordTypeIds.length) {
+            growRecordCapacity();
+        }
+        recordTypeIds[size] = getRecordTypeId(recordMetaData);
+        recordValueCount = 0;
+    }
+
+    /**
+     * Add the next field value of the record being added.
+     *
+     * @param value The field value, or null if the record has no such field.
+     */
+    public void addValue(CharSequence value) {
+        if (recordValueCount == -1) {
+            throw new IllegalStateException("Call to addValue() before startRecord().");
+        }
+        int column = recordValueCount++;
+        if (column == columnCount) {
+            addColumn();
+        }
+
+        if (value == null) {
+            setNull(column);
+            return;
+        }
+
+        int length = value.length();
+        ensureCharCapacity(length);
+        if (value instanceof String) {
+            ((String) value).getChars(0, length, chars, charCount);
+        } else if (value instanceof CharSpan) {
+            ((CharSpan) value).getChars(chars, charCount);
+        } else {
+            for (int i = 0; i < length; i++) {
+                chars[charCount + i] = value.charAt(i);
+            }
+        }
+        offsets[column][size] = charCount;
+        lengths[column][size] = length;
+        if (length == 0) {
+            setBit(nullOrEmpty[column], size);
+        }
+        charCount += length;
+    }
+
+    /**
+     * Add the next field value of the record being added, as a value spilled to disk.
+     * <p/>
+     * The value is not read.  The batch holds the spilled value itself.
+     *
+     * @param spilledValue The spilled value.
+     */
+    public void addSpilledValue(SpilledValue spilledValue) {
+        if (recordValueCount == -1) {
+            throw new IllegalStateException("Call to addSpilledValue() before startRecord().");
+        }
+        int column = recordValueCount++;
+        if (column == columnCount) {
+            addColumn();
+        }
+
+        offsets[column][size] = SPILLED_OFFSET;
+        lengths[column][size] = 0;
+        spilledValues.add(spilledValue);
+        spilledValueIndexes.add(new int[] {size, column});
+    }
+
+    /**
+     * End adding the record.  The columns the record has no value for are set to null.
+     */
+    public void endRecord() {
+        if (recordValueCount == -1) {
+            throw new IllegalStateException("Call to endRecord() before startRecord().");
+        }
+        for (int column = recordValueCount; column < columnCount; column++) {
+            setNull(column);
+        }
+        size++;
+        recordValueCount = -1;
+    }
+
+    /**
+     * Get the number of records in the batch.
+     *
+     * @return The number of records.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of columns in the batch, i.e. the field count of the record with the most fields.
+     *
+     * @return The number of columns.
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Get the shared char buffer holding the field values.
+     * <p/>
+     * The buffer may be larger than the values in it.
+     *
+     * @return The char buffer.
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * Get the record type id of each record.  Only the first {@link #size()} ids are valid.
+     *
+     * @return The record type ids.
+     */
+    public int[] getRecordTypeIds() {
+        return recordTypeIds;
+    }
+
+    /**
+     * Get the record type for a record type id.
+     *
+     * @param recordTypeId The record type id.
+     * @return The record type.
+     */
+    public RecordMetaData getRecordType(int recordTypeId) {
+        return recordTypes.get(recordTypeId);
+    }
+
+    /**
+     * Get the number of record types the batch has assigned ids to.
+     *
+     * @return The number of record types.
+     */
+    public int getRecordTypeCount() {
+        return recordTypes.size();
+    }
+
+    /**
+     * Get the value offsets of a column.  Only the first {@link #size()} offsets are valid.
+     *
+     * @param column The column index.
+     * @return The offset of each record's value in the char buffer, <code>-1</code> for null values or
+     * <code>-2</code> for spilled values.
+     */
+    public int[] getOffsets(int column) {
+        checkColumn(column);
+        return offsets[column];
+    }
+
+    /**
+     * Get the value lengths of a column.  Only the first {@link #size()} lengths are valid.
+     *
+     * @param column The column index.
+     * @return The length of each record's value.  <code>0</code> for null and spilled values.
+     */
+    public int[] getLengths(int column) {
+        checkColumn(column);
+        return lengths[column];
+    }
+
+    /**
+     * Get the null/empty bitmap of a column.  Bit <i>r</i> (i.e. <code>(bitmap[r >> 6] >>> r) & 1</code>)
+     * is set if the value of record <i>r</i> is null or empty.
+     *
+     * @param column The column index.
+     * @return The bitmap.
+     */
+    public long[] getNullOrEmptyBitmap(int column) {
+        checkColumn(column);
+        return nullOrEmpty[column];
+    }
+
+    /**
+     * Is a value null, i.e. the record has no such field.
+     *
+     * @param column The column index.
+     * @param record The record index.
+     * @return True if the value is null, otherwise false.
+     */
+    public boolean isNull(int column, int record) {
+        checkRecord(record);
+        return column >= columnCount || offsets[column][record] == NULL_OFFSET;
+    }
+
+    /**
+     * Is a value spilled to disk.
+     *
+     * @param column The column index.
+     * @param record The record index.
+     * @return True if the value is spilled, otherwise false.
+     */
+    public boolean isSpilled(int column, int record) {
+        checkRecord(record);
+        return column < columnCount && offsets[column][record] == SPILLED_OFFSET;
+    }
+
+    /**
+     * Get a value spilled to disk.
+     *
+     * @param column The column index.
+     * @param record The record index.
+     * @return The spilled value, or null if the value is not spilled.
+     */
+    public SpilledValue getSpilledValue(int column, int record) {
+        if (!isSpilled(column, record)) {
+            return null;
+        }
+        for (int i = 0; i < spilledValueIndexes.size(); i++) {
+            int[] index = spilledValueIndexes.get(i);
+            if (index[0] == record && index[1] == column) {
+                return spilledValues.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Delete the spill files of the spilled values in the batch.
+     */
+    public void deleteSpilledValues() {
+        for (SpilledValue spilledValue : spilledValues) {
+            spilledValue.delete();
+        }
+    }
+
+    /**
+     * Is a value null or empty.
+     *
+     * @param column The column index.
+     * @param record The record index.
+     * @return True if the value is null or empty, otherwise false.
+     */
+    public boolean isNullOrEmpty(int column, int record) {
+        checkRecord(record);
+        return column >= columnCount || (nullOrEmpty[column][record >> 6] & (1L << record)) != 0;
+    }
+
+    /**
+     * Get a value as a string.
+     * <p/>
+     * Builds a new string.  Use the column arrays to read the values without doing so.  A spilled value is
+     * not read into memory (see {@link #getSpilledValue(int, int)}).
+     *
+     * @param column The column index.
+     * @param record The record index.
+     * @return The value, or null if the value is null.
+     * @throws IllegalStateException The value is spilled to disk.
+     */
+    public String getValue(int column, int record) {
+        if (isNull(column, record)) {
+            return null;
+        }
+        if (offsets[column][record] == SPILLED_OFFSET) {
+            throw new IllegalStateException("Value of column " + column + ", record " + record + " is spilled to disk.  Read it through getSpilledValue().");
+        }
+        return new String(chars, offsets[column][record], lengths[column][record]);
+    }
+
+    private int getRecordTypeId(RecordMetaData recordMetaData) {
+        for (int i = 0; i < recordTypes.size(); i++) {
+            if (recordTypes.get(i) == recordMetaData) {
+                return i;
+            }
+        }
+        recordTypes.add(recordMetaData);
+        return recordTypes.size() - 1;
+    }
+
+    private void setNull(int column) {
+        offsets[column][size] = NULL_OFFSET;
+        lengths[column][size] = 0;
+        setBit(nullOrEmpty[column], size);
+    }
+
+    private static void setBit(long[] bitmap, int index) {
+        bitmap[index >> 6] |= (1L << index);
+    }
+
+    private void addColumn() {
+        int recordCapacity = recordTypeIds.length;
+        int[] columnOffsets = new int[recordCapacity];
+        int[] columnLengths = new int[recordCapacity];
+        long[] columnNullOrEmpty = new long[bitmapLength(recordCapacity)];
+
+        // The records already in the batch have no value for the new column...
+        Arrays.fill(columnOffsets, 0, size, NULL_OFFSET);
+        for (int i = 0; i < size; i++) {
+            setBit(columnNullOrEmpty, i);
+        }
+
+        if (columnCount == offsets.length) {
+            int capacity = Math.max(4, columnCount * 2);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            nullOrEmpty = Arrays.copyOf(nullOrEmpty, capacity);
+        }
+        offsets[columnCount] = columnOffsets;
+        lengths[columnCount] = columnLengths;
+        nullOrEmpty[columnCount] = columnNullOrEmpty;
+        columnCount++;
+    }
+
+    private void growRecordCapacity() {
+        int recordCapacity = recordTypeIds.length * 2;
+        recordTypeIds = Arrays.copyOf(recordTypeIds, recordCapacity);
+        for (int i = 0; i < columnCount; i++) {
+            offsets[i] = Arrays.copyOf(offsets[i], recordCapacity);
+            lengths[i] = Arrays.copyOf(lengths[i], recordCapacity);
+            nullOrEmpty[i] = Arrays.copyOf(nullOrEmpty[i], bitmapLength(recordCapacity));
+        }
+    }
+
+    private void ensureCharCapacity(int length) {
+        if (chars.length - charCount < length) {
+            chars = Arrays.copyOf(chars, Math.max(charCount + length, chars.length * 2));
+        }
+    }
+
+    private static int bitmapLength(int recordCapacity) {
+        return (recordCapacity + 63) >> 6;
+    }
+
+    private void checkColumn(int column) {
+        if (column < 0 || column >= columnCount) {
+            throw new IndexOutOfBoundsException("Column: " + column + ", Column count: " + columnCount);
+        }
+    }
+
+    private void checkRecord(int record) {
+        if (record < 0 || record >= size) {
+            throw new IndexOutOfBoundsException("Record: " + record + ", Size: " + size);
+        }
+    }
+}
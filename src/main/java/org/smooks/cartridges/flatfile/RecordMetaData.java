@@ -60,6 +60,7 @@ public class RecordMetaData {
     private final boolean wildCardRecord;
     private int ignoredFieldCount;
     private int unignoredFieldCount;
+    private int usedFieldCount;
     private List<String> fieldNames;
 
     /**
@@ -87,6 +88,7 @@ public class RecordMetaData {
         this.fields = fields;
         this.wildCardRecord = wildCardRecord;
         countIgnoredFields();
+        countUsedFields();
         gatherFieldNames();
     }
 
@@ -138,6 +140,18 @@ public class RecordMetaData {
         return unignoredFieldCount;
     }
 
+    /**
+     * Get the number of leading field values in this record that are bound to fields.
+     * <p/>
+     * Field values after the last field that is not ignored are never used, including those ignored
+     * by a trailing <code>$ignore$+</code>.
+     *
+     * @return The number of used field values, or {@link Integer#MAX_VALUE} if this is a wildcard record.
+     */
+    public int getUsedFieldCount() {
+        return usedFieldCount;
+    }
+
     /**
      * Get a collection of all the field names (excluding ignored fields) in
      * this record.
@@ -171,6 +185,19 @@ public class RecordMetaData {
         }
     }
 
+    private void countUsedFields() {
+        if (wildCardRecord) {
+            usedFieldCount = Integer.MAX_VALUE;
+            return;
+        }
+        for (int i = fields.size() - 1; i >= 0; i--) {
+            if (!fields.get(i).ignore()) {
+                usedFieldCount = i + 1;
+                return;
+            }
+        }
+    }
+
     private void gatherFieldNames() {
         if (fields == null) {
             fieldNames = new ArrayList<String>();
@@ -76,12 +76,74 @@ public interface RecordParser<T extends RecordParserFactory> {
 
     /**
      * Parse the next record from the message stream and produce a {@link Record} instance.
+     * <p/>
+     * A parser configured to reuse its records (e.g. see
+     * {@link org.smooks.cartridges.flatfile.variablefield.VariableFieldRecordParserFactory#isReuseRecords()})
+     * resets and returns the same {@link Record} and {@link Field} instances on every call.  A reused record,
+     * its field list and its fields are only valid until the next call, and must not be held on to.
      *
      * @return The records instance.
      * @throws IOException Error reading message stream.
      */
     Record nextRecord() throws IOException;
 
+    /**
+     * Skip past the next records in the message stream, without producing {@link Record} instances.
+     * <p/>
+     * This default implementation parses and discards the records.  Implementations should override it
+     * to advance past the record boundaries without tokenizing the records.
+     *
+     * @param count The number of records to skip.
+     * @return The number of records skipped.  Less than <code>count</code> if the end of the message stream was reached.
+     * @throws IOException Error reading message stream.
+     */
+    default int skipRecords(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (nextRecord() == null) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Parse the next records from the message stream into a columnar {@link RecordBatch}.
+     * <p/>
+     * This default implementation copies the fields of the {@link Record} instances produced by
+     * {@link #nextRecord()} into a new batch.  Implementations should override it to fill the batch
+     * without producing {@link Record} instances.  A parser configured to reuse its records may also
+     * reuse the batch, in which case the batch is only valid until the next call.
+     * <p/>
+     * Values spilled to disk are held in the batch unread (see {@link RecordBatch#getSpilledValue(int, int)}).
+     * In this default implementation, the caller deletes their spill files (see
+     * {@link RecordBatch#deleteSpilledValues()}).  Implementations may delete them on the next call instead.
+     *
+     * @param maxRecords The maximum number of records to parse into the batch.
+     * @return The batch, or null if the end of the message stream was reached before any record was parsed.
+     * @throws IOException Error reading message stream.
+     */
+    default RecordBatch nextBatch(int maxRecords) throws IOException {
+        RecordBatch batch = new RecordBatch();
+        while (batch.size() < maxRecords) {
+            Record record = nextRecord();
+            if (record == null) {
+                break;
+            }
+
+            batch.startRecord(record.getRecordMetaData());
+            for (Field field : record.getFields()) {
+                SpilledValue spilledValue = field.getSpilledValue();
+                if (spilledValue != null) {
+                    batch.addSpilledValue(spilledValue);
+                } else {
+                    batch.addValue(field.getValueChars());
+                }
+            }
+            batch.endRecord();
+        }
+        return (batch.size() > 0 ? batch : null);
+    }
+
     /**
      * Uninitialize the parser instance.
      */
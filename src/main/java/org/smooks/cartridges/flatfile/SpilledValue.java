@@ -0,0 +1,120 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Field value spilled to a temporary file.
+ * <p/>
+ * Used for records that exceed the configured maximum record length (see the <code>spill</code> oversize
+ * record policy), so that the record text is never held in memory.  The value is only read from the file
+ * on demand.
+ */
+public class SpilledValue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpilledValue.class);
+
+    private final Path file;
+    private final long length;
+
+    /**
+     * Public constructor.
+     *
+     * @param file   The UTF-8 encoded spill file.
+     * @param length The value length, in chars.
+     */
+    public SpilledValue(Path file, long length) {
+        this.file = file;
+        this.length = length;
+    }
+
+    /**
+     * Get the value length.
+     *
+     * @return The value length, in chars.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Open a reader on the value.
+     *
+     * @return The value reader.
+     * @throws IOException Error opening the spill file.
+     */
+    public Reader openReader() throws IOException {
+        return Files.newBufferedReader(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the whole value into memory.
+     * <p/>
+     * Use {@link #openReader()} to stream the value instead.
+     *
+     * @return The value.
+     * @throws IOException Error reading the spill file.
+     */
+    public String read() throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Delete the spill file.
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.debug("Error deleting flat file spill file '" + file + "'.", e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+/**
+ * {@link CharSequence} view that bounds the number of chars a matcher can examine.
+ * <p/>
+ * Each {@link #charAt(int)} call is a step.  Once the step budget is spent, {@link #charAt(int)} throws
+ * {@link StepBudgetExceededException}, cutting the match off.  Reset against each record in turn.
+ */
+final class BoundedCharSequence implements CharSequence {
+
+    private static final StepBudgetExceededException STEP_BUDGET_EXCEEDED = new StepBudgetExceededException();
+
+    private CharSequence sequence;
+    private long remainingSteps;
+
+    BoundedCharSequence reset(CharSequence sequence, long steps) {
+        this.sequence = sequence;
+        this.remainingSteps = steps;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return sequence.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (--remainingSteps < 0) {
+            throw STEP_BUDGET_EXCEEDED;
+        }
+        return sequence.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return sequence.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return sequence.toString();
+    }
+
+    /**
+     * Thrown when the step budget is spent.  Shared, without a stack trace.
+     */
+    static final class StepBudgetExceededException extends RuntimeException {
+        private StepBudgetExceededException() {
+            super("Match step budget exceeded.", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of code points, held as sorted, disjoint and non adjacent inclusive ranges.
+ * <p/>
+ * ASCII membership is looked up in a bitmap.  Other code points are binary searched in the ranges.
+ */
+final class CharClass {
+
+    static final CharClass NONE = new CharClass(new int[0]);
+    static final CharClass ANY = new CharClass(new int[]{0, Character.MAX_CODE_POINT});
+    static final CharClass DIGIT = new CharClass(new int[]{'0', '9'});
+    static final CharClass WORD = new CharClass(new int[]{'0', '9', 'A', 'Z', '_', '_', 'a', 'z'});
+    static final CharClass SPACE = new CharClass(new int[]{'\t', '\r', ' ', ' '});
+    static final CharClass LINE_TERMINATOR = new CharClass(new int[]{'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029});
+
+    private final int[] ranges;
+    private final long asciiLow;
+    private final long asciiHigh;
+
+    private CharClass(int[] ranges) {
+        this.ranges = ranges;
+
+        long low = 0;
+        long high = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int c = ranges[i]; c <= Math.min(ranges[i + 1], 127); c++) {
+                if (c < 64) {
+                    low |= 1L << c;
+                } else {
+                    high |= 1L << (c - 64);
+                }
+            }
+        }
+        this.asciiLow = low;
+        this.asciiHigh = high;
+    }
+
+    static CharClass of(int codePoint) {
+        return new CharClass(new int[]{codePoint, codePoint});
+    }
+
+    static CharClass range(int from, int to) {
+        return new CharClass(new int[]{from, to});
+    }
+
+    boolean contains(int codePoint) {
+        if (codePoint < 64) {
+            return (asciiLow & (1L << codePoint)) != 0;
+        } else if (codePoint < 128) {
+            return (asciiHigh & (1L << (codePoint - 64))) != 0;
+        }
+
+        int low = 0;
+        int high = ranges.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (codePoint < ranges[mid * 2]) {
+                high = mid - 1;
+            } else if (codePoint > ranges[mid * 2 + 1]) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    boolean intersects(CharClass other) {
+        int i = 0;
+        int j = 0;
+        while (i < ranges.length && j < other.ranges.length) {
+            if (ranges[i + 1] < other.ranges[j]) {
+                i += 2;
+            } else if (other.ranges[j + 1] < ranges[i]) {
+                j += 2;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the code point of a single code point class.
+     *
+     * @return The code point, or -1 if the class holds more or less than one code point.
+     */
+    int toCodePoint() {
+        return (ranges.length == 2 && ranges[0] == ranges[1] ? ranges[0] : -1);
+    }
+
+    CharClass union(CharClass other) {
+        int[] all = Arrays.copyOf(ranges, ranges.length + other.ranges.length);
+        System.arraycopy(other.ranges, 0, all, ranges.length, other.ranges.length);
+
+        // Sort the ranges on their start...
+        long[] sorted = new long[all.length / 2];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = ((long) all[i * 2] << 32) | all[i * 2 + 1];
+        }
+        Arrays.sort(sorted);
+
+        int[] merged = new int[all.length];
+        int count = 0;
+        for (long range : sorted) {
+            int from = (int) (range >>> 32);
+            int to = (int) range;
+            if (count > 0 && from <= merged[count - 1] + 1) {
+                merged[count - 1] = Math.max(merged[count - 1], to);
+            } else {
+                merged[count++] = from;
+                merged[count++] = to;
+            }
+        }
+        return new CharClass(Arrays.copyOf(merged, count));
+    }
+
+    CharClass complement() {
+        int[] complement = new int[ranges.length + 2];
+        int count = 0;
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                complement[count++] = next;
+                complement[count++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= Character.MAX_CODE_POINT) {
+            complement[count++] = next;
+            complement[count++] = Character.MAX_CODE_POINT;
+        }
+        return new CharClass(Arrays.copyOf(complement, count));
+    }
+}
@@ -0,0 +1,374 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link DfaMatchingEngine} matcher.
+ * <p/>
+ * DFA states are built from the {@link RegexProgram} as records are matched, and cached per matcher (so
+ * the cache needs no locking).  The cache is cleared if it grows past {@link #MAX_STATES}.  Groups are then
+ * resolved by a Pike VM pass, which steps the prioritised NFA threads through the record together, each thread
+ * carrying its own capture slots.
+ */
+final class DfaPatternMatcher implements MatchingEngine.PatternMatcher {
+
+    static final int MAX_STATES = 4096;
+    private static final int[] NO_PCS = new int[0];
+
+    private final RegexProgram program;
+    private final Map<Key, State> states = new HashMap<>();
+    private final int[] marks;
+    private int generation;
+    private State startState;
+
+    private ThreadList currentThreads;
+    private ThreadList nextThreads;
+
+    // The capture slots are copied between fixed arrays, so that matching doesn't allocate...
+    private final int slotCount;
+    private final int[] threadCaptures;
+    private final int[] matchCaptures;
+
+    private CharSequence input;
+    private int[] captures;
+
+    DfaPatternMatcher(RegexProgram program) {
+        this.program = program;
+        this.marks = new int[program.size()];
+        this.slotCount = (program.groupCount + 1) * 2;
+        this.threadCaptures = new int[slotCount];
+        this.matchCaptures = new int[slotCount];
+        this.currentThreads = new ThreadList(program.size(), slotCount);
+        this.nextThreads = new ThreadList(program.size(), slotCount);
+    }
+
+    @Override
+    public boolean matches(CharSequence input) {
+        this.input = input;
+        this.captures = null;
+
+        if (!recognize(input)) {
+            return false;
+        }
+        captures = capture(input);
+        return (captures != null);
+    }
+
+    @Override
+    public String group(int group) {
+        int start = start(group);
+        return (start == -1 ? null : input.subSequence(start, end(group)).toString());
+    }
+
+    @Override
+    public int start(int group) {
+        assertGroup(group);
+        if (group == 0) {
+            return 0;
+        }
+        return (captures[group * 2 + 1] == -1 ? -1 : captures[group * 2]);
+    }
+
+    @Override
+    public int end(int group) {
+        assertGroup(group);
+        if (group == 0) {
+            return input.length();
+        }
+        return (captures[group * 2] == -1 ? -1 : captures[group * 2 + 1]);
+    }
+
+    private void assertGroup(int group) {
+        if (captures == null) {
+            throw new IllegalStateException("No match available.");
+        }
+        if (group < 0 || group > program.groupCount) {
+            throw new IndexOutOfBoundsException("No group " + group + ".");
+        }
+    }
+
+    private boolean recognize(CharSequence input) {
+        State state = getStartState();
+        int length = input.length();
+
+        for (int i = 0; i < length; ) {
+            int c = Character.codePointAt(input, i);
+            i += Character.charCount(c);
+            state = step(state, c);
+            if (state.pcs.length == 0) {
+                // Dead... no thread survives...
+                return false;
+            }
+        }
+        return state.accepting;
+    }
+
+    private State getStartState() {
+        if (startState == null) {
+            generation++;
+            IntList pcs = new IntList();
+            closure(0, pcs);
+            startState = intern(pcs.toSortedArray());
+        }
+        return startState;
+    }
+
+    private State step(State state, int c) {
+        State next = (c < 128 ? state.asciiNext[c] : (state.otherNext != null ? state.otherNext.get(c) : null));
+        if (next != null) {
+            return next;
+        }
+
+        generation++;
+        IntList pcs = new IntList();
+        for (int pc : state.pcs) {
+            if (program.ops[pc] == RegexProgram.CHAR && program.classes[pc].contains(c)) {
+                closure(pc + 1, pcs);
+            }
+        }
+        next = intern(pcs.toSortedArray());
+
+        if (c < 128) {
+            state.asciiNext[c] = next;
+        } else {
+            if (state.otherNext == null) {
+                state.otherNext = new HashMap<>();
+            }
+            state.otherNext.put(c, next);
+        }
+        return next;
+    }
+
+    /**
+     * Follow the epsilon transitions from the pc, collecting the CHAR and MATCH pcs reached.
+     */
+    private void closure(int pc, IntList pcs) {
+        while (marks[pc] != generation) {
+            marks[pc] = generation;
+            switch (program.ops[pc]) {
+                case RegexProgram.SPLIT:
+                    closure(program.args1[pc], pcs);
+                    pc = program.args2[pc];
+                    break;
+                case RegexProgram.JMP:
+                    pc = program.args1[pc];
+                    break;
+                case RegexProgram.SAVE:
+                    pc++;
+                    break;
+                default:
+                    pcs.add(pc);
+                    return;
+            }
+        }
+    }
+
+    private State intern(int[] pcs) {
+        Key key = new Key(pcs);
+        State state = states.get(key);
+        if (state == null) {
+            if (states.size() == MAX_STATES) {
+                // Start over, rather than hold on to every state a pathological pattern can reach...
+                states.clear();
+                startState = null;
+            }
+            boolean accepting = false;
+            for (int pc : pcs) {
+                accepting |= (program.ops[pc] == RegexProgram.MATCH);
+            }
+            state = new State(pcs, accepting);
+            states.put(key, state);
+        }
+        return state;
+    }
+
+    private int[] capture(CharSequence input) {
+        int length = input.length();
+
+        currentThreads.clear();
+        generation++;
+        Arrays.fill(threadCaptures, -1);
+        addThread(currentThreads, 0, threadCaptures, 0);
+
+        int i = 0;
+        while (currentThreads.size > 0) {
+            int c = -1;
+            int next = i;
+            if (i < length) {
+                c = Character.codePointAt(input, i);
+                next = i + Character.charCount(c);
+            }
+
+            nextThreads.clear();
+            generation++;
+            for (int t = 0; t < currentThreads.size; t++) {
+                int pc = currentThreads.pcs[t];
+                if (program.ops[pc] == RegexProgram.MATCH) {
+                    if (i == length) {
+                        // The highest priority thread to match the whole input...
+                        System.arraycopy(currentThreads.captures, t * slotCount, matchCaptures, 0, slotCount);
+                        return matchCaptures;
+                    }
+                } else if (c != -1 && program.classes[pc].contains(c)) {
+                    System.arraycopy(currentThreads.captures, t * slotCount, threadCaptures, 0, slotCount);
+                    addThread(nextThreads, pc + 1, threadCaptures, next);
+                }
+            }
+            if (i == length) {
+                return null;
+            }
+
+            ThreadList swap = currentThreads;
+            currentThreads = nextThreads;
+            nextThreads = swap;
+            i = next;
+        }
+        return null;
+    }
+
+    /**
+     * Add the thread, following its empty transitions.  The thread's capture slots are updated in place
+     * and restored on the way back out, and copied into the thread list for each thread added.
+     */
+    private void addThread(ThreadList threads, int pc, int[] threadCaptures, int position) {
+        while (marks[pc] != generation) {
+            marks[pc] = generation;
+            switch (program.ops[pc]) {
+                case RegexProgram.SPLIT:
+                    addThread(threads, program.args1[pc], threadCaptures, position);
+                    pc = program.args2[pc];
+                    break;
+                case RegexProgram.JMP:
+                    pc = program.args1[pc];
+                    break;
+                case RegexProgram.SAVE:
+                    int slot = program.args1[pc];
+                    int saved = threadCaptures[slot];
+                    threadCaptures[slot] = position;
+                    addThread(threads, pc + 1, threadCaptures, position);
+                    threadCaptures[slot] = saved;
+                    return;
+                default:
+                    threads.add(pc, threadCaptures);
+                    return;
+            }
+        }
+    }
+
+    private static final class State {
+        private final int[] pcs;
+        private final boolean accepting;
+        private final State[] asciiNext = new State[128];
+        private Map<Integer, State> otherNext;
+
+        private State(int[] pcs, boolean accepting) {
+            this.pcs = pcs;
+            this.accepting = accepting;
+        }
+    }
+
+    private static final class Key {
+        private final int[] pcs;
+        private final int hashCode;
+
+        private Key(int[] pcs) {
+            this.pcs = pcs;
+            this.hashCode = Arrays.hashCode(pcs);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(pcs, ((Key) other).pcs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class ThreadList {
+        private final int[] pcs;
+        private final int[] captures;
+        private final int slotCount;
+        private int size;
+
+        private ThreadList(int capacity, int slotCount) {
+            this.pcs = new int[capacity];
+            this.captures = new int[capacity * slotCount];
+            this.slotCount = slotCount;
+        }
+
+        private void add(int pc, int[] threadCaptures) {
+            pcs[size] = pc;
+            System.arraycopy(threadCaptures, 0, captures, size * slotCount, slotCount);
+            size++;
+        }
+
+        private void clear() {
+            size = 0;
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = NO_PCS;
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(8, size * 2));
+            }
+            values[size++] = value;
+        }
+
+        private int[] toSortedArray() {
+            int[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link MatchingEngine} backed by <code>java.util.regex</code>.
+ * <p/>
+ * Supports every pattern, so is the fallback for patterns other engines can't compile.
+ */
+public class JdkMatchingEngine implements MatchingEngine {
+
+    public static final String NAME = "jdk";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public CompiledPattern compile(Pattern pattern) {
+        return new CompiledPattern() {
+            @Override
+            public int groupCount() {
+                return pattern.matcher("").groupCount();
+            }
+
+            @Override
+            public PatternMatcher matcher() {
+                Matcher matcher = pattern.matcher("");
+                return new PatternMatcher() {
+                    @Override
+                    public boolean matches(CharSequence input) {
+                        return matcher.reset(input).matches();
+                    }
+
+                    @Override
+                    public String group(int group) {
+                        return matcher.group(group);
+                    }
+
+                    @Override
+                    public int start(int group) {
+                        return matcher.start(group);
+                    }
+
+                    @Override
+                    public int end(int group) {
+                        return matcher.end(group);
+                    }
+                };
+            }
+        };
+    }
+}
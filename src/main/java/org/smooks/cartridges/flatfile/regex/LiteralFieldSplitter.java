@@ -0,0 +1,240 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Literal field splitter.
+ * <p/>
+ * Splits records on a <code>regexPattern</code> that only matches a fixed literal (e.g. <code>\|</code>,
+ * <code>,</code> or <code>\t</code>), scanning the record text directly instead of running the regex engine.
+ * The field values are identical to those of {@link Pattern#split(CharSequence)}, including the removal of
+ * trailing empty fields.
+ * <p/>
+ * Instances are stateless, so can be shared between threads.
+ */
+final class LiteralFieldSplitter {
+
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final String delimiter;
+    private final char firstChar;
+
+    private LiteralFieldSplitter(String delimiter) {
+        this.delimiter = delimiter;
+        this.firstChar = delimiter.charAt(0);
+    }
+
+    /**
+     * Create a literal field splitter for the supplied pattern, if it only matches a fixed literal.
+     *
+     * @param pattern The compiled field pattern.
+     * @return The literal field splitter, or <code>null</code> if the pattern is not a plain literal.
+     */
+    static LiteralFieldSplitter forPattern(Pattern pattern) {
+        String literal = toLiteral(pattern.pattern());
+        if (literal == null || literal.isEmpty() || (pattern.flags() & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.LITERAL)) != 0) {
+            return null;
+        }
+        if (!pattern.matcher(literal).matches()) {
+            // Not the literal we think it is...
+            return null;
+        }
+        return new LiteralFieldSplitter(literal);
+    }
+
+    /**
+     * Get the literal delimiter.
+     *
+     * @return The literal delimiter.
+     */
+    String getDelimiter() {
+        return delimiter;
+    }
+
+    /**
+     * Split the record into its field values.
+     *
+     * @param record The record text.
+     * @return The field values.
+     */
+    List<String> split(CharSequence record) {
+        return split(record, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Split the record into its leading field values.
+     * <p/>
+     * The field values are those of {@link #split(CharSequence)}, up to <code>maxFields</code> of them.  The
+     * record is not tokenized past the last of them.
+     *
+     * @param record    The record text.
+     * @param maxFields The maximum number of field values.  Must be greater than zero.
+     * @return The field values.
+     */
+    List<String> split(CharSequence record, int maxFields) {
+        int length = record.length();
+        int delimiterLength = delimiter.length();
+        int lastStart = length - delimiterLength;
+        List<String> fields = null;
+        int fieldStart = 0;
+
+        for (int i = 0; i <= lastStart; i++) {
+            if (record.charAt(i) == firstChar && regionMatches(record, i)) {
+                if (fields == null) {
+                    fields = new ArrayList<>();
+                }
+                fields.add(record.subSequence(fieldStart, i).toString());
+                fieldStart = i + delimiterLength;
+                i = fieldStart - 1;
+                if (fields.size() == maxFields) {
+                    return (isEmptyFieldsFrom(record, fieldStart) ? dropTrailingEmptyFields(fields) : fields);
+                }
+            }
+        }
+
+        if (fields == null) {
+            // No delimiter... the record is the only field value...
+            return Collections.singletonList(record.toString());
+        }
+        fields.add(record.subSequence(fieldStart, length).toString());
+
+        return dropTrailingEmptyFields(fields);
+    }
+
+    /**
+     * Are the fields from the start index on all empty, i.e. is the rest of the record only delimiters.
+     */
+    private boolean isEmptyFieldsFrom(CharSequence record, int start) {
+        int length = record.length();
+        while (start <= length - delimiter.length() && record.charAt(start) == firstChar && regionMatches(record, start)) {
+            start += delimiter.length();
+        }
+        return (start == length);
+    }
+
+    private static List<String> dropTrailingEmptyFields(List<String> fields) {
+        int size = fields.size();
+        while (size > 0 && fields.get(size - 1).isEmpty()) {
+            size--;
+        }
+        return (size < fields.size() ? fields.subList(0, size) : fields);
+    }
+
+    private boolean regionMatches(CharSequence record, int start) {
+        for (int i = 1; i < delimiter.length(); i++) {
+            if (record.charAt(start + i) != delimiter.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the literal text matched by a regex, if it's made up only of plain chars, escaped
+     * metacharacters, char escapes and <code>\Q...\E</code> quotes.
+     *
+     * @param regex The regex.
+     * @return The literal, or <code>null</code> if the regex is not a plain literal.
+     */
+    static String toLiteral(String regex) {
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+
+        while (i < regex.length()) {
+            char c = regex.charAt(i++);
+            if (c != '\\') {
+                if (METACHARACTERS.indexOf(c) != -1) {
+                    return null;
+                }
+                literal.append(c);
+                continue;
+            }
+            if (i == regex.length()) {
+                return null;
+            }
+
+            char escaped = regex.charAt(i++);
+            switch (escaped) {
+                case 't':
+                    literal.append('\t');
+                    break;
+                case 'n':
+                    literal.append('\n');
+                    break;
+                case 'r':
+                    literal.append('\r');
+                    break;
+                case 'f':
+                    literal.append('\f');
+                    break;
+                case 'a':
+                    literal.append('\u0007');
+                    break;
+                case 'e':
+                    literal.append('\u001B');
+                    break;
+                case 'Q':
+                    int end = regex.indexOf("\\E", i);
+                    if (end == -1) {
+                        end = regex.length();
+                    }
+                    literal.append(regex, i, end);
+                    i = Math.min(end + 2, regex.length());
+                    break;
+                default:
+                    if (Character.isLetterOrDigit(escaped)) {
+                        // A char class, back reference, boundary etc...
+                        return null;
+                    }
+                    literal.append(escaped);
+            }
+        }
+
+        return literal.toString();
+    }
+}
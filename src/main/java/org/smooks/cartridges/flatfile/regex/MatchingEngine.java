@@ -0,0 +1,138 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import java.util.regex.Pattern;
+
+/**
+ * Record matching engine.
+ * <p/>
+ * Matches the <code>regexPattern</code> of a {@link RegexParserFactory} configured with capture groups against
+ * whole records, extracting the record field values from the groups.  The engine is selected through the
+ * <code>regexEngine</code> parameter, as one of the built-in engine names (<code>dfa</code> or <code>jdk</code>)
+ * or the class name of a custom implementation (with a public no-args constructor).  The default is <code>jdk</code>.
+ * <p/>
+ * An engine need not support every pattern.  Patterns it can't compile are matched by the {@link JdkMatchingEngine}.
+ *
+ * @see DfaMatchingEngine
+ * @see JdkMatchingEngine
+ */
+public interface MatchingEngine {
+
+    /**
+     * Get the engine name, as reported in the log.
+     *
+     * @return The engine name.
+     */
+    String getName();
+
+    /**
+     * Compile the pattern for this engine.
+     *
+     * @param pattern The pattern, as compiled by {@link Pattern}.
+     * @return The compiled pattern, or <code>null</code> if this engine doesn't support the pattern.
+     */
+    CompiledPattern compile(Pattern pattern);
+
+    /**
+     * Pattern compiled by a {@link MatchingEngine}.
+     * <p/>
+     * Compiled patterns are shared between threads.
+     */
+    interface CompiledPattern {
+
+        /**
+         * Get the number of capture groups in the pattern.
+         *
+         * @return The number of capture groups.
+         */
+        int groupCount();
+
+        /**
+         * Create a new matcher for the pattern.
+         *
+         * @return The new matcher.
+         */
+        PatternMatcher matcher();
+    }
+
+    /**
+     * Whole record matcher.
+     * <p/>
+     * Reused across records.  Not thread safe.
+     */
+    interface PatternMatcher {
+
+        /**
+         * Match the pattern against the whole of the input.
+         *
+         * @param input The input.
+         * @return True if the pattern matches the whole of the input, otherwise false.
+         */
+        boolean matches(CharSequence input);
+
+        /**
+         * Get the input captured by a group in the last successful match.
+         *
+         * @param group The group index, where 0 is the whole match.
+         * @return The captured input, or <code>null</code> if the group didn't take part in the match.
+         */
+        String group(int group);
+
+        /**
+         * Get the start index of the input captured by a group in the last successful match.
+         *
+         * @param group The group index, where 0 is the whole match.
+         * @return The start index, or -1 if the group didn't take part in the match.
+         */
+        int start(int group);
+
+        /**
+         * Get the end index of the input captured by a group in the last successful match.
+         *
+         * @param group The group index, where 0 is the whole match.
+         * @return The end index (exclusive), or -1 if the group didn't take part in the match.
+         */
+        int end(int group);
+    }
+}
@@ -0,0 +1,172 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.AlternationNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.AnchorNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.CharNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.ConcatNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.GroupNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.Node;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.RepeatNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.UnsupportedPatternException;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites a pattern so that <code>java.util.regex</code> doesn't backtrack into the parts of it that can't
+ * match any other way.
+ * <p/>
+ * Two rewrites are applied, both of which leave the strings matched (and the groups captured) unchanged:
+ * <ul>
+ * <li>A greedy quantifier on a single char class (e.g. <code>[^|]*</code>) is made possessive if none of the
+ * chars that can follow it are in the class.  Giving a char back could never let what follows match.</li>
+ * <li>An alternation of fixed strings that start with different chars (e.g. <code>(?:GET|PUT)</code>) is made
+ * an atomic group.  At most one branch can match at a position, and only one way.</li>
+ * </ul>
+ * Patterns outside the {@link RegexSyntax} subset are not rewritten.
+ */
+final class PatternOptimizer {
+
+    private final boolean wholeInputMatch;
+    private boolean rewritten;
+
+    private PatternOptimizer(boolean wholeInputMatch) {
+        this.wholeInputMatch = wholeInputMatch;
+    }
+
+    /**
+     * Optimize the pattern.
+     *
+     * @param pattern         The pattern.
+     * @param wholeInputMatch The pattern is only matched against whole inputs ({@link java.util.regex.Matcher#matches()}),
+     *                        so a <code>$</code> at its end only matches at the end of the input.
+     * @return The rewritten pattern, or <code>null</code> if there's nothing to rewrite.
+     */
+    static Pattern optimize(Pattern pattern, boolean wholeInputMatch) {
+        Node root;
+        try {
+            root = RegexSyntax.parse(pattern);
+        } catch (UnsupportedPatternException e) {
+            return null;
+        }
+
+        PatternOptimizer optimizer = new PatternOptimizer(wholeInputMatch);
+        optimizer.rewrite(root, CharClass.NONE);
+        if (!optimizer.rewritten) {
+            return null;
+        }
+
+        StringBuilder regex = new StringBuilder();
+        root.appendTo(regex);
+        return Pattern.compile(regex.toString(), pattern.flags());
+    }
+
+    /**
+     * Rewrite the node.
+     *
+     * @param node   The node.
+     * @param follow The chars that can follow a match of the node.  The end of the input (or of the match) is not
+     *               a char, so can follow any node without constraining it.
+     */
+    private void rewrite(Node node, CharClass follow) {
+        if (node instanceof ConcatNode) {
+            List<Node> nodes = ((ConcatNode) node).nodes;
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                Node child = nodes.get(i);
+                rewrite(child, follow);
+                if (child instanceof AnchorNode) {
+                    // Other than at the end of a whole input, a $ can also match before a line terminator...
+                    follow = (((AnchorNode) child).anchor == '$' && !wholeInputMatch ? CharClass.LINE_TERMINATOR.union(follow) : follow);
+                } else {
+                    follow = (child.isNullable() ? child.first().union(follow) : child.first());
+                }
+            }
+        } else if (node instanceof AlternationNode) {
+            AlternationNode alternation = (AlternationNode) node;
+            for (Node branch : alternation.branches) {
+                rewrite(branch, follow);
+            }
+            if (isDisjointFixedStrings(alternation.branches)) {
+                alternation.atomic = true;
+                rewritten = true;
+            }
+        } else if (node instanceof GroupNode) {
+            rewrite(((GroupNode) node).body, follow);
+        } else if (node instanceof RepeatNode) {
+            RepeatNode repeat = (RepeatNode) node;
+            // The body can be followed by another iteration of itself...
+            rewrite(repeat.body, (repeat.max != 1 ? repeat.body.first().union(follow) : follow));
+            if (repeat.greedy && repeat.body instanceof CharNode && !((CharNode) repeat.body).charClass.intersects(follow)) {
+                repeat.possessive = true;
+                rewritten = true;
+            }
+        }
+    }
+
+    private static boolean isDisjointFixedStrings(List<Node> branches) {
+        CharClass firsts = CharClass.NONE;
+        for (Node branch : branches) {
+            if (!isFixedString(branch)) {
+                return false;
+            }
+            CharClass first = branch.first();
+            if (first.intersects(firsts)) {
+                return false;
+            }
+            firsts = firsts.union(first);
+        }
+        return true;
+    }
+
+    private static boolean isFixedString(Node node) {
+        if (node instanceof CharNode) {
+            return true;
+        } else if (node instanceof ConcatNode) {
+            List<Node> nodes = ((ConcatNode) node).nodes;
+            return !nodes.isEmpty() && nodes.stream().allMatch(child -> child instanceof CharNode);
+        }
+        return false;
+    }
+}
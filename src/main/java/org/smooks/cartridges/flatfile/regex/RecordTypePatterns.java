@@ -0,0 +1,255 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.smooks.api.SmooksConfigException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Per record type regex patterns, combined into a single alternation.
+ * <p/>
+ * Each record type's pattern is wrapped in a named group and the groups are alternated, in the order the
+ * record types are configured, e.g. <code>(?&lt;recordType0&gt;HDR\|(.*))|(?&lt;recordType1&gt;DTL\|(.*)\|(.*))</code>.
+ * One match of the combined pattern both picks the record type (the named group that took part in the match)
+ * and captures its field values (the groups nested in it), so a record is routed to its record metadata and
+ * tokenized in one pass.
+ * <p/>
+ * Wrapping the patterns renumbers their groups, so record type patterns with numeric backreferences
+ * (e.g. <code>\1</code>) are rejected.  Named groups and backreferences (<code>\k&lt;name&gt;</code>) are unaffected,
+ * but share one namespace in the combined pattern, so a group name can only be defined by one record type pattern,
+ * and group names starting with <code>recordType</code> are reserved for the wrapping groups.
+ */
+class RecordTypePatterns {
+
+    private static final String GROUP_NAME_PREFIX = "recordType";
+
+    private final String regex;
+    private final String[] recordTypeNames;
+    private final int[] typeGroups;
+    private final int[] fieldGroupCounts;
+
+    private RecordTypePatterns(String regex, String[] recordTypeNames, int[] typeGroups, int[] fieldGroupCounts) {
+        this.regex = regex;
+        this.recordTypeNames = recordTypeNames;
+        this.typeGroups = typeGroups;
+        this.fieldGroupCounts = fieldGroupCounts;
+    }
+
+    /**
+     * Combine the record type patterns.
+     *
+     * @param typePatterns The regex pattern for each record type, keyed by record type name, in match order.
+     * @return The combined record type patterns.
+     * @throws java.util.regex.PatternSyntaxException One of the record type patterns is invalid.
+     * @throws SmooksConfigException One of the record type patterns has a numeric backreference, a reserved group
+     *                               name, or a group name defined by another record type pattern.
+     */
+    static RecordTypePatterns combine(Map<String, String> typePatterns) {
+        StringBuilder regex = new StringBuilder();
+        List<String> recordTypeNames = new ArrayList<String>(typePatterns.keySet());
+        int[] typeGroups = new int[recordTypeNames.size()];
+        int[] fieldGroupCounts = new int[recordTypeNames.size()];
+        int groupCount = 0;
+        // The record type defining each group name...
+        Map<String, String> groupNameTypes = new HashMap<String, String>();
+
+        for (int i = 0; i < recordTypeNames.size(); i++) {
+            String typePattern = typePatterns.get(recordTypeNames.get(i));
+
+            fieldGroupCounts[i] = Pattern.compile(typePattern, (Pattern.MULTILINE | Pattern.DOTALL)).matcher("").groupCount();
+            if (hasNumericBackReference(typePattern)) {
+                throw new SmooksConfigException("Invalid '" + RegexParserFactory.RECORD_TYPE_PATTERN_PREFIX + recordTypeNames.get(i) + "' pattern '" + typePattern
+                        + "'.  Numeric backreferences are not supported, as the record type patterns are renumbered when they're combined.  Use a named group and backreference (\\k<name>).");
+            }
+            for (String groupName : getGroupNames(typePattern)) {
+                if (groupName.startsWith(GROUP_NAME_PREFIX)) {
+                    throw new SmooksConfigException("Invalid '" + RegexParserFactory.RECORD_TYPE_PATTERN_PREFIX + recordTypeNames.get(i) + "' pattern '" + typePattern
+                            + "'.  Group name '" + groupName + "' is reserved.  Group names starting with '" + GROUP_NAME_PREFIX + "' name the groups wrapping the record type patterns when they're combined.");
+                }
+                String definingType = groupNameTypes.put(groupName, recordTypeNames.get(i));
+                if (definingType != null) {
+                    throw new SmooksConfigException("Invalid '" + RegexParserFactory.RECORD_TYPE_PATTERN_PREFIX + recordTypeNames.get(i) + "' pattern '" + typePattern
+                            + "'.  Group name '" + groupName + "' is already defined in the '" + RegexParserFactory.RECORD_TYPE_PATTERN_PREFIX + definingType
+                            + "' pattern.  Group names must be unique across the record type patterns, as they're combined into one pattern.");
+                }
+            }
+            typeGroups[i] = ++groupCount;
+            groupCount += fieldGroupCounts[i];
+
+            if (i > 0) {
+                regex.append('|');
+            }
+            regex.append("(?<").append(GROUP_NAME_PREFIX).append(i).append('>').append(typePattern).append(')');
+        }
+
+        return new RecordTypePatterns(regex.toString(), recordTypeNames.toArray(new String[0]), typeGroups, fieldGroupCounts);
+    }
+
+    /**
+     * Does the regex hold a numeric backreference, i.e. an escaped digit outside a <code>\Q...\E</code> quote.
+     * Escaped digits aren't valid in character classes, and <code>\0</code> is an octal escape.
+     */
+    private static boolean hasNumericBackReference(String regex) {
+        for (int i = 0; i < regex.length() - 1; i++) {
+            if (regex.charAt(i) != '\\') {
+                continue;
+            }
+            char escaped = regex.charAt(i + 1);
+            if (escaped == 'Q') {
+                int quoteEnd = regex.indexOf("\\E", i + 2);
+                if (quoteEnd == -1) {
+                    return false;
+                }
+                i = quoteEnd + 1;
+            } else if (escaped >= '1' && escaped <= '9') {
+                return true;
+            } else {
+                // Skip the escaped char, e.g. the second backslash of an escaped backslash...
+                i++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the names of the named groups defined in the regex, i.e. <code>(?&lt;name&gt;</code> outside a
+     * <code>\Q...\E</code> quote or a character class.
+     */
+    private static List<String> getGroupNames(String regex) {
+        List<String> groupNames = new ArrayList<String>();
+        int classDepth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                if (regex.charAt(i + 1) == 'Q') {
+                    int quoteEnd = regex.indexOf("\\E", i + 2);
+                    if (quoteEnd == -1) {
+                        break;
+                    }
+                    i = quoteEnd + 1;
+                } else {
+                    // Skip the escaped char...
+                    i++;
+                }
+            } else if (c == '[') {
+                classDepth++;
+                // A ']' leading the class is a literal...
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (c == ']' && classDepth > 0) {
+                classDepth--;
+            } else if (classDepth == 0 && regex.startsWith("(?<", i) && i + 3 < regex.length() && Character.isLetter(regex.charAt(i + 3))) {
+                // Not a lookbehind, i.e. "(?<=" or "(?<!"...
+                int nameEnd = regex.indexOf('>', i + 3);
+                if (nameEnd != -1) {
+                    groupNames.add(regex.substring(i + 3, nameEnd));
+                    i = nameEnd;
+                }
+            }
+        }
+        return groupNames;
+    }
+
+    /**
+     * Get the combined regex.
+     *
+     * @return The alternation of the record type patterns.
+     */
+    String getRegex() {
+        return regex;
+    }
+
+    /**
+     * Find the record type that matched.
+     *
+     * @param matcher A matcher that has just matched a record against the combined pattern.
+     * @return The index of the matched record type.
+     */
+    int getMatchedRecordType(MatchingEngine.PatternMatcher matcher) {
+        for (int i = 0; i < typeGroups.length; i++) {
+            if (matcher.start(typeGroups[i]) != -1) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No record type group took part in the match.");
+    }
+
+    /**
+     * Get the record type name.
+     *
+     * @param recordType The record type index.
+     * @return The record type name.
+     */
+    String getRecordTypeName(int recordType) {
+        return recordTypeNames[recordType];
+    }
+
+    /**
+     * Get the number of the first field value group of the record type.
+     *
+     * @param recordType The record type index.
+     * @return The group number.
+     */
+    int getFirstFieldGroup(int recordType) {
+        return typeGroups[recordType] + 1;
+    }
+
+    /**
+     * Get the number of field value groups in the record type's pattern.
+     *
+     * @param recordType The record type index.
+     * @return The group count.
+     */
+    int getFieldGroupCount(int recordType) {
+        return fieldGroupCounts[recordType];
+    }
+}
@@ -42,15 +42,24 @@
  */
 package org.smooks.cartridges.flatfile.regex;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smooks.api.SmooksException;
+import org.smooks.cartridges.flatfile.RecordBatch;
+import org.smooks.cartridges.flatfile.SpilledValue;
+import org.smooks.cartridges.flatfile.variablefield.LazyFieldValues;
+import org.smooks.cartridges.flatfile.variablefield.ParallelRecordReader;
+import org.smooks.cartridges.flatfile.variablefield.RecordReader;
 import org.smooks.cartridges.flatfile.variablefield.VariableFieldRecordParser;
 import org.xml.sax.InputSource;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.Reader;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -65,55 +74,299 @@ import java.util.regex.Pattern;
  */
 public class RegexParser<T extends RegexParserFactory> extends VariableFieldRecordParser<T> {
 
-    private BufferedReader reader;
+    private static final Logger LOGGER = LoggerFactory.getLogger(RegexParser.class);
+
+    private RecordReader recordReader;
+    private ParallelRecordReader<List<String>> parallelRecordReader;
     private StringBuilder readerBuffer;
     private int groupCount;
+    private int usedFieldCount;
+    private FieldValueExtractor fieldValueExtractor;
+    private FieldValueExtractor batchFieldValueExtractor;
+    private final AtomicLong overBudgetRecordCount = new AtomicLong();
 
     public void setDataSource(InputSource source) {
-        Reader reader = source.getCharacterStream();
-
-        if (reader == null) {
-            throw new IllegalStateException(
-                    "Invalid InputSource type supplied to RegexParser.  Must contain a Reader instance.");
-        }
-
-        this.reader = new BufferedReader(reader);
         this.readerBuffer = new StringBuilder();
         this.groupCount = getFactory().getRegexPattern().matcher("").groupCount();
+        // Split records are only tokenized as far as the last field value that's bound to a field...
+        this.usedFieldCount = getFactory().getUsedFieldCount();
+        this.fieldValueExtractor = new FieldValueExtractor(getFactory().isBufferBackedFieldValues());
+        try {
+            // Records are split into fields on the parallel reader worker threads, each with its own matcher.  The
+            // worker record buffers are reused while the field values are queued, so the field values are copied...
+            this.parallelRecordReader = getFactory().newParallelRecordReader(source, () -> new FieldValueExtractor(false));
+            if (parallelRecordReader == null) {
+                this.recordReader = getFactory().newRecordReader(source);
+            }
+        } catch (IOException e) {
+            throw new SmooksException("Error opening the flat file data source.", e);
+        }
+    }
+
+    @Override
+    public void uninitialize() {
+        super.uninitialize();
+        try {
+            if (parallelRecordReader != null) {
+                parallelRecordReader.close();
+            } else if (recordReader != null) {
+                recordReader.close();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Error closing the flat file record reader.", e);
+        }
     }
 
     @Override
     public List<String> nextRecordFieldValues() throws IOException {
-        T factory = getFactory();
-        Pattern pattern = factory.getRegexPattern();
+        if (parallelRecordReader != null) {
+            return parallelRecordReader.next();
+        }
 
-        readerBuffer.setLength(0);
-        factory.readRecord(reader, readerBuffer, (getRecordCount() + 1));
+        recordReader.readRecord(readerBuffer);
 
         if (readerBuffer.length() == 0) {
             return null;
         }
+        if (recordReader.getSpilledRecord() != null) {
+            // An oversize record... not tokenized...
+            return Collections.singletonList(readerBuffer.toString());
+        }
 
-        if (groupCount > 0) {
-            String recordString = readerBuffer.toString();
-            List<String> fields = new ArrayList<String>();
-            Matcher matcher = pattern.matcher(recordString);
+        return fieldValueExtractor.apply(readerBuffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The field values of each record are copied into the batch before the next record is read, so the
+     * group values are extracted as reused spans of the record buffer, whatever the field value mode.
+     */
+    @Override
+    public RecordBatch nextBatch(int maxRecords) throws IOException {
+        if (parallelRecordReader != null) {
+            return super.nextBatch(maxRecords);
+        }
+
+        if (batchFieldValueExtractor == null) {
+            batchFieldValueExtractor = new FieldValueExtractor(true);
+        }
+        FieldValueExtractor recordFieldValueExtractor = fieldValueExtractor;
+        fieldValueExtractor = batchFieldValueExtractor;
+        try {
+            return super.nextBatch(maxRecords);
+        } finally {
+            fieldValueExtractor = recordFieldValueExtractor;
+        }
+    }
+
+    @Override
+    protected SpilledValue getSpilledRecordValue() {
+        return (recordReader != null ? recordReader.getSpilledRecord() : null);
+    }
+
+    @Override
+    protected boolean isUnmatchedRecord(List<String> fieldValues) {
+        return (fieldValues instanceof OverBudgetFieldValues);
+    }
+
+    /**
+     * Get the number of records that exceeded the match step budget, and were passed on unmatched.
+     *
+     * @return The number of over budget records.
+     * @see RegexParserFactory#getMaxMatchSteps()
+     */
+    public long getOverBudgetRecordCount() {
+        return overBudgetRecordCount.get();
+    }
+
+    @Override
+    protected int skipRecordFieldValues(int count) throws IOException {
+        if (parallelRecordReader != null) {
+            return super.skipRecordFieldValues(count);
+        }
+        return recordReader.skipRecords(count);
+    }
+
+    /**
+     * Record field value extractor.
+     * <p/>
+     * Holds one matcher, reset against each record in turn, so that the record text is matched in place
+     * and only the field values are copied out.  Records are matched against a pattern with groups by the
+     * factory's {@link MatchingEngine}, and split on a pattern without groups.  Records that don't hold the
+     * pattern's {@link RequiredLiteral} are ruled out before either.  Where the pattern combines per record
+     * type patterns, the matched {@link RecordTypePatterns record type} name leads its field values.  In the
+     * lazy field value mode, group values are returned as {@link LazyFieldValues} spans of a copy of the record
+     * text or, buffer backed, reused spans of the record buffer itself.  With a match step budget, the
+     * matcher sees the record through a {@link BoundedCharSequence}, so a runaway match is cut off.
+     * <p/>
+     * Not thread safe... each parallel reader worker gets its own.
+     */
+    private class FieldValueExtractor implements Function<CharSequence, List<String>> {
+
+        private final Matcher matcher = getFactory().getRegexPattern().matcher("");
+        private final MatchingEngine.PatternMatcher groupMatcher = (groupCount > 0 ? getFactory().getCompiledPattern().matcher() : null);
+        private final RecordTypePatterns recordTypePatterns = getFactory().getRecordTypePatterns();
+        private final BoundedCharSequence boundedRecord = (getFactory().getMaxMatchSteps() > 0 ? new BoundedCharSequence() : null);
+        // Buffer backed field values, of reused or batched records, are themselves reused...
+        private final LazyFieldValues reusedFieldValues;
+
+        private FieldValueExtractor(boolean bufferBacked) {
+            this.reusedFieldValues = (bufferBacked ? new LazyFieldValues("", groupCount) : null);
+        }
+
+        @Override
+        public List<String> apply(CharSequence record) {
+            RequiredLiteral requiredLiteral = getFactory().getRequiredLiteral();
+            if (requiredLiteral != null && !requiredLiteral.isFoundIn(record)) {
+                // Can't match... the record text is the only field value, as for any unmatched record...
+                return Collections.singletonList(record.toString());
+            }
+            if (boundedRecord == null || (groupCount == 0 && getFactory().getLiteralSplitter() != null)) {
+                return extract(record, record);
+            }
 
-            if (matcher.matches()) {
-                for (int i = 0; i < matcher.groupCount(); i++) {
-                    String fieldValue = matcher.group(i + 1);
-                    if (fieldValue != null) {
-                        fields.add(fieldValue);
+            try {
+                return extract(boundedRecord.reset(record, getFactory().getMaxMatchSteps()), record);
+            } catch (BoundedCharSequence.StepBudgetExceededException e) {
+                overBudgetRecordCount.incrementAndGet();
+                LOGGER.warn("Flat file record of length {} exceeded the match budget of {} steps.  Passing it on unmatched.", record.length(), getFactory().getMaxMatchSteps());
+                return new OverBudgetFieldValues(record.toString());
+            }
+        }
+
+        private List<String> extract(CharSequence record, CharSequence recordText) {
+            if (groupCount > 0) {
+                if (!groupMatcher.matches(record)) {
+                    // Add the full record text as the only field value
+                    List<String> fields = new ArrayList<String>();
+                    fields.add(record.toString());
+                    return fields;
+                }
+
+                List<String> fields;
+                if (reusedFieldValues != null) {
+                    reusedFieldValues.reset(recordText);
+                    fields = reusedFieldValues;
+                } else if (getFactory().isLazyFieldValues()) {
+                    fields = new LazyFieldValues(recordText.toString(), groupCount);
+                } else {
+                    fields = new ArrayList<String>();
+                }
+                if (recordTypePatterns != null) {
+                    // The record type name leads the field values, as in any multi-type record set...
+                    int recordType = recordTypePatterns.getMatchedRecordType(groupMatcher);
+                    if (fields instanceof LazyFieldValues) {
+                        ((LazyFieldValues) fields).addValue(recordTypePatterns.getRecordTypeName(recordType));
+                    } else {
+                        fields.add(recordTypePatterns.getRecordTypeName(recordType));
                     }
+                    addGroupValues(fields, recordTypePatterns.getFirstFieldGroup(recordType), recordTypePatterns.getFieldGroupCount(recordType));
+                } else {
+                    addGroupValues(fields, 1, groupCount);
                 }
+
+                return fields;
+            } else if (getFactory().getLiteralSplitter() != null) {
+                return getFactory().getLiteralSplitter().split(record, usedFieldCount);
             } else {
-                // Add the full record text as the only field value
-                fields.add(recordString);
+                matcher.reset(record);
+                return split(record);
+            }
+        }
+
+        private void addGroupValues(List<String> fields, int firstGroup, int count) {
+            if (fields instanceof LazyFieldValues) {
+                // Just the group spans... the values are built as they're got...
+                for (int i = 0; i < count; i++) {
+                    int start = groupMatcher.start(firstGroup + i);
+                    if (start != -1) {
+                        ((LazyFieldValues) fields).addSpan(start, groupMatcher.end(firstGroup + i));
+                    }
+                }
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                String fieldValue = groupMatcher.group(firstGroup + i);
+                if (fieldValue != null) {
+                    fields.add(fieldValue);
+                }
+            }
+        }
+
+        /**
+         * Split the record as {@link Pattern#split(CharSequence)} does, on the reused matcher.  Only the
+         * leading field values that are bound to fields are tokenized.
+         */
+        private List<String> split(CharSequence record) {
+            List<String> fields = new ArrayList<String>();
+            int index = 0;
+
+            while (matcher.find()) {
+                if (index == 0 && matcher.start() == 0 && matcher.end() == 0) {
+                    // No empty leading field for a zero-width match at the beginning...
+                    continue;
+                }
+                fields.add(record.subSequence(index, matcher.start()).toString());
+                index = matcher.end();
+                if (fields.size() == usedFieldCount) {
+                    return (isEmptyFieldsFrom(index, record.length()) ? dropTrailingEmptyFields(fields) : fields);
+                }
+            }
+
+            if (index == 0) {
+                // No match... the record is the only field value...
+                return Collections.singletonList(record.toString());
+            }
+            fields.add(record.subSequence(index, record.length()).toString());
+
+            return dropTrailingEmptyFields(fields);
+        }
+
+        /**
+         * Are the fields from the index on all empty, i.e. is the rest of the record only delimiter matches.
+         */
+        private boolean isEmptyFieldsFrom(int index, int length) {
+            while (matcher.find()) {
+                if (matcher.start() > index) {
+                    return false;
+                }
+                index = matcher.end();
+            }
+            return (index == length);
+        }
+
+        private List<String> dropTrailingEmptyFields(List<String> fields) {
+            int size = fields.size();
+            while (size > 0 && fields.get(size - 1).isEmpty()) {
+                size--;
+            }
+            return (size < fields.size() ? fields.subList(0, size) : fields);
+        }
+    }
+
+    /**
+     * The field values of a record that exceeded the match step budget.  The record text is the only value.
+     */
+    private static final class OverBudgetFieldValues extends AbstractList<String> {
+
+        private final String record;
+
+        private OverBudgetFieldValues(String record) {
+            this.record = record;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index != 0) {
+                throw new IndexOutOfBoundsException("Index: " + index);
             }
+            return record;
+        }
 
-            return fields;
-        } else {
-            return Arrays.asList(pattern.split(readerBuffer.toString()));
+        @Override
+        public int size() {
+            return 1;
         }
     }
 }
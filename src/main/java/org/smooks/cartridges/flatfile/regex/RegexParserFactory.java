@@ -42,13 +42,21 @@
  */
 package org.smooks.cartridges.flatfile.regex;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smooks.api.SmooksConfigException;
+import org.smooks.api.resource.config.ResourceConfig;
 import org.smooks.cartridges.flatfile.RecordParser;
 import org.smooks.cartridges.flatfile.variablefield.VariableFieldRecordParserFactory;
+import org.smooks.support.ClassUtils;
 
 import jakarta.annotation.PostConstruct;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.regex.Pattern;
 
 /**
@@ -58,16 +66,136 @@ import java.util.regex.Pattern;
  */
 public class RegexParserFactory extends VariableFieldRecordParserFactory {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(RegexParserFactory.class);
+
+    /**
+     * Prefix of the per record type regexPattern parameters, e.g. <code>regexPattern.HDR</code>.
+     */
+    public static final String RECORD_TYPE_PATTERN_PREFIX = "regexPattern.";
+
+    @Inject
+    private ResourceConfig resourceConfig;
+
     @Inject
     @Named("regexPattern")
+    private Optional<String> regexPattern;
+
     private String patternAsString;
 
+    @Inject
+    @Named("regexEngine")
+    private String matchingEngineName = JdkMatchingEngine.NAME;
+
+    @Inject
+    private Integer maxMatchSteps = 0;
+
+    @Inject
+    private Boolean optimizeRegex = false;
+
+    @Inject
+    private Boolean lazyFieldValues = false;
+
+    @Inject
+    private Boolean bufferBackedFieldValues = false;
+
     private Pattern pattern;
+    private RecordTypePatterns recordTypePatterns;
+    private LiteralFieldSplitter literalSplitter;
+    private RequiredLiteral requiredLiteral;
+    private MatchingEngine matchingEngine;
+    private MatchingEngine.CompiledPattern compiledPattern;
 
     @PostConstruct
     public void postConstruct() {
+        if (bufferBackedFieldValues && !isReuseRecords()) {
+            // Records held past the next record would otherwise see the next record's text...
+            throw new SmooksConfigException("Invalid regex parser configuration.  'bufferBackedFieldValues' requires 'reuseRecords'.  Buffer backed field values are only valid until the next record is read.");
+        }
+
+        Map<String, String> typePatterns = readRecordTypePatterns();
+        if (!typePatterns.isEmpty()) {
+            if (regexPattern.isPresent()) {
+                throw new SmooksConfigException("Invalid regex parser configuration.  Configure either a 'regexPattern' or per record type '" + RECORD_TYPE_PATTERN_PREFIX + "<recordType>' patterns, not both.");
+            }
+            // Routing to the record type and extracting its fields happen in one match of the combined pattern...
+            recordTypePatterns = RecordTypePatterns.combine(typePatterns);
+            patternAsString = recordTypePatterns.getRegex();
+        } else if (regexPattern.isPresent()) {
+            patternAsString = regexPattern.get();
+        } else {
+            throw new SmooksConfigException("Invalid regex parser configuration.  A 'regexPattern' must be configured.");
+        }
+
         pattern = Pattern.compile(patternAsString, (Pattern.MULTILINE | Pattern.DOTALL));
 
+        if (pattern.matcher("").groupCount() > 0) {
+            // Records that don't hold the literal every match needs can be ruled out without the regex...
+            requiredLiteral = RequiredLiteral.forPattern(pattern, true);
+            optimizePattern(true);
+            matchingEngine = newMatchingEngine();
+            compiledPattern = matchingEngine.compile(pattern);
+            if (compiledPattern == null) {
+                LOGGER.info("The '{}' regex engine doesn't support regexPattern '{}'.  Falling back to the '{}' engine.", matchingEngine.getName(), pattern.pattern(), JdkMatchingEngine.NAME);
+                matchingEngine = new JdkMatchingEngine();
+                compiledPattern = matchingEngine.compile(pattern);
+            }
+            LOGGER.info("Matching flat file records against regexPattern '{}' with the '{}' regex engine.", patternAsString, matchingEngine.getName());
+            if (requiredLiteral != null) {
+                LOGGER.info("Prefiltering flat file records on the regexPattern {} '{}'.", (requiredLiteral.isPrefix() ? "prefix" : "required literal"), requiredLiteral.getLiteral());
+            }
+        } else {
+            // Most patterns are a plain delimiter, which doesn't need the regex engine to split records...
+            literalSplitter = LiteralFieldSplitter.forPattern(pattern);
+            if (literalSplitter == null) {
+                requiredLiteral = RequiredLiteral.forPattern(pattern, false);
+                optimizePattern(false);
+            }
+            LOGGER.info("Splitting flat file records on regexPattern '{}' with the '{}' splitter.", patternAsString, (literalSplitter != null ? "literal" : JdkMatchingEngine.NAME));
+        }
+    }
+
+    private Map<String, String> readRecordTypePatterns() {
+        Map<String, String> typePatterns = new LinkedHashMap<String, String>();
+
+        // The record types are checked against the fields definition...
+        buildRecordMetaData();
+
+        for (String paramName : resourceConfig.getParameters().keySet()) {
+            if (!paramName.startsWith(RECORD_TYPE_PATTERN_PREFIX)) {
+                continue;
+            }
+            String recordTypeName = paramName.substring(RECORD_TYPE_PATTERN_PREFIX.length());
+            if (recordTypeName.isEmpty() || !isMultiTypeRecordSet() || getRecordMetaData(recordTypeName) == null) {
+                throw new SmooksConfigException("Invalid '" + paramName + "' parameter.  '" + recordTypeName + "' is not a record type defined in the 'fields' of a multi-type record set.");
+            }
+            typePatterns.put(recordTypeName, resourceConfig.getParameterValue(paramName, String.class));
+        }
+
+        return typePatterns;
+    }
+
+    private void optimizePattern(boolean wholeInputMatch) {
+        if (optimizeRegex) {
+            Pattern optimizedPattern = PatternOptimizer.optimize(pattern, wholeInputMatch);
+            if (optimizedPattern != null) {
+                LOGGER.info("Rewrote regexPattern '{}' as '{}'.", patternAsString, optimizedPattern.pattern());
+                pattern = optimizedPattern;
+            }
+        }
+    }
+
+    private MatchingEngine newMatchingEngine() {
+        if (matchingEngineName.equals(DfaMatchingEngine.NAME)) {
+            return new DfaMatchingEngine();
+        } else if (matchingEngineName.equals(JdkMatchingEngine.NAME)) {
+            return new JdkMatchingEngine();
+        }
+
+        try {
+            return (MatchingEngine) ClassUtils.forName(matchingEngineName, getClass()).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new SmooksConfigException("Invalid 'regexEngine' value '" + matchingEngineName + "'.  Must be '" + DfaMatchingEngine.NAME + "', '" + JdkMatchingEngine.NAME + "' or the name of a " + MatchingEngine.class.getName() + " implementation.", e);
+        }
     }
 
     public RecordParser newRecordParser() {
@@ -76,10 +204,94 @@ public class RegexParserFactory extends VariableFieldRecordParserFactory {
 
     /**
      * Get the Regex Pattern instance to be used for parsing.
+     * <p/>
+     * With <code>optimizeRegex</code> on, this is the rewritten pattern.  A regex engine that doesn't support
+     * the rewritten pattern falls back to the <code>java.util.regex</code> engine.
      *
      * @return The Regex Pattern instance to be used for parsing.
      */
     public Pattern getRegexPattern() {
         return pattern;
     }
+
+    /**
+     * Get the per record type patterns combined into the Regex Pattern.
+     *
+     * @return The record type patterns, or <code>null</code> if a single regexPattern is configured.
+     */
+    RecordTypePatterns getRecordTypePatterns() {
+        return recordTypePatterns;
+    }
+
+    /**
+     * Get the literal field splitter to be used in place of the Regex Pattern.
+     *
+     * @return The literal field splitter, or <code>null</code> if the regexPattern is not a plain literal.
+     */
+    LiteralFieldSplitter getLiteralSplitter() {
+        return literalSplitter;
+    }
+
+    /**
+     * Get the literal every record must hold to match (or be split on) the Regex Pattern.
+     *
+     * @return The required literal, or <code>null</code> if there is none.
+     */
+    RequiredLiteral getRequiredLiteral() {
+        return requiredLiteral;
+    }
+
+    /**
+     * Get the per record match budget, in chars examined by the matcher.
+     *
+     * @return The match step budget, or a value less than 1 if matching is not bounded.
+     */
+    public int getMaxMatchSteps() {
+        return maxMatchSteps;
+    }
+
+    /**
+     * Are the field values captured by the Regex Pattern groups built lazily.
+     * <p/>
+     * If they are, the group values are held as spans of the record text (see
+     * {@link org.smooks.cartridges.flatfile.variablefield.LazyFieldValues}), and a field value string is
+     * only built when the field value is got.  Implied by <code>bufferBackedFieldValues</code>.
+     *
+     * @return True if the group field values are built lazily, otherwise false.
+     */
+    public boolean isLazyFieldValues() {
+        return (lazyFieldValues || bufferBackedFieldValues);
+    }
+
+    /**
+     * Are the lazily built field values (see {@link #isLazyFieldValues()}) views of the parser's shared record
+     * buffer, rather than of a copy of the record.
+     * <p/>
+     * Buffer backed field values are only valid until the parser reads the next record, so they require
+     * <code>reuseRecords</code> (see {@link #isReuseRecords()}), whose records carry the same contract.
+     * Records handed back by a parallel record reader are copied regardless.
+     *
+     * @return True if the lazily built field values are backed by the shared record buffer, otherwise false.
+     */
+    public boolean isBufferBackedFieldValues() {
+        return bufferBackedFieldValues;
+    }
+
+    /**
+     * Get the matching engine in use for the Regex Pattern.
+     *
+     * @return The matching engine, or <code>null</code> if the pattern has no capture groups (records are split on it).
+     */
+    public MatchingEngine getMatchingEngine() {
+        return matchingEngine;
+    }
+
+    /**
+     * Get the Regex Pattern, as compiled by the matching engine.
+     *
+     * @return The compiled pattern, or <code>null</code> if the pattern has no capture groups (records are split on it).
+     */
+    public MatchingEngine.CompiledPattern getCompiledPattern() {
+        return compiledPattern;
+    }
 }
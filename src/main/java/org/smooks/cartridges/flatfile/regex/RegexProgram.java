@@ -0,0 +1,215 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.AlternationNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.CharNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.ConcatNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.GroupNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.Node;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.RepeatNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.UnsupportedPatternException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Regex compiled to a Thompson NFA program, for the {@link DfaMatchingEngine}.
+ * <p/>
+ * Compiles the {@link RegexSyntax} subset of the {@link Pattern} syntax, other than quantified subexpressions
+ * that can match the empty string (<code>java.util.regex</code> treats empty iterations specially) and groups
+ * captured in loops.
+ * <p/>
+ * Instructions are held in parallel arrays.  {@link #SPLIT} prefers its first branch, which gives the
+ * same leftmost priorities as a backtracking matcher.
+ */
+final class RegexProgram {
+
+    static final int CHAR = 0;
+    static final int SPLIT = 1;
+    static final int JMP = 2;
+    static final int SAVE = 3;
+    static final int MATCH = 4;
+
+    static final int MAX_PROGRAM_SIZE = 2000;
+
+    final int[] ops;
+    final int[] args1;
+    final int[] args2;
+    final CharClass[] classes;
+    final int groupCount;
+
+    private RegexProgram(Compiler compiler, int groupCount) {
+        this.ops = Arrays.copyOf(compiler.ops, compiler.size);
+        this.args1 = Arrays.copyOf(compiler.args1, compiler.size);
+        this.args2 = Arrays.copyOf(compiler.args2, compiler.size);
+        this.classes = Arrays.copyOf(compiler.classes, compiler.size);
+        this.groupCount = groupCount;
+    }
+
+    int size() {
+        return ops.length;
+    }
+
+    /**
+     * Compile the pattern.
+     *
+     * @param pattern The pattern.
+     * @return The program, or <code>null</code> if the pattern is outside the compiled subset.
+     */
+    static RegexProgram compile(Pattern pattern) {
+        try {
+            Node root = RegexSyntax.parse(pattern);
+            Compiler compiler = new Compiler();
+            compiler.emit(root);
+            compiler.add(MATCH, 0, 0, null);
+            return new RegexProgram(compiler, compiler.groupCount);
+        } catch (UnsupportedPatternException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Emits the program instructions for a parsed pattern.
+     */
+    private static final class Compiler {
+
+        private int[] ops = new int[64];
+        private int[] args1 = new int[64];
+        private int[] args2 = new int[64];
+        private CharClass[] classes = new CharClass[64];
+        private int size;
+        private int groupCount;
+
+        private int add(int op, int arg1, int arg2, CharClass charClass) {
+            if (size == MAX_PROGRAM_SIZE) {
+                throw new UnsupportedPatternException();
+            }
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                args1 = Arrays.copyOf(args1, size * 2);
+                args2 = Arrays.copyOf(args2, size * 2);
+                classes = Arrays.copyOf(classes, size * 2);
+            }
+            ops[size] = op;
+            args1[size] = arg1;
+            args2[size] = arg2;
+            classes[size] = charClass;
+            return size++;
+        }
+
+        private void emit(Node node) {
+            if (node instanceof CharNode) {
+                add(CHAR, 0, 0, ((CharNode) node).charClass);
+            } else if (node instanceof ConcatNode) {
+                for (Node child : ((ConcatNode) node).nodes) {
+                    emit(child);
+                }
+            } else if (node instanceof AlternationNode) {
+                List<Node> branches = ((AlternationNode) node).branches;
+                int[] jumps = new int[branches.size() - 1];
+                for (int i = 0; i < jumps.length; i++) {
+                    int split = add(SPLIT, size + 1, 0, null);
+                    emit(branches.get(i));
+                    jumps[i] = add(JMP, 0, 0, null);
+                    args2[split] = size;
+                }
+                emit(branches.get(jumps.length));
+                for (int jump : jumps) {
+                    args1[jump] = size;
+                }
+            } else if (node instanceof GroupNode) {
+                GroupNode group = (GroupNode) node;
+                if (group.group == -1) {
+                    emit(group.body);
+                } else {
+                    groupCount = Math.max(groupCount, group.group);
+                    add(SAVE, group.group * 2, 0, null);
+                    emit(group.body);
+                    add(SAVE, group.group * 2 + 1, 0, null);
+                }
+            } else if (node instanceof RepeatNode) {
+                emitRepeat((RepeatNode) node);
+            }
+            // Anchors emit nothing... they can't fail a whole input match at the start or end of the pattern...
+        }
+
+        private void emitRepeat(RepeatNode repeat) {
+            if (repeat.max != 1 && repeat.body.isNullable()) {
+                // Empty iterations...
+                throw new UnsupportedPatternException();
+            }
+            if (repeat.max != 1 && repeat.body.hasGroup()) {
+                // Groups captured in loops, which java.util.regex doesn't always restore when it backtracks
+                // out of an iteration...
+                throw new UnsupportedPatternException();
+            }
+
+            for (int i = 0; i < repeat.min; i++) {
+                emit(repeat.body);
+            }
+
+            if (repeat.max == -1) {
+                int split = add(SPLIT, 0, 0, null);
+                emit(repeat.body);
+                add(JMP, split, 0, null);
+                setBranches(split, split + 1, size, repeat.greedy);
+            } else {
+                int[] splits = new int[repeat.max - repeat.min];
+                for (int i = 0; i < splits.length; i++) {
+                    splits[i] = add(SPLIT, 0, 0, null);
+                    emit(repeat.body);
+                }
+                for (int split : splits) {
+                    setBranches(split, split + 1, size, repeat.greedy);
+                }
+            }
+        }
+
+        private void setBranches(int split, int body, int exit, boolean greedy) {
+            args1[split] = (greedy ? body : exit);
+            args2[split] = (greedy ? exit : body);
+        }
+    }
+}
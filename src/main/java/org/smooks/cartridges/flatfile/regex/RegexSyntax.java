@@ -0,0 +1,660 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Syntax tree of the regular subset of the {@link Pattern} syntax.
+ * <p/>
+ * Parses literals, char classes (without unions or intersections), the <code>\d \w \s</code> predefined
+ * classes, <code>.</code>, capturing, named and non-capturing groups, alternation and greedy or reluctant
+ * quantifiers.  Backreferences, lookaround, boundaries, possessive quantifiers and inline flags are not parsed,
+ * nor are <code>^</code> and <code>$</code> anywhere other than at the very start and end of the pattern.
+ * <p/>
+ * Each node keeps its source text, so a tree can be written back out as a pattern.
+ *
+ * @see RegexProgram
+ * @see PatternOptimizer
+ */
+final class RegexSyntax {
+
+    private static final int MAX_REPEAT = 1000;
+    private static final int SUPPORTED_FLAGS = Pattern.MULTILINE | Pattern.DOTALL;
+
+    private RegexSyntax() {
+    }
+
+    /**
+     * Parse the pattern.
+     *
+     * @param pattern The pattern.
+     * @return The syntax tree root.
+     * @throws UnsupportedPatternException The pattern is outside the parsed subset.
+     */
+    static Node parse(Pattern pattern) {
+        if ((pattern.flags() & ~SUPPORTED_FLAGS) != 0) {
+            throw new UnsupportedPatternException();
+        }
+        return new Parser(pattern.pattern(), (pattern.flags() & Pattern.DOTALL) != 0).parse();
+    }
+
+    /**
+     * Thrown for a pattern outside the supported subset.  Without a stack trace.
+     */
+    static final class UnsupportedPatternException extends RuntimeException {
+        UnsupportedPatternException() {
+            super(null, null, false, false);
+        }
+    }
+
+    abstract static class Node {
+
+        /**
+         * Can the node match the empty string.
+         */
+        abstract boolean isNullable();
+
+        /**
+         * Does the node hold a capturing group.
+         */
+        boolean hasGroup() {
+            return false;
+        }
+
+        /**
+         * Get the chars that can start a non empty match of the node.
+         */
+        abstract CharClass first();
+
+        /**
+         * Write the node back out as pattern source.
+         */
+        abstract void appendTo(StringBuilder regex);
+    }
+
+    /**
+     * Single char (code point) matched against a char class.
+     */
+    static final class CharNode extends Node {
+        final CharClass charClass;
+        final String source;
+
+        CharNode(CharClass charClass, String source) {
+            this.charClass = charClass;
+            this.source = source;
+        }
+
+        @Override
+        boolean isNullable() {
+            return false;
+        }
+
+        @Override
+        CharClass first() {
+            return charClass;
+        }
+
+        @Override
+        void appendTo(StringBuilder regex) {
+            regex.append(source);
+        }
+    }
+
+    /**
+     * <code>^</code> at the start, or <code>$</code> at the end, of the pattern.
+     */
+    static final class AnchorNode extends Node {
+        final char anchor;
+
+        AnchorNode(char anchor) {
+            this.anchor = anchor;
+        }
+
+        @Override
+        boolean isNullable() {
+            return true;
+        }
+
+        @Override
+        CharClass first() {
+            return CharClass.NONE;
+        }
+
+        @Override
+        void appendTo(StringBuilder regex) {
+            regex.append(anchor);
+        }
+    }
+
+    static final class ConcatNode extends Node {
+        final List<Node> nodes;
+
+        ConcatNode(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        boolean isNullable() {
+            return nodes.stream().allMatch(Node::isNullable);
+        }
+
+        @Override
+        boolean hasGroup() {
+            return nodes.stream().anyMatch(Node::hasGroup);
+        }
+
+        @Override
+        CharClass first() {
+            CharClass first = CharClass.NONE;
+            for (Node node : nodes) {
+                first = first.union(node.first());
+                if (!node.isNullable()) {
+                    break;
+                }
+            }
+            return first;
+        }
+
+        @Override
+        void appendTo(StringBuilder regex) {
+            for (Node node : nodes) {
+                node.appendTo(regex);
+            }
+        }
+    }
+
+    static final class AlternationNode extends Node {
+        final List<Node> branches;
+        boolean atomic;
+
+        AlternationNode(List<Node> branches) {
+            this.branches = branches;
+        }
+
+        @Override
+        boolean isNullable() {
+            return branches.stream().anyMatch(Node::isNullable);
+        }
+
+        @Override
+        boolean hasGroup() {
+            return branches.stream().anyMatch(Node::hasGroup);
+        }
+
+        @Override
+        CharClass first() {
+            CharClass first = CharClass.NONE;
+            for (Node branch : branches) {
+                first = first.union(branch.first());
+            }
+            return first;
+        }
+
+        @Override
+        void appendTo(StringBuilder regex) {
+            if (atomic) {
+                regex.append("(?>");
+            }
+            appendBranchesTo(regex);
+            if (atomic) {
+                regex.append(')');
+            }
+        }
+
+        void appendBranchesTo(StringBuilder regex) {
+            for (int i = 0; i < branches.size(); i++) {
+                if (i > 0) {
+                    regex.append('|');
+                }
+                branches.get(i).appendTo(regex);
+            }
+        }
+    }
+
+    /**
+     * Capturing, named or non-capturing group.
+     */
+    static final class GroupNode extends Node {
+        final int group;
+        final String open;
+        final Node body;
+
+        /**
+         * @param group The group index, or -1 for a non-capturing group.
+         * @param open  The group opening source, e.g. <code>(</code> or <code>(?:</code>.
+         * @param body  The group body.
+         */
+        GroupNode(int group, String open, Node body) {
+            this.group = group;
+            this.open = open;
+            this.body = body;
+        }
+
+        @Override
+        boolean isNullable() {
+            return body.isNullable();
+        }
+
+        @Override
+        boolean hasGroup() {
+            return group != -1 || body.hasGroup();
+        }
+
+        @Override
+        CharClass first() {
+            return body.first();
+        }
+
+        @Override
+        void appendTo(StringBuilder regex) {
+            if (group == -1 && body instanceof AlternationNode && ((AlternationNode) body).atomic) {
+                // An atomic group in place of the non-capturing group...
+                regex.append("(?>");
+                ((AlternationNode) body).appendBranchesTo(regex);
+            } else {
+                regex.append(open);
+                body.appendTo(regex);
+            }
+            regex.append(')');
+        }
+    }
+
+    static final class RepeatNode extends Node {
+        final Node body;
+        final int min;
+        final int max;
+        final boolean greedy;
+        final String quantifier;
+        boolean possessive;
+
+        /**
+         * @param body       The repeated node.
+         * @param min        The minimum count.
+         * @param max        The maximum count, or -1 if unbounded.
+         * @param greedy     Greedy, otherwise reluctant.
+         * @param quantifier The quantifier source.
+         */
+        RepeatNode(Node body, int min, int max, boolean greedy, String quantifier) {
+            this.body = body;
+            this.min = min;
+            this.max = max;
+            this.greedy = greedy;
+            this.quantifier = quantifier;
+        }
+
+        @Override
+        boolean isNullable() {
+            return min == 0 || body.isNullable();
+        }
+
+        @Override
+        boolean hasGroup() {
+            return body.hasGroup();
+        }
+
+        @Override
+        CharClass first() {
+            return body.first();
+        }
+
+        @Override
+        void appendTo(StringBuilder regex) {
+            body.appendTo(regex);
+            regex.append(quantifier);
+            if (possessive) {
+                regex.append('+');
+            }
+        }
+    }
+
+    /**
+     * Recursive descent parser for the subset.
+     */
+    private static final class Parser {
+
+        private final String regex;
+        private final boolean dotAll;
+        private int position;
+        private int groupCount;
+
+        private Parser(String regex, boolean dotAll) {
+            this.regex = regex;
+            this.dotAll = dotAll;
+        }
+
+        private Node parse() {
+            Node root = parseAlternation();
+            if (position != regex.length()) {
+                throw new UnsupportedPatternException();
+            }
+            return root;
+        }
+
+        private Node parseAlternation() {
+            List<Node> branches = new ArrayList<>();
+            branches.add(parseSequence());
+            while (peek() == '|') {
+                position++;
+                branches.add(parseSequence());
+            }
+            return (branches.size() == 1 ? branches.get(0) : new AlternationNode(branches));
+        }
+
+        private Node parseSequence() {
+            List<Node> nodes = new ArrayList<>();
+            while (position < regex.length() && peek() != '|' && peek() != ')') {
+                nodes.add(parseQuantified());
+            }
+            return (nodes.size() == 1 ? nodes.get(0) : new ConcatNode(nodes));
+        }
+
+        private Node parseQuantified() {
+            Node atom = parseAtom();
+
+            int start = position;
+            int min;
+            int max;
+            switch (peek()) {
+                case '*':
+                    min = 0;
+                    max = -1;
+                    position++;
+                    break;
+                case '+':
+                    min = 1;
+                    max = -1;
+                    position++;
+                    break;
+                case '?':
+                    min = 0;
+                    max = 1;
+                    position++;
+                    break;
+                case '{':
+                    position++;
+                    min = parseCount();
+                    if (peek() == ',') {
+                        position++;
+                        max = (peek() == '}' ? -1 : parseCount());
+                    } else {
+                        max = min;
+                    }
+                    expect('}');
+                    break;
+                default:
+                    return atom;
+            }
+
+            boolean greedy = true;
+            if (peek() == '?') {
+                greedy = false;
+                position++;
+            } else if (peek() == '+') {
+                // Possessive...
+                throw new UnsupportedPatternException();
+            }
+            if (atom instanceof AnchorNode || "*+?{".indexOf(peek()) != -1 || (max != -1 && max < min)) {
+                throw new UnsupportedPatternException();
+            }
+
+            return new RepeatNode(atom, min, max, greedy, regex.substring(start, position));
+        }
+
+        private int parseCount() {
+            int start = position;
+            while (position < regex.length() && Character.isDigit(regex.charAt(position)) && position - start < 4) {
+                position++;
+            }
+            if (position == start || (position < regex.length() && Character.isDigit(regex.charAt(position)))) {
+                throw new UnsupportedPatternException();
+            }
+            int count = Integer.parseInt(regex.substring(start, position));
+            if (count > MAX_REPEAT) {
+                throw new UnsupportedPatternException();
+            }
+            return count;
+        }
+
+        private Node parseAtom() {
+            int start = position;
+            int c = regex.codePointAt(position);
+            position += Character.charCount(c);
+
+            CharClass charClass;
+            switch (c) {
+                case '(':
+                    return parseGroup(start);
+                case '[':
+                    charClass = parseClass();
+                    break;
+                case '.':
+                    charClass = (dotAll ? CharClass.ANY : CharClass.LINE_TERMINATOR.complement());
+                    break;
+                case '\\':
+                    charClass = parseEscape();
+                    break;
+                case '^':
+                    if (start != 0) {
+                        throw new UnsupportedPatternException();
+                    }
+                    return new AnchorNode('^');
+                case '$':
+                    if (position != regex.length()) {
+                        throw new UnsupportedPatternException();
+                    }
+                    return new AnchorNode('$');
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new UnsupportedPatternException();
+                default:
+                    charClass = CharClass.of(c);
+            }
+
+            return new CharNode(charClass, regex.substring(start, position));
+        }
+
+        private Node parseGroup(int start) {
+            int group = -1;
+            if (regex.startsWith("?:", position)) {
+                position += 2;
+            } else if (regex.startsWith("?<", position) && position + 2 < regex.length() && Character.isLetter(regex.charAt(position + 2))) {
+                // A named group...
+                int end = regex.indexOf('>', position);
+                if (end == -1) {
+                    throw new UnsupportedPatternException();
+                }
+                position = end + 1;
+                group = ++groupCount;
+            } else if (peek() == '?') {
+                throw new UnsupportedPatternException();
+            } else {
+                group = ++groupCount;
+            }
+
+            String open = regex.substring(start, position);
+            Node body = parseAlternation();
+            expect(')');
+            return new GroupNode(group, open, body);
+        }
+
+        private CharClass parseClass() {
+            boolean negate = false;
+            if (peek() == '^') {
+                negate = true;
+                position++;
+            }
+            if (peek() == ']') {
+                throw new UnsupportedPatternException();
+            }
+
+            CharClass charClass = null;
+            while (true) {
+                if (position >= regex.length()) {
+                    throw new UnsupportedPatternException();
+                }
+                int c = regex.codePointAt(position);
+                position += Character.charCount(c);
+
+                CharClass item;
+                if (c == ']') {
+                    break;
+                } else if (c == '[' || (c == '&' && peek() == '&')) {
+                    // Unions and intersections...
+                    throw new UnsupportedPatternException();
+                } else if (c == '\\') {
+                    item = parseEscape();
+                } else {
+                    item = CharClass.of(c);
+                }
+
+                if (peek() == '-' && position + 1 < regex.length() && regex.charAt(position + 1) != ']') {
+                    // A range...
+                    int from = toSingle(item);
+                    position++;
+                    int to = regex.codePointAt(position);
+                    position += Character.charCount(to);
+                    if (to == '\\') {
+                        to = toSingle(parseEscape());
+                    } else if (to == '[' || to == '&') {
+                        throw new UnsupportedPatternException();
+                    }
+                    if (to < from) {
+                        throw new UnsupportedPatternException();
+                    }
+                    item = CharClass.range(from, to);
+                }
+                charClass = (charClass == null ? item : charClass.union(item));
+            }
+
+            return (negate ? charClass.complement() : charClass);
+        }
+
+        private int toSingle(CharClass charClass) {
+            int codePoint = charClass.toCodePoint();
+            if (codePoint == -1) {
+                throw new UnsupportedPatternException();
+            }
+            return codePoint;
+        }
+
+        private CharClass parseEscape() {
+            if (position >= regex.length()) {
+                throw new UnsupportedPatternException();
+            }
+            int c = regex.codePointAt(position);
+            position += Character.charCount(c);
+
+            switch (c) {
+                case 'd':
+                    return CharClass.DIGIT;
+                case 'D':
+                    return CharClass.DIGIT.complement();
+                case 'w':
+                    return CharClass.WORD;
+                case 'W':
+                    return CharClass.WORD.complement();
+                case 's':
+                    return CharClass.SPACE;
+                case 'S':
+                    return CharClass.SPACE.complement();
+                case 't':
+                    return CharClass.of('\t');
+                case 'n':
+                    return CharClass.of('\n');
+                case 'r':
+                    return CharClass.of('\r');
+                case 'f':
+                    return CharClass.of('\f');
+                case 'a':
+                    return CharClass.of('\u0007');
+                case 'e':
+                    return CharClass.of('\u001B');
+                case 'x':
+                    return CharClass.of(parseHex(2));
+                case 'u':
+                    int codeUnit = parseHex(4);
+                    if (Character.isSurrogate((char) codeUnit)) {
+                        throw new UnsupportedPatternException();
+                    }
+                    return CharClass.of(codeUnit);
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        // Backreferences, boundaries, properties, octal escapes etc...
+                        throw new UnsupportedPatternException();
+                    }
+                    return CharClass.of(c);
+            }
+        }
+
+        private int parseHex(int digits) {
+            if (position + digits > regex.length()) {
+                throw new UnsupportedPatternException();
+            }
+            int value = 0;
+            for (int i = 0; i < digits; i++) {
+                int digit = Character.digit(regex.charAt(position++), 16);
+                if (digit == -1) {
+                    throw new UnsupportedPatternException();
+                }
+                value = value * 16 + digit;
+            }
+            return value;
+        }
+
+        private int peek() {
+            return (position < regex.length() ? regex.charAt(position) : -1);
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw new UnsupportedPatternException();
+            }
+            position++;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.AlternationNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.AnchorNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.CharNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.ConcatNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.GroupNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.Node;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.RepeatNode;
+import org.smooks.cartridges.flatfile.regex.RegexSyntax.UnsupportedPatternException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Literal that every match of a pattern must contain, used to rule records out before running the regex.
+ * <p/>
+ * Literals are extracted from the {@link RegexSyntax} tree: runs of single chars, through groups and
+ * fixed repeats, and the literals common to every branch of an alternation.  A literal at the very start of
+ * the pattern is checked as a prefix of the record (whole records are matched).  Otherwise the longest
+ * required literal is searched for, using the Boyer-Moore-Horspool algorithm.
+ * <p/>
+ * Instances are stateless, so can be shared between threads.
+ */
+final class RequiredLiteral {
+
+    private static final int SHIFT_TABLE_SIZE = 256;
+
+    private final String literal;
+    private final boolean prefix;
+    private final int[] shiftTable = new int[SHIFT_TABLE_SIZE];
+
+    private RequiredLiteral(String literal, boolean prefix) {
+        this.literal = literal;
+        this.prefix = prefix;
+
+        int last = literal.length() - 1;
+        for (int i = 0; i < SHIFT_TABLE_SIZE; i++) {
+            shiftTable[i] = literal.length();
+        }
+        // Chars are folded into the table on their low byte.  Colliding chars simply share the smallest shift...
+        for (int i = 0; i < last; i++) {
+            int slot = literal.charAt(i) & (SHIFT_TABLE_SIZE - 1);
+            shiftTable[slot] = Math.min(shiftTable[slot], last - i);
+        }
+    }
+
+    /**
+     * Extract the required literal of a pattern.
+     *
+     * @param pattern         The pattern.
+     * @param wholeInputMatch The pattern is only matched against whole records ({@link java.util.regex.Matcher#matches()}),
+     *                        so a literal at its start must be a prefix of the record.
+     * @return The required literal, or <code>null</code> if the pattern has none (or is outside the
+     * {@link RegexSyntax} subset).
+     */
+    static RequiredLiteral forPattern(Pattern pattern, boolean wholeInputMatch) {
+        Node root;
+        try {
+            root = RegexSyntax.parse(pattern);
+        } catch (UnsupportedPatternException e) {
+            return null;
+        }
+
+        Extractor extractor = new Extractor();
+        List<String> literals = extractor.extract(root);
+        if (wholeInputMatch && extractor.prefix != null && !extractor.prefix.isEmpty()) {
+            return new RequiredLiteral(extractor.prefix, true);
+        }
+
+        String longest = "";
+        for (String literal : literals) {
+            if (literal.length() > longest.length()) {
+                longest = literal;
+            }
+        }
+        return (longest.isEmpty() ? null : new RequiredLiteral(longest, false));
+    }
+
+    String getLiteral() {
+        return literal;
+    }
+
+    boolean isPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Could a record match the pattern.
+     *
+     * @param record The record text.
+     * @return False if the record can't match the pattern, because it doesn't contain the literal.
+     */
+    boolean isFoundIn(CharSequence record) {
+        if (prefix) {
+            return record.length() >= literal.length() && matchesAt(record, 0);
+        }
+
+        int last = literal.length() - 1;
+        char lastChar = literal.charAt(last);
+        int length = record.length();
+
+        int i = last;
+        while (i < length) {
+            char c = record.charAt(i);
+            if (c == lastChar && matchesAt(record, i - last)) {
+                return true;
+            }
+            i += shiftTable[c & (SHIFT_TABLE_SIZE - 1)];
+        }
+        return false;
+    }
+
+    private boolean matchesAt(CharSequence record, int start) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (record.charAt(start + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects the literals required by a syntax tree.
+     */
+    private static final class Extractor {
+
+        private String prefix;
+
+        private List<String> extract(Node root) {
+            List<String> literals = new ArrayList<>();
+            StringBuilder run = new StringBuilder();
+            boolean atStart = appendSequence(root, run, literals, true);
+            if (atStart) {
+                // The whole pattern is a literal...
+                prefix = run.toString();
+            }
+            endRun(run, literals);
+            return literals;
+        }
+
+        /**
+         * Append the literals of a node that's matched as part of a sequence.
+         *
+         * @param node     The node.
+         * @param run      The current literal run, which the node can extend.
+         * @param literals The completed required literals.
+         * @param atStart  The current run starts at the start of the pattern.
+         * @return True if the current run still starts at the start of the pattern.
+         */
+        private boolean appendSequence(Node node, StringBuilder run, List<String> literals, boolean atStart) {
+            if (node instanceof CharNode && ((CharNode) node).charClass.toCodePoint() != -1) {
+                run.appendCodePoint(((CharNode) node).charClass.toCodePoint());
+                return atStart;
+            } else if (node instanceof AnchorNode) {
+                return atStart;
+            } else if (node instanceof ConcatNode) {
+                for (Node child : ((ConcatNode) node).nodes) {
+                    atStart = appendSequence(child, run, literals, atStart);
+                }
+                return atStart;
+            } else if (node instanceof GroupNode) {
+                return appendSequence(((GroupNode) node).body, run, literals, atStart);
+            } else if (node instanceof RepeatNode) {
+                RepeatNode repeat = (RepeatNode) node;
+                if (repeat.min > 0 && repeat.body instanceof CharNode && ((CharNode) repeat.body).charClass.toCodePoint() != -1) {
+                    for (int i = 0; i < repeat.min; i++) {
+                        run.appendCodePoint(((CharNode) repeat.body).charClass.toCodePoint());
+                    }
+                    if (repeat.max == repeat.min) {
+                        return atStart;
+                    }
+                    atStart = endRun(run, literals, atStart);
+                } else {
+                    atStart = endRun(run, literals, atStart);
+                    if (repeat.min > 0) {
+                        literals.addAll(new Extractor().extract(repeat.body));
+                    }
+                }
+                return false;
+            } else if (node instanceof AlternationNode) {
+                atStart = endRun(run, literals, atStart);
+                literals.addAll(commonLiterals(((AlternationNode) node).branches));
+                return false;
+            }
+
+            // A char class...
+            endRun(run, literals, atStart);
+            return false;
+        }
+
+        private boolean endRun(StringBuilder run, List<String> literals, boolean atStart) {
+            if (atStart) {
+                prefix = run.toString();
+            }
+            endRun(run, literals);
+            return false;
+        }
+
+        private void endRun(StringBuilder run, List<String> literals) {
+            if (run.length() > 0) {
+                literals.add(run.toString());
+                run.setLength(0);
+            }
+        }
+
+        /**
+         * Get the literals that every branch requires.  A literal of the first branch is kept, or cut
+         * down to the longest of its substrings held in the literals of every other branch.
+         */
+        private static List<String> commonLiterals(List<Node> branches) {
+            List<String> common = new Extractor().extract(branches.get(0));
+            for (int i = 1; i < branches.size() && !common.isEmpty(); i++) {
+                List<String> branchLiterals = new Extractor().extract(branches.get(i));
+                List<String> kept = new ArrayList<>();
+                for (String literal : common) {
+                    String substring = longestCommonSubstring(literal, branchLiterals);
+                    if (!substring.isEmpty()) {
+                        kept.add(substring);
+                    }
+                }
+                common = kept;
+            }
+            return (common.isEmpty() ? Collections.emptyList() : common);
+        }
+
+        private static String longestCommonSubstring(String literal, List<String> literals) {
+            String longest = "";
+            for (String other : literals) {
+                for (int start = 0; start < literal.length(); start++) {
+                    for (int end = literal.length(); end - start > longest.length(); end--) {
+                        if (other.contains(literal.substring(start, end))) {
+                            longest = literal.substring(start, end);
+                            break;
+                        }
+                    }
+                }
+            }
+            return longest;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte domain record reader.
+ * <p/>
+ * Locates record boundaries directly in the encoded bytes of a byte window and only decodes completed
+ * records.  Single byte charsets are decoded through a precomputed byte to char table and pure ASCII
+ * UTF-8 records are simply widened, so a {@link CharsetDecoder} is only used for UTF-8 records containing
+ * multi-byte sequences.  Only supports literal (or CR/LF) record delimiters in charsets where the encoded delimiter can
+ * only ever match on a character boundary i.e. UTF-8 and the single byte charsets.  See
+ * {@link #isSupported(Charset, String)}.
+ * <p/>
+ * Subclasses supply the bytes by implementing {@link #fill()}.  A record is always held contiguously
+ * in the window, so the window grows to fit records larger than it.
+ */
+public abstract class ByteRecordReader extends RecordReader {
+
+    private static final ByteBuffer EMPTY_WINDOW = ByteBuffer.allocate(0);
+
+    private final Charset charset;
+    private final String recordDelimiter;
+    private final CharsetDecoder decoder;
+    private final char[] singleByteCharTable;
+    private final boolean utf8;
+    private final LiteralDelimiterLocator delimiterLocator;
+    private final int delimiterLength;
+    private final int maxBytesPerChar;
+    private final int carriageReturn;
+    private final int lineFeed;
+    private final boolean keepDelimiter;
+    private CharBuffer decodeBuffer = CharBuffer.allocate(0);
+
+    /**
+     * The byte window.  Subclasses must keep the window limit at its capacity.
+     */
+    protected ByteBuffer window = EMPTY_WINDOW;
+    /**
+     * The index of the first unconsumed byte in the window.
+     */
+    protected int position;
+    /**
+     * The index following the last valid byte in the window.
+     */
+    protected int limit;
+
+    /**
+     * Protected constructor.
+     *
+     * @param charset         The data source charset.
+     * @param recordDelimiter The literal record delimiter, or <code>null</code> if records are
+     *                        delimited by a CR or LF.
+     * @param keepDelimiter   Keep the record delimiter as part of the record text.
+     */
+    protected ByteRecordReader(Charset charset, String recordDelimiter, boolean keepDelimiter) {
+        if (!isSupported(charset, recordDelimiter)) {
+            throw new IllegalArgumentException("Unsupported byte domain record delimiter for charset '" + charset.name() + "'.");
+        }
+        this.charset = charset;
+        this.recordDelimiter = recordDelimiter;
+        this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.utf8 = charset.equals(StandardCharsets.UTF_8);
+        this.singleByteCharTable = (utf8 ? null : buildSingleByteCharTable(decoder));
+        this.delimiterLocator = (recordDelimiter != null ? new LiteralDelimiterLocator(encode(charset, recordDelimiter)) : null);
+        this.delimiterLength = (delimiterLocator != null ? delimiterLocator.length() : 1);
+        this.maxBytesPerChar = (int) Math.ceil(charset.newEncoder().maxBytesPerChar());
+        this.carriageReturn = encode(charset, "\r")[0] & 0xFF;
+        this.lineFeed = encode(charset, "\n")[0] & 0xFF;
+        this.keepDelimiter = keepDelimiter;
+    }
+
+    /**
+     * Can records delimited by the specified record delimiter be located in the byte domain for the
+     * specified charset.
+     *
+     * @param charset         The data source charset.
+     * @param recordDelimiter The literal record delimiter, or <code>null</code> if records are
+     *                        delimited by a CR or LF.
+     * @return True if the records can be located in the byte domain, otherwise false.
+     */
+    public static boolean isSupported(Charset charset, String recordDelimiter) {
+        if (!charset.canEncode() || (recordDelimiter != null && recordDelimiter.isEmpty())) {
+            return false;
+        }
+
+        CharsetEncoder encoder = charset.newEncoder();
+        if (!charset.equals(StandardCharsets.UTF_8) && encoder.maxBytesPerChar() != 1.0f) {
+            return false;
+        }
+        if (!encoder.canEncode('\r') || !encoder.canEncode('\n')) {
+            return false;
+        }
+        return recordDelimiter == null || encoder.canEncode(recordDelimiter);
+    }
+
+    @Override
+    public void readRecord(StringBuilder recordBuffer) throws IOException {
+        while (!readNextRecord(recordBuffer)) {
+            // The record was rejected... read the next one...
+        }
+    }
+
+    /**
+     * Read the next record into the record buffer, applying the oversize record policy.
+     * <p/>
+     * Unlike {@link #readRecord(StringBuilder)}, a rejected record is not read past, so that callers can account
+     * for every record in the data source.
+     *
+     * @param recordBuffer The record buffer.
+     * @return True if the record was read, or false if it was rejected and the record buffer is empty.
+     * @throws IOException Error reading from the data source.
+     */
+    boolean readNextRecord(StringBuilder recordBuffer) throws IOException {
+        recordBuffer.setLength(0);
+        skipLeadingLineBreaks();
+
+        int delimiterIndex = findDelimiter(recordBuffer);
+        if (delimiterIndex != -1) {
+            decode(position, (keepDelimiter ? delimiterIndex + delimiterLength : delimiterIndex), recordBuffer);
+            position = delimiterIndex + delimiterLength;
+        } else {
+            // End of stream... the rest of the window is the last record...
+            decode(position, limit, recordBuffer);
+            position = limit;
+        }
+        return completeRecord(recordBuffer);
+    }
+
+    @Override
+    public int skipRecords(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            skipLeadingLineBreaks();
+            if (position == limit) {
+                return i;
+            }
+
+            // Nothing is decoded... just move past the record delimiter...
+            int delimiterIndex = findDelimiter(null);
+            if (delimiterIndex == -1) {
+                // End of stream... the rest of the window is the last record...
+                position = limit;
+                return i + 1;
+            }
+            boolean emptyRecord = (delimiterIndex == position && !keepDelimiter);
+            position = delimiterIndex + delimiterLength;
+            if (emptyRecord) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Move past the next record delimiter, without decoding anything.
+     *
+     * @return True if a delimiter was found, false if the end of the data source has been reached.
+     * @throws IOException Error reading from the data source.
+     */
+    boolean skipPastDelimiter() throws IOException {
+        int delimiterIndex = findDelimiter(null);
+        if (delimiterIndex != -1) {
+            position = delimiterIndex + delimiterLength;
+            return true;
+        }
+        position = limit;
+        return false;
+    }
+
+    /**
+     * Get the data source charset.
+     *
+     * @return The data source charset.
+     */
+    Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Get the literal record delimiter.
+     *
+     * @return The literal record delimiter, or <code>null</code> if records are delimited by a CR or LF.
+     */
+    String getRecordDelimiter() {
+        return recordDelimiter;
+    }
+
+    /**
+     * Is the record delimiter kept as part of the record text.
+     *
+     * @return True if the record delimiter is kept, otherwise false.
+     */
+    boolean isKeepDelimiter() {
+        return keepDelimiter;
+    }
+
+    /**
+     * Are records delimited by a CR or LF (as opposed to a literal record delimiter).
+     *
+     * @return True if records are delimited by a CR or LF, otherwise false.
+     */
+    boolean isLineDelimited() {
+        return delimiterLocator == null;
+    }
+
+    /**
+     * Find the next record delimiter, filling the window as required.
+     * <p/>
+     * If the record length is bounded, the record text scanned so far is decoded into the record buffer once it's
+     * certain to exceed the maximum record length, rather than growing the window to hold the whole record.
+     *
+     * @param recordBuffer The record buffer, or <code>null</code> if the record is being skipped.
+     * @return The window index of the delimiter, or -1 if the end of the data source has been reached.
+     * @throws IOException Error reading from the data source.
+     */
+    private int findDelimiter(StringBuilder recordBuffer) throws IOException {
+        int scanOffset = 0;
+        while (position < limit || fill()) {
+            int delimiterIndex = indexOfDelimiter(position + scanOffset);
+            if (delimiterIndex != -1) {
+                return delimiterIndex;
+            }
+
+            if (recordBuffer != null && getMaxRecordLength() > 0 && limit - position > (long) getMaxRecordLength() * maxBytesPerChar) {
+                int end = toCharBoundary(limit - delimiterLength + 1);
+                if (end > position) {
+                    decode(position, end, recordBuffer);
+                    position = end;
+                    if (isRecordOverLength(recordBuffer)) {
+                        flushRecordText(recordBuffer, recordBuffer.length());
+                    }
+                }
+            }
+
+            // Resume the scan at the bytes that could be the start of a delimiter straddling the window end...
+            scanOffset = Math.max(0, limit - position - delimiterLength + 1);
+            if (!fill()) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Make room in the window and read more bytes into it, keeping the unconsumed bytes
+     * (from {@link #position} to {@link #limit}).
+     *
+     * @return True if more bytes were read into the window, false if the end of the data source has been reached.
+     * @throws IOException Error reading from the data source.
+     */
+    protected abstract boolean fill() throws IOException;
+
+    void skipLeadingLineBreaks() throws IOException {
+        while (position < limit || fill()) {
+            int b = window.get(position) & 0xFF;
+            if (b != lineFeed && b != carriageReturn) {
+                return;
+            }
+            // A leading CR or LF... ignore...
+            position++;
+        }
+    }
+
+    private int indexOfDelimiter(int from) {
+        if (delimiterLocator != null) {
+            return delimiterLocator.indexIn(window, from, limit);
+        }
+
+        for (int i = from; i < limit; i++) {
+            int b = window.get(i) & 0xFF;
+            if (b == lineFeed || b == carriageReturn) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int toCharBoundary(int index) {
+        if (utf8) {
+            // Don't split a multi-byte sequence...
+            while (index > position && index < limit && (window.get(index) & 0xC0) == 0x80) {
+                index--;
+            }
+        }
+        return index;
+    }
+
+    private void decode(int from, int to, StringBuilder recordBuffer) throws CharacterCodingException {
+        int maxChars = (int) Math.ceil((to - from) * (double) decoder.maxCharsPerByte());
+        if (decodeBuffer.capacity() < maxChars) {
+            decodeBuffer = CharBuffer.allocate(Math.max(maxChars, decodeBuffer.capacity() * 2));
+        }
+
+        if (singleByteCharTable != null) {
+            char[] chars = decodeBuffer.array();
+            for (int i = from; i < to; i++) {
+                chars[i - from] = singleByteCharTable[window.get(i) & 0xFF];
+            }
+            recordBuffer.append(chars, 0, to - from);
+        } else if (!utf8 || !decodeAscii(from, to, recordBuffer)) {
+            decodeWithDecoder(from, to, recordBuffer);
+        }
+    }
+
+    private boolean decodeAscii(int from, int to, StringBuilder recordBuffer) {
+        char[] chars = decodeBuffer.array();
+        for (int i = from; i < to; i++) {
+            byte b = window.get(i);
+            if (b < 0) {
+                // Not ASCII...
+                return false;
+            }
+            chars[i - from] = (char) b;
+        }
+        recordBuffer.append(chars, 0, to - from);
+        return true;
+    }
+
+    private void decodeWithDecoder(int from, int to, StringBuilder recordBuffer) throws CharacterCodingException {
+        window.position(from);
+        window.limit(to);
+        try {
+            decodeBuffer.clear();
+            decoder.reset();
+            CoderResult result = decoder.decode(window, decodeBuffer, true);
+            if (result.isUnderflow()) {
+                result = decoder.flush(decodeBuffer);
+            }
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+            recordBuffer.append(decodeBuffer.array(), 0, decodeBuffer.position());
+        } finally {
+            window.limit(window.capacity());
+            window.position(0);
+        }
+    }
+
+    private static char[] buildSingleByteCharTable(CharsetDecoder decoder) {
+        if (decoder.maxCharsPerByte() != 1.0f) {
+            return null;
+        }
+
+        char[] charTable = new char[256];
+        ByteBuffer in = ByteBuffer.allocate(1);
+        CharBuffer out = CharBuffer.allocate(1);
+        for (int b = 0; b < charTable.length; b++) {
+            in.clear();
+            in.put((byte) b).flip();
+            out.clear();
+            decoder.reset();
+            CoderResult result = decoder.decode(in, out, true);
+            if (result.isUnderflow()) {
+                result = decoder.flush(out);
+            }
+            if (!result.isUnderflow() || out.position() != 1) {
+                // Not a simple single byte charset...
+                return null;
+            }
+            charTable[b] = out.get(0);
+        }
+        decoder.reset();
+
+        return charTable;
+    }
+
+    private static byte[] encode(Charset charset, String string) {
+        return string.getBytes(charset);
+    }
+}
@@ -0,0 +1,421 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Block oriented {@link Reader} based record reader.
+ * <p/>
+ * Fills a reusable char[] window from the underlying {@link Reader}, scans the window for the
+ * record delimiter and copies whole record spans into the record buffer, instead of pulling the
+ * stream through {@link Reader#read()} one character at a time.
+ * <p/>
+ * Characters read past the end of a record are held over in the window for the next record.  Regex
+ * delimited records are scanned in a compacting scan buffer, where the start of the next record stays
+ * in place behind a read cursor until the buffer is compacted.  Once a regex delimited record exceeds the
+ * maximum record length, a delimiter match is only looked for in the last {@value #MAX_DELIMITER_LOOKBACK}
+ * chars of the scan buffer, so that the record text before them can be moved out of the buffer.
+ *
+ * @see VariableFieldRecordParserFactory#newRecordReader(Reader)
+ */
+public class CharRecordReader extends RecordReader {
+
+    /**
+     * The length of the scan buffer tail in which a regex delimiter match may still start, once the record
+     * exceeds the maximum record length.
+     */
+    static final int MAX_DELIMITER_LOOKBACK = 4096;
+
+    private final Reader reader;
+    private final String recordDelimiter;
+    private final LiteralDelimiterLocator delimiterLocator;
+    private final Pattern recordDelimiterPattern;
+    private final boolean keepDelimiter;
+
+    private char[] window;
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+    private int recordNumber;
+    private final StringBuilder scanBuffer;
+    private final Matcher delimiterMatcher;
+    private int scanStart;
+    private int scanFindIndex;
+
+    /**
+     * Public constructor.
+     *
+     * @param reader                 The record {@link Reader}.
+     * @param recordDelimiter        The literal record delimiter, or <code>null</code> if records are
+     *                               delimited by a CR or LF.
+     * @param recordDelimiterPattern The record delimiter pattern, or <code>null</code> if the record
+     *                               delimiter is not a regex.
+     * @param keepDelimiter          Keep the record delimiter as part of the record text.
+     */
+    public CharRecordReader(Reader reader, String recordDelimiter, Pattern recordDelimiterPattern, boolean keepDelimiter) {
+        this(reader, recordDelimiter, recordDelimiterPattern, keepDelimiter, DEFAULT_WINDOW_SIZE);
+    }
+
+    CharRecordReader(Reader reader, String recordDelimiter, Pattern recordDelimiterPattern, boolean keepDelimiter, int windowSize) {
+        this.reader = reader;
+        this.recordDelimiter = recordDelimiter;
+        this.delimiterLocator = (recordDelimiter != null && !recordDelimiter.isEmpty() ? new LiteralDelimiterLocator(recordDelimiter) : null);
+        this.recordDelimiterPattern = recordDelimiterPattern;
+        this.keepDelimiter = keepDelimiter;
+        this.window = new char[Math.max(windowSize, (recordDelimiter != null ? recordDelimiter.length() * 2 : 1))];
+        this.scanBuffer = (recordDelimiterPattern != null ? new StringBuilder() : null);
+        this.delimiterMatcher = (recordDelimiterPattern != null ? recordDelimiterPattern.matcher(scanBuffer) : null);
+    }
+
+    /**
+     * Get the {@link Reader} this record reader is reading from.
+     *
+     * @return The record {@link Reader}.
+     */
+    public Reader getReader() {
+        return reader;
+    }
+
+    @Override
+    public void readRecord(StringBuilder recordBuffer) throws IOException {
+        do {
+            recordBuffer.setLength(0);
+            recordNumber++;
+
+            if (recordDelimiterPattern != null) {
+                readRegexDelimitedRecord(recordBuffer);
+            } else {
+                skipLeadingLineBreaks();
+                if (recordDelimiter == null) {
+                    readLineDelimitedRecord(recordBuffer);
+                } else {
+                    readLiteralDelimitedRecord(recordBuffer);
+                }
+            }
+        } while (!completeRecord(recordBuffer));
+    }
+
+    @Override
+    public int skipRecords(int count) throws IOException {
+        if (recordDelimiterPattern != null) {
+            // The regex delimiter match marks the start of the next record, so the records need to be read...
+            return super.skipRecords(count);
+        }
+
+        for (int i = 0; i < count; i++) {
+            recordNumber++;
+            skipLeadingLineBreaks();
+            if (position == limit || !skipRecord()) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Move past the record starting at the current position, without copying it.
+     *
+     * @return False if the record is empty, otherwise true.
+     * @throws IOException Error reading from the underlying reader.
+     */
+    private boolean skipRecord() throws IOException {
+        if (recordDelimiter == null) {
+            do {
+                for (int i = position; i < limit; i++) {
+                    char c = window[i];
+                    if (c == '\n' || c == '\r') {
+                        position = i + 1;
+                        return true;
+                    }
+                }
+                position = limit;
+            } while (fill());
+            return true;
+        } else if (delimiterLocator == null) {
+            // An empty delimiter... every character is a record...
+            position++;
+            return true;
+        }
+
+        int delimiterLength = delimiterLocator.length();
+        boolean empty = !keepDelimiter;
+        while (true) {
+            int delimiterIndex = delimiterLocator.indexIn(window, position, limit);
+            if (delimiterIndex != -1) {
+                empty = empty && delimiterIndex == position;
+                position = delimiterIndex + delimiterLength;
+                return !empty;
+            }
+
+            // Hold back the chars that could be the start of a delimiter straddling the window end...
+            int safeEnd = Math.max(position, limit - delimiterLength + 1);
+            empty = empty && safeEnd == position;
+            position = safeEnd;
+            if (!fill()) {
+                position = limit;
+                return true;
+            }
+        }
+    }
+
+    private void skipLeadingLineBreaks() throws IOException {
+        while (position < limit || fill()) {
+            char c = window[position];
+            if (c != '\n' && c != '\r') {
+                return;
+            }
+            // A leading CR or LF... ignore...
+            position++;
+        }
+    }
+
+    private void readLineDelimitedRecord(StringBuilder recordBuffer) throws IOException {
+        while (position < limit || fill()) {
+            int start = position;
+            int i = position;
+
+            while (i < limit) {
+                char c = window[i];
+                if (c == '\n' || c == '\r') {
+                    break;
+                }
+                i++;
+            }
+
+            if (i < limit) {
+                recordBuffer.append(window, start, (keepDelimiter ? i + 1 : i) - start);
+                position = i + 1;
+                return;
+            }
+
+            recordBuffer.append(window, start, limit - start);
+            position = limit;
+            if (isRecordOverLength(recordBuffer)) {
+                flushRecordText(recordBuffer, recordBuffer.length());
+            }
+        }
+    }
+
+    private void readLiteralDelimitedRecord(StringBuilder recordBuffer) throws IOException {
+        if (delimiterLocator == null) {
+            // An empty delimiter... every character is a record...
+            if (position < limit || fill()) {
+                recordBuffer.append(window[position++]);
+            }
+            return;
+        }
+
+        int delimiterLength = delimiterLocator.length();
+        while (position < limit || fill()) {
+            int start = position;
+            int delimiterIndex = delimiterLocator.indexIn(window, start, limit);
+
+            if (delimiterIndex != -1) {
+                recordBuffer.append(window, start, (keepDelimiter ? delimiterIndex + delimiterLength : delimiterIndex) - start);
+                position = delimiterIndex + delimiterLength;
+                return;
+            }
+
+            // Hold back the chars that could be the start of a delimiter straddling the window end...
+            int safeEnd = Math.max(start, limit - delimiterLength + 1);
+            recordBuffer.append(window, start, safeEnd - start);
+            position = safeEnd;
+            if (isRecordOverLength(recordBuffer)) {
+                flushRecordText(recordBuffer, recordBuffer.length());
+            }
+            if (!fill()) {
+                // End of stream... the rest of the window is the tail of the last record...
+                recordBuffer.append(window, position, limit - position);
+                position = limit;
+                return;
+            }
+        }
+    }
+
+    private void readRegexDelimitedRecord(StringBuilder recordBuffer) throws IOException {
+        if (scanStart > 0 && scanStart >= scanBuffer.length() - scanStart) {
+            // Compact once the consumed text is at least as long as the unread tail, so that each char
+            // is moved a bounded number of times...
+            scanBuffer.delete(0, scanStart);
+            scanFindIndex -= scanStart;
+            scanStart = 0;
+        }
+
+        // The first record is terminated by the second instance of the pattern (the first marks the start of
+        // the first record).  For records following the first record, we already have the start in the scan
+        // buffer so we just need to find the first instance of the pattern, which marks the start of the next record.
+        boolean skipFirstMatch = (recordNumber == 1 && scanFindIndex == scanStart);
+        int findIndex = scanFindIndex;
+        int rescanLength = 0;
+        boolean moreInput = true;
+        // Scan what's already held over from the last record before reading more...
+        boolean needInput = (scanStart == scanBuffer.length());
+
+        while (true) {
+            if (needInput) {
+                if (position < limit || fill()) {
+                    if (scanStart == scanBuffer.length()) {
+                        skipLeadingLineBreaks();
+                    }
+                    scanBuffer.append(window, position, limit - position);
+                    position = limit;
+                } else {
+                    moreInput = false;
+                }
+
+                if (isRecordOverLength(findIndex - scanStart)) {
+                    // No match can start before the find index, so the record is at least that long and the
+                    // text before it can be moved out.  The record must start the buffer for that...
+                    scanBuffer.delete(0, scanStart);
+                    findIndex -= scanStart;
+                    rescanLength -= scanStart;
+                    scanStart = 0;
+
+                    int removed = flushRecordText(scanBuffer, findIndex);
+                    findIndex -= removed;
+                    rescanLength -= removed;
+                }
+                if (moreInput && scanBuffer.length() < rescanLength) {
+                    // Wait for enough input to make another scan of the unresolved tail worthwhile...
+                    continue;
+                }
+            }
+
+            needInput = true;
+            if (delimiterMatcher.find(findIndex)) {
+                if (moreInput && (delimiterMatcher.hitEnd() || delimiterMatcher.requireEnd())) {
+                    // More input could change the match...
+                    findIndex = boundFindIndex(findIndex);
+                    rescanLength = scanBuffer.length() + (scanBuffer.length() - findIndex);
+                } else if (skipFirstMatch) {
+                    skipFirstMatch = false;
+                    findIndex = delimiterMatcher.end();
+                    needInput = false;
+                } else {
+                    // The match starts the next record, which is left in place in the scan buffer...
+                    int endRecordIndex = delimiterMatcher.start();
+                    recordBuffer.append(scanBuffer, scanStart, endRecordIndex);
+                    scanStart = endRecordIndex;
+                    scanFindIndex = delimiterMatcher.end();
+                    return;
+                }
+            } else if (!moreInput) {
+                // End of stream... the rest of the scan buffer is the last record...
+                recordBuffer.append(scanBuffer, scanStart, scanBuffer.length());
+                scanStart = scanBuffer.length();
+                scanFindIndex = scanStart;
+                return;
+            } else if (delimiterMatcher.hitEnd()) {
+                // A match may yet start in the tail of the buffer.  Rescan the unresolved tail only once it
+                // has doubled in length, so that each character is examined a bounded number of times...
+                findIndex = boundFindIndex(findIndex);
+                rescanLength = scanBuffer.length() + (scanBuffer.length() - findIndex);
+            } else {
+                // No match can start before the end of the buffer...
+                findIndex = scanBuffer.length();
+                rescanLength = 0;
+            }
+        }
+    }
+
+    /**
+     * Bound the unresolved tail of the scan buffer for an oversize record.
+     * <p/>
+     * A delimiter match may still start anywhere in the tail following the find index.  Once the record
+     * exceeds the maximum record length, the tail is cut to the last {@link #MAX_DELIMITER_LOOKBACK} chars,
+     * so that the record text before them is moved out of the scan buffer with the next input.
+     *
+     * @param findIndex The scan buffer index from which a delimiter match may start.
+     * @return The bounded find index.
+     */
+    private int boundFindIndex(int findIndex) {
+        if (isRecordOverLength(scanBuffer.length() - scanStart)) {
+            return Math.max(findIndex, scanBuffer.length() - MAX_DELIMITER_LOOKBACK);
+        }
+        return findIndex;
+    }
+
+    /**
+     * Get the length of the text held in the scan buffer.
+     *
+     * @return The scan buffer length, or 0 if records are not regex delimited.
+     */
+    int getScanBufferLength() {
+        return (scanBuffer != null ? scanBuffer.length() : 0);
+    }
+
+    /**
+     * Fill the window from the underlying reader, keeping any unconsumed characters.
+     *
+     * @return True if more characters were read into the window, false if the end of the stream has been reached.
+     * @throws IOException Error reading from the underlying reader.
+     */
+    private boolean fill() throws IOException {
+        if (endOfStream) {
+            return false;
+        }
+
+        if (position > 0) {
+            System.arraycopy(window, position, window, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+
+        int count;
+        do {
+            count = reader.read(window, limit, window.length - limit);
+        } while (count == 0);
+
+        if (count == -1) {
+            endOfStream = true;
+            return false;
+        }
+        limit += count;
+
+        return true;
+    }
+}
@@ -0,0 +1,189 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.smooks.cartridges.flatfile.FieldMetaData;
+import org.smooks.cartridges.flatfile.RecordMetaData;
+import org.smooks.cartridges.flatfile.function.StringFunctionExecutor;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Record field projection plan.
+ * <p/>
+ * The {@link RecordMetaData} fields, compiled once into flat arrays: the index of the field value bound to each
+ * field that isn't ignored, along with the field's {@link FieldMetaData}, name and string function.  Binding a
+ * record's field values is then a walk of the arrays, with the <code>$ignore$</code> skipping and wildcard
+ * checks done up front.  A wildcard record binds every field value, to a generated <code>field_&lt;index&gt;</code>
+ * name.
+ * <p/>
+ * Not thread safe... the wildcard field names are generated on demand.
+ */
+public class FieldProjection {
+
+    private final boolean wildCard;
+    private final int[] sourceIndices;
+    private final FieldMetaData[] fieldsMetaData;
+    private final String[] fieldNames;
+    private final StringFunctionExecutor[] stringFunctions;
+    private String[] wildCardFieldNames = new String[0];
+
+    private FieldProjection(boolean wildCard, int[] sourceIndices, FieldMetaData[] fieldsMetaData) {
+        this.wildCard = wildCard;
+        this.sourceIndices = sourceIndices;
+        this.fieldsMetaData = fieldsMetaData;
+        this.fieldNames = new String[fieldsMetaData.length];
+        this.stringFunctions = new StringFunctionExecutor[fieldsMetaData.length];
+        for (int i = 0; i < fieldsMetaData.length; i++) {
+            fieldNames[i] = fieldsMetaData[i].getName();
+            stringFunctions[i] = fieldsMetaData[i].getStringFunctionExecutor();
+        }
+    }
+
+    /**
+     * Compile the projection plan for the record.
+     *
+     * @param recordMetaData The record metadata.
+     * @return The projection plan.
+     */
+    public static FieldProjection compile(RecordMetaData recordMetaData) {
+        if (recordMetaData.isWildCardRecord()) {
+            return new FieldProjection(true, new int[0], new FieldMetaData[0]);
+        }
+
+        List<FieldMetaData> fields = recordMetaData.getFields();
+        int[] sourceIndices = new int[fields.size()];
+        FieldMetaData[] fieldsMetaData = new FieldMetaData[fields.size()];
+        int count = 0;
+
+        for (long i = 0; i < fields.size(); i++) {
+            FieldMetaData fieldMetaData = fields.get((int) i);
+            if (fieldMetaData.ignore()) {
+                // Skip the ignored field values, padded out in the fields metadata...
+                i += fieldMetaData.getIgnoreCount() - 1;
+                continue;
+            }
+            sourceIndices[count] = (int) i;
+            fieldsMetaData[count] = fieldMetaData;
+            count++;
+        }
+
+        return new FieldProjection(false, Arrays.copyOf(sourceIndices, count), Arrays.copyOf(fieldsMetaData, count));
+    }
+
+    /**
+     * Is this the projection of a wildcard record, binding every field value.
+     *
+     * @return True if this is a wildcard projection, otherwise false.
+     */
+    public boolean isWildCard() {
+        return wildCard;
+    }
+
+    /**
+     * Get the number of bound fields.  Not applicable to a wildcard projection.
+     *
+     * @return The number of bound fields.
+     */
+    public int size() {
+        return sourceIndices.length;
+    }
+
+    /**
+     * Get the index of the field value bound to a field.
+     *
+     * @param field The bound field index.
+     * @return The field value index.
+     */
+    public int getSourceIndex(int field) {
+        return sourceIndices[field];
+    }
+
+    /**
+     * Get the metadata of a bound field.
+     *
+     * @param field The bound field index.
+     * @return The field metadata.
+     */
+    public FieldMetaData getFieldMetaData(int field) {
+        return fieldsMetaData[field];
+    }
+
+    /**
+     * Get the name of a bound field.
+     *
+     * @param field The bound field index.
+     * @return The field name.
+     */
+    public String getFieldName(int field) {
+        return fieldNames[field];
+    }
+
+    /**
+     * Get the string function of a bound field.
+     *
+     * @param field The bound field index.
+     * @return The string function, or <code>null</code> if the field has none.
+     */
+    public StringFunctionExecutor getStringFunction(int field) {
+        return stringFunctions[field];
+    }
+
+    /**
+     * Get the generated name of a wildcard record field.
+     *
+     * @param index The field value index.
+     * @return The field name.
+     */
+    public String getWildCardFieldName(int index) {
+        if (index >= wildCardFieldNames.length) {
+            String[] names = Arrays.copyOf(wildCardFieldNames, Math.max(index + 1, wildCardFieldNames.length * 2));
+            for (int i = wildCardFieldNames.length; i < names.length; i++) {
+                names[i] = "field_" + i;
+            }
+            wildCardFieldNames = names;
+        }
+        return wildCardFieldNames[index];
+    }
+}
@@ -0,0 +1,200 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smooks.cartridges.flatfile.SpilledValue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Record reader backed by a sidecar record offset index.
+ * <p/>
+ * If a valid index exists for the data file (see {@link RecordIndex}), {@link #skipRecords(int)} seeks to the nearest
+ * indexed record before the target record instead of reading past every record.  Otherwise, the offset of every K-th
+ * record is written to a new index as the file is read, for use by later parses of the same file.  If the new index
+ * can't be written, the file is read on without it.
+ */
+public class IndexedRecordReader extends RecordReader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexedRecordReader.class);
+
+    private final MappedFileRecordReader recordReader;
+    private final Path indexFile;
+    private final int interval;
+    private final RecordIndex index;
+    private RecordIndex.Writer indexWriter;
+    private long recordCount;
+
+    /**
+     * Public constructor.
+     *
+     * @param recordReader The data file record reader.
+     * @param dataFile     The data file.
+     * @param indexFile    The index file.
+     * @param interval     The index interval (K).
+     * @throws IOException Error reading or creating the index file.
+     */
+    public IndexedRecordReader(MappedFileRecordReader recordReader, Path dataFile, Path indexFile, int interval) throws IOException {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Invalid record index interval '" + interval + "'.  Must be greater than zero.");
+        }
+        this.recordReader = recordReader;
+        this.indexFile = indexFile;
+        this.interval = interval;
+        this.index = RecordIndex.load(indexFile, dataFile, interval, recordReader);
+        if (index != null) {
+            LOGGER.debug("Using record index '{}' ({} entries) for flat file '{}'.", indexFile, index.size(), dataFile);
+            this.indexWriter = null;
+        } else {
+            LOGGER.debug("Writing record index '{}' for flat file '{}'.", indexFile, dataFile);
+            this.indexWriter = new RecordIndex.Writer(indexFile, dataFile, interval, recordReader);
+        }
+    }
+
+    @Override
+    public void readRecord(StringBuilder recordBuffer) throws IOException {
+        // Rejected records are counted, as they are by skipRecords(), so that the index entries are numbered
+        // by the records in the file...
+        boolean read;
+        do {
+            indexRecordStart();
+            read = recordReader.readNextRecord(recordBuffer);
+            if (!read || recordBuffer.length() > 0) {
+                recordCount++;
+            }
+        } while (!read);
+    }
+
+    @Override
+    public int skipRecords(int count) throws IOException {
+        long targetCount = recordCount + count;
+        int skipped = 0;
+
+        if (index != null && index.size() > 0) {
+            // Seek to the nearest indexed record at or before the target...
+            int entry = (int) Math.min(targetCount / interval, index.size() - 1);
+            long entryRecordCount = (long) entry * interval;
+            if (entryRecordCount > recordCount) {
+                recordReader.seek(index.getOffset(entry));
+                skipped = (int) (entryRecordCount - recordCount);
+                recordCount = entryRecordCount;
+            }
+        }
+
+        while (recordCount < targetCount) {
+            indexRecordStart();
+            // Stop at the next indexed record, so its offset can be written...
+            long segment = targetCount - recordCount;
+            if (indexWriter != null) {
+                segment = Math.min(segment, interval - (recordCount % interval));
+            }
+
+            int segmentSkipped = recordReader.skipRecords((int) segment);
+            recordCount += segmentSkipped;
+            skipped += segmentSkipped;
+            if (segmentSkipped < segment) {
+                break;
+            }
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public void setMaxRecordLength(int maxRecordLength, OversizeRecordPolicy policy) {
+        recordReader.setMaxRecordLength(maxRecordLength, policy);
+    }
+
+    @Override
+    public int getMaxRecordLength() {
+        return recordReader.getMaxRecordLength();
+    }
+
+    @Override
+    public SpilledValue getSpilledRecord() {
+        return recordReader.getSpilledRecord();
+    }
+
+    @Override
+    public long getRejectedRecordCount() {
+        return recordReader.getRejectedRecordCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (indexWriter != null) {
+                indexWriter.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write the record index '{}'.", indexFile, e);
+        } finally {
+            indexWriter = null;
+            recordReader.close();
+        }
+    }
+
+    private void indexRecordStart() throws IOException {
+        if (indexWriter != null) {
+            try {
+                indexWriter.recordStart(recordCount, recordReader.getFilePosition());
+            } catch (IOException e) {
+                LOGGER.warn("Unable to write the record index '{}'.  Reading the file on without an index.", indexFile, e);
+                abortIndex();
+            }
+        }
+    }
+
+    private void abortIndex() {
+        try {
+            indexWriter.abort();
+        } catch (IOException e) {
+            LOGGER.debug("Error deleting the temporary file of record index '{}'.", indexFile, e);
+        } finally {
+            indexWriter = null;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.smooks.cartridges.flatfile.CharSpan;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * Record field values held as spans of the record text.
+ * <p/>
+ * A field value {@link String} is only built when the value is first got, so the values of ignored fields,
+ * and of fields that are never read, cost nothing beyond their span.  {@link VariableFieldRecordParser}
+ * passes the values on to the record {@link org.smooks.cartridges.flatfile.Field}s as
+ * {@link #getValueChars(int) views} of the record text, leaving it to the field to build the value.
+ * <p/>
+ * The record text can be a copy of the record, or the parser's shared record buffer.  Field values backed by
+ * the shared buffer are only valid until the parser reads the next record.
+ */
+public class LazyFieldValues extends AbstractList<String> {
+
+    private CharSequence record;
+    private int[] spans;
+    private String[] values;
+    private CharSpan[] views;
+    private int size;
+
+    /**
+     * Public constructor.
+     *
+     * @param record   The record text.  The field value spans are views of it, so it must not change for as
+     *                 long as the field values are in use.
+     * @param capacity The expected number of field values.
+     */
+    public LazyFieldValues(CharSequence record, int capacity) {
+        this.record = record;
+        this.spans = new int[Math.max(1, capacity) * 2];
+        this.values = new String[Math.max(1, capacity)];
+        this.views = new CharSpan[Math.max(1, capacity)];
+    }
+
+    /**
+     * Clear the field values, for reuse over the next record.
+     *
+     * @param record The record text.
+     */
+    public void reset(CharSequence record) {
+        Arrays.fill(values, 0, size, null);
+        this.record = record;
+        this.size = 0;
+    }
+
+    /**
+     * Add a field value, as a span of the record text.
+     *
+     * @param start The start index of the field value in the record text.
+     * @param end   The end index (exclusive) of the field value in the record text.
+     */
+    public void addSpan(int start, int end) {
+        ensureCapacity();
+        spans[size * 2] = start;
+        spans[size * 2 + 1] = end;
+        size++;
+    }
+
+    /**
+     * Add a field value that isn't part of the record text, e.g. a record type name.
+     *
+     * @param value The field value.
+     */
+    public void addValue(String value) {
+        ensureCapacity();
+        values[size] = value;
+        size++;
+    }
+
+    @Override
+    public String get(int index) {
+        checkIndex(index);
+        String value = values[index];
+        if (value == null) {
+            value = record.subSequence(spans[index * 2], spans[index * 2 + 1]).toString();
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Get a field value, without building the value string.
+     *
+     * @param index The field value index.
+     * @return A view of the field value in the record text, or the value itself if it's already been built.
+     */
+    public CharSequence getValueChars(int index) {
+        checkIndex(index);
+        if (values[index] != null) {
+            return values[index];
+        }
+        // The views are reused, as the field value spans are...
+        CharSpan view = views[index];
+        if (view == null) {
+            view = new CharSpan(record, spans[index * 2], spans[index * 2 + 1]);
+            views[index] = view;
+            return view;
+        }
+        return view.reset(record, spans[index * 2], spans[index * 2 + 1]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity() {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            views = Arrays.copyOf(views, size * 2);
+            spans = Arrays.copyOf(spans, size * 4);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Literal record delimiter locator.
+ * <p/>
+ * Locates a literal (non <code>regex:</code>) record delimiter in a block of characters, or in a block of
+ * bytes for an encoded delimiter, using the Boyer-Moore-Horspool algorithm.  The bad character shift
+ * table is precomputed once per delimiter, so a scan of a block skips ahead by up to the delimiter length
+ * on each mismatch.
+ */
+final class LiteralDelimiterLocator {
+
+    private static final int SHIFT_TABLE_SIZE = 256;
+
+    private final int[] delimiter;
+    private final int[] shiftTable = new int[SHIFT_TABLE_SIZE];
+
+    LiteralDelimiterLocator(String delimiter) {
+        this(delimiter.chars().toArray());
+    }
+
+    LiteralDelimiterLocator(byte[] encodedDelimiter) {
+        this(toUnsigned(encodedDelimiter));
+    }
+
+    private LiteralDelimiterLocator(int[] delimiter) {
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("Invalid empty record delimiter.");
+        }
+        this.delimiter = delimiter;
+
+        int last = delimiter.length - 1;
+        for (int i = 0; i < SHIFT_TABLE_SIZE; i++) {
+            shiftTable[i] = delimiter.length;
+        }
+        // Chars are folded into the table on their low byte.  Colliding chars simply share the smallest shift...
+        for (int i = 0; i < last; i++) {
+            int slot = delimiter[i] & (SHIFT_TABLE_SIZE - 1);
+            shiftTable[slot] = Math.min(shiftTable[slot], last - i);
+        }
+    }
+
+    /**
+     * Get the delimiter length.
+     *
+     * @return The delimiter length.
+     */
+    int length() {
+        return delimiter.length;
+    }
+
+    /**
+     * Find the first occurrence of the delimiter that lies fully within the specified block.
+     *
+     * @param chars The characters to search.
+     * @param from  The index of the first character to search (inclusive).
+     * @param to    The index of the last character to search (exclusive).
+     * @return The index of the start of the delimiter, or -1 if the delimiter does not occur in the block.
+     */
+    int indexIn(char[] chars, int from, int to) {
+        int last = delimiter.length - 1;
+        int lastChar = delimiter[last];
+
+        if (last == 0) {
+            for (int i = from; i < to; i++) {
+                if (chars[i] == lastChar) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int i = from + last;
+        while (i < to) {
+            char c = chars[i];
+            if (c == lastChar && matchesAt(chars, i - last)) {
+                return i - last;
+            }
+            i += shiftTable[c & (SHIFT_TABLE_SIZE - 1)];
+        }
+
+        return -1;
+    }
+
+    /**
+     * Find the first occurrence of the encoded delimiter that lies fully within the specified block.
+     *
+     * @param bytes The bytes to search.
+     * @param from  The index of the first byte to search (inclusive).
+     * @param to    The index of the last byte to search (exclusive).
+     * @return The index of the start of the delimiter, or -1 if the delimiter does not occur in the block.
+     */
+    int indexIn(ByteBuffer bytes, int from, int to) {
+        int last = delimiter.length - 1;
+        int lastByte = delimiter[last];
+
+        if (last == 0) {
+            for (int i = from; i < to; i++) {
+                if ((bytes.get(i) & 0xFF) == lastByte) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int i = from + last;
+        while (i < to) {
+            int b = bytes.get(i) & 0xFF;
+            if (b == lastByte && matchesAt(bytes, i - last)) {
+                return i - last;
+            }
+            i += shiftTable[b];
+        }
+
+        return -1;
+    }
+
+    private boolean matchesAt(char[] chars, int index) {
+        for (int i = delimiter.length - 2; i >= 0; i--) {
+            if (chars[index + i] != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matchesAt(ByteBuffer bytes, int index) {
+        for (int i = delimiter.length - 2; i >= 0; i--) {
+            if ((bytes.get(index + i) & 0xFF) != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] toUnsigned(byte[] bytes) {
+        int[] unsigned = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            unsigned[i] = bytes[i] & 0xFF;
+        }
+        return unsigned;
+    }
+}
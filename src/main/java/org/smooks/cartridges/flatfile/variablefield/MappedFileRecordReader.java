@@ -0,0 +1,152 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Memory mapped file record reader.
+ * <p/>
+ * Maps the file into memory in sliding windows using {@link FileChannel#map(FileChannel.MapMode, long, long)}
+ * and locates records directly in the mapped region, decoding only completed records.  The window is
+ * remapped from the start of the current record as parsing advances, so heap usage does not depend on the
+ * size of the file.
+ */
+public class MappedFileRecordReader extends ByteRecordReader {
+
+    public static final int DEFAULT_MAPPED_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final boolean closeChannel;
+    private final long fileSize;
+    private final int windowSize;
+    private long windowOffset;
+
+    /**
+     * Public constructor.
+     * <p/>
+     * Records are read from the current position of the channel.
+     *
+     * @param channel         The file channel.
+     * @param closeChannel    Close the channel when this record reader is closed.
+     * @param charset         The file charset.
+     * @param recordDelimiter The literal record delimiter, or <code>null</code> if records are
+     *                        delimited by a CR or LF.
+     * @param keepDelimiter   Keep the record delimiter as part of the record text.
+     * @param windowSize      The size of the mapped window, in bytes.
+     * @throws IOException Error reading the channel position or size.
+     */
+    public MappedFileRecordReader(FileChannel channel, boolean closeChannel, Charset charset, String recordDelimiter, boolean keepDelimiter, int windowSize) throws IOException {
+        this(channel, closeChannel, channel.position(), charset, recordDelimiter, keepDelimiter, windowSize);
+    }
+
+    MappedFileRecordReader(FileChannel channel, boolean closeChannel, long offset, Charset charset, String recordDelimiter, boolean keepDelimiter, int windowSize) throws IOException {
+        super(charset, recordDelimiter, keepDelimiter);
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Invalid mapped window size '" + windowSize + "'.  Must be greater than zero.");
+        }
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        this.fileSize = channel.size();
+        this.windowSize = windowSize;
+        this.windowOffset = offset;
+    }
+
+    /**
+     * Get the file offset of the next unread byte.
+     *
+     * @return The file offset of the next unread byte.
+     */
+    long getFilePosition() {
+        return windowOffset + position;
+    }
+
+    /**
+     * Move to the specified file offset, discarding the current window.
+     *
+     * @param offset The file offset of the next record.
+     */
+    void seek(long offset) {
+        windowOffset = offset;
+        position = 0;
+        limit = 0;
+    }
+
+    @Override
+    protected boolean fill() throws IOException {
+        long retainedOffset = windowOffset + position;
+        int retainedLength = limit - position;
+        long remaining = fileSize - retainedOffset;
+
+        if (remaining <= retainedLength) {
+            return false;
+        }
+
+        // Grow the window if the current record doesn't fit...
+        long mapSize = Math.min(remaining, Math.max(windowSize, (long) retainedLength * 2));
+        mapSize = Math.min(mapSize, Integer.MAX_VALUE);
+        if (mapSize <= retainedLength) {
+            throw new IOException("Record at file offset " + retainedOffset + " exceeds the maximum mapped window size.");
+        }
+
+        window = channel.map(FileChannel.MapMode.READ_ONLY, retainedOffset, mapSize);
+        windowOffset = retainedOffset;
+        position = 0;
+        limit = (int) mapSize;
+
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (closeChannel) {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Parallel byte range record reader.
+ * <p/>
+ * Splits a local file into fixed size byte ranges (chunks) and reads the records of each chunk on a
+ * worker pool, applying a record processor (e.g. field tokenization) to each record on the worker thread.
+ * A chunk owns the records that start in it, so each worker first resynchronises to the first record
+ * boundary in its chunk and then reads on past the end of the chunk to complete its last record.
+ * Processed records are handed back through {@link #next()} in original file order.
+ * <p/>
+ * Resynchronising on an arbitrary byte offset requires every occurrence of the record delimiter to be a
+ * record boundary.  See {@link #isSupported(Charset, String)}.
+ *
+ * @param <T> The processed record type.
+ */
+public class ParallelRecordReader<T> implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final FileChannel channel;
+    private final boolean closeChannel;
+    private final long startOffset;
+    private final long fileSize;
+    private final Charset charset;
+    private final String recordDelimiter;
+    private final int encodedDelimiterLength;
+    private final boolean keepDelimiter;
+    private final int chunkSize;
+    private final Supplier<Function<CharSequence, T>> recordProcessorFactory;
+    private final ExecutorService executor;
+    private final int maxPendingChunks;
+    private final Deque<Future<Chunk<T>>> pendingChunks = new ArrayDeque<>();
+
+    private long nextChunkOffset;
+    private Iterator<T> currentChunk = Collections.emptyIterator();
+    private boolean endOfRecords;
+
+    /**
+     * Public constructor.
+     * <p/>
+     * Records are read from the current position of the channel.
+     *
+     * @param channel                The file channel.
+     * @param closeChannel           Close the channel when this record reader is closed.
+     * @param charset                The file charset.
+     * @param recordDelimiter        The literal record delimiter, or <code>null</code> if records are
+     *                               delimited by a CR or LF.
+     * @param keepDelimiter          Keep the record delimiter as part of the record text.
+     * @param parallelism            The number of worker threads.
+     * @param chunkSize              The chunk size, in bytes.
+     * @param recordProcessorFactory Record processor factory.  A record processor is created for each chunk and
+     *                               is only ever called from one worker thread.  The record buffer passed to the
+     *                               processor is reused for the next record.
+     * @throws IOException Error reading the channel position or size.
+     */
+    public ParallelRecordReader(FileChannel channel, boolean closeChannel, Charset charset, String recordDelimiter, boolean keepDelimiter,
+                                int parallelism, int chunkSize, Supplier<Function<CharSequence, T>> recordProcessorFactory) throws IOException {
+        if (!isSupported(charset, recordDelimiter)) {
+            throw new IllegalArgumentException("Unsupported parallel record delimiter for charset '" + charset.name() + "'.");
+        }
+        if (parallelism < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid parallelism '" + parallelism + "' or chunk size '" + chunkSize + "'.  Must be greater than zero.");
+        }
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        this.startOffset = channel.position();
+        this.fileSize = channel.size();
+        this.charset = charset;
+        this.recordDelimiter = recordDelimiter;
+        this.encodedDelimiterLength = (recordDelimiter != null ? recordDelimiter.getBytes(charset).length : 1);
+        this.keepDelimiter = keepDelimiter;
+        this.chunkSize = chunkSize;
+        this.recordProcessorFactory = recordProcessorFactory;
+        this.maxPendingChunks = parallelism * 2;
+        this.nextChunkOffset = startOffset;
+
+        String threadNamePrefix = "flatfile-parser-" + POOL_COUNT.incrementAndGet() + "-";
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Can records delimited by the specified record delimiter be read in parallel byte ranges.
+     * <p/>
+     * The delimiter must be supported in the byte domain (see {@link ByteRecordReader#isSupported(Charset, String)}).
+     * A literal delimiter must not contain a CR or LF (these are skipped at the start of a record) and must not be
+     * able to overlap itself, so that every occurrence of the delimiter is a record boundary.
+     *
+     * @param charset         The file charset.
+     * @param recordDelimiter The literal record delimiter, or <code>null</code> if records are
+     *                        delimited by a CR or LF.
+     * @return True if records can be read in parallel byte ranges, otherwise false.
+     */
+    public static boolean isSupported(Charset charset, String recordDelimiter) {
+        if (!ByteRecordReader.isSupported(charset, recordDelimiter)) {
+            return false;
+        }
+        if (recordDelimiter == null) {
+            return true;
+        }
+        if (recordDelimiter.indexOf('\r') != -1 || recordDelimiter.indexOf('\n') != -1) {
+            return false;
+        }
+        for (int i = 1; i < recordDelimiter.length(); i++) {
+            if (recordDelimiter.startsWith(recordDelimiter.substring(i))) {
+                // A suffix of the delimiter is also a prefix...
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the next processed record, in file order.
+     *
+     * @return The next processed record, or <code>null</code> if there are no more records.
+     * @throws IOException Error reading the file.
+     */
+    public T next() throws IOException {
+        while (!currentChunk.hasNext()) {
+            if (endOfRecords) {
+                return null;
+            }
+
+            submitChunks();
+            Future<Chunk<T>> pendingChunk = pendingChunks.poll();
+            if (pendingChunk == null) {
+                endOfRecords = true;
+                return null;
+            }
+
+            Chunk<T> chunk = getChunk(pendingChunk);
+            currentChunk = chunk.records.iterator();
+            endOfRecords = chunk.endOfRecords;
+        }
+
+        return currentChunk.next();
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        pendingChunks.clear();
+        if (closeChannel) {
+            channel.close();
+        }
+    }
+
+    private void submitChunks() {
+        while (pendingChunks.size() < maxPendingChunks && nextChunkOffset < fileSize) {
+            long chunkOffset = nextChunkOffset;
+            pendingChunks.add(executor.submit(() -> readChunk(chunkOffset)));
+            nextChunkOffset += chunkSize;
+        }
+    }
+
+    private Chunk<T> getChunk(Future<Chunk<T>> pendingChunk) throws IOException {
+        try {
+            return pendingChunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on a flat file chunk.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Error reading flat file chunk.", cause);
+        }
+    }
+
+    private Chunk<T> readChunk(long chunkOffset) throws IOException {
+        long chunkEnd = Math.min(chunkOffset + chunkSize, fileSize);
+        long readOffset = (chunkOffset == startOffset ? chunkOffset : Math.max(startOffset, chunkOffset - encodedDelimiterLength));
+        List<T> records = new ArrayList<>();
+
+        try (MappedFileRecordReader recordReader = new MappedFileRecordReader(channel, false, readOffset, charset, recordDelimiter, keepDelimiter, chunkSize)) {
+            // Resync to the first record starting in this chunk i.e. the record following the first
+            // delimiter that ends in this chunk...
+            if (chunkOffset != startOffset && !recordReader.skipPastDelimiter()) {
+                return new Chunk<>(records, false);
+            }
+
+            Function<CharSequence, T> recordProcessor = recordProcessorFactory.get();
+            StringBuilder recordBuffer = new StringBuilder();
+            while (true) {
+                if (recordReader.isLineDelimited()) {
+                    // A run of CRs and LFs is a single record boundary...
+                    recordReader.skipLeadingLineBreaks();
+                }
+                if (recordReader.getFilePosition() >= chunkEnd) {
+                    // The next record belongs to the next chunk...
+                    return new Chunk<>(records, false);
+                }
+
+                recordReader.readRecord(recordBuffer);
+                if (recordBuffer.length() == 0) {
+                    return new Chunk<>(records, true);
+                }
+                records.add(recordProcessor.apply(recordBuffer));
+            }
+        }
+    }
+
+    private static class Chunk<T> {
+
+        private final List<T> records;
+        private final boolean endOfRecords;
+
+        private Chunk(List<T> records, boolean endOfRecords) {
+            this.records = records;
+            this.endOfRecords = endOfRecords;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Sidecar record offset index.
+ * <p/>
+ * Holds the file offset of every K-th record of a flat file (records 1, K + 1, 2K + 1...), so that parsing can
+ * resume near any record without reading the file from the start.  An index is only valid for the data file size
+ * and last modified time, and the record delimiter settings and charset it was written against.  An index written
+ * by an incomplete parse is valid up to the last record it covers.
+ * <p/>
+ * Index file layout: magic, format version, data file size, data file last modified time (millis), K, record
+ * delimiter (a presence flag followed by the delimiter, if any), keep delimiter flag, charset name, followed by
+ * one offset (<code>long</code>) per indexed record.
+ */
+final class RecordIndex {
+
+    private static final int MAGIC = 0x46464958;
+    private static final int VERSION = 2;
+
+    private final long[] offsets;
+
+    private RecordIndex(long[] offsets) {
+        this.offsets = offsets;
+    }
+
+    /**
+     * Load the index for the specified data file.
+     *
+     * @param indexFile    The index file.
+     * @param dataFile     The indexed data file.
+     * @param interval     The index interval (K).
+     * @param recordReader The data file record reader.
+     * @return The index, or <code>null</code> if there's no index file, or the index is not valid for the data file
+     * and record reader.
+     * @throws IOException Error reading the index file.
+     */
+    static RecordIndex load(Path indexFile, Path dataFile, int interval, ByteRecordReader recordReader) throws IOException {
+        if (!Files.isRegularFile(indexFile)) {
+            return null;
+        }
+
+        try (DataInputStream indexStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (indexStream.readInt() != MAGIC || indexStream.readInt() != VERSION
+                    || indexStream.readLong() != Files.size(dataFile)
+                    || indexStream.readLong() != Files.getLastModifiedTime(dataFile).toMillis()
+                    || indexStream.readInt() != interval
+                    || !Objects.equals(indexStream.readBoolean() ? indexStream.readUTF() : null, recordReader.getRecordDelimiter())
+                    || indexStream.readBoolean() != recordReader.isKeepDelimiter()
+                    || !indexStream.readUTF().equals(recordReader.getCharset().name())) {
+                return null;
+            }
+
+            long[] offsets = new long[64];
+            int size = 0;
+            while (true) {
+                long offset;
+                try {
+                    offset = indexStream.readLong();
+                } catch (EOFException e) {
+                    // End of the index... a trailing partial offset is ignored...
+                    break;
+                }
+                if (size == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, size * 2);
+                }
+                offsets[size++] = offset;
+            }
+            return new RecordIndex(Arrays.copyOf(offsets, size));
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the number of indexed records.
+     *
+     * @return The number of indexed records.
+     */
+    int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Get the file offset of the specified index entry i.e. of record <code>entry * K + 1</code>.
+     *
+     * @param entry The index entry.
+     * @return The file offset.
+     */
+    long getOffset(int entry) {
+        return offsets[entry];
+    }
+
+    /**
+     * Record index writer.
+     */
+    static final class Writer implements Closeable {
+
+        private final Path indexFile;
+        private final Path tempFile;
+        private final DataOutputStream indexStream;
+        private final int interval;
+        private long entryCount;
+
+        /**
+         * Create an index writer, replacing any existing index file on {@link #close()}.
+         * <p/>
+         * The index is written to a temporary file alongside the index file, and moved into place once complete,
+         * so that a concurrent parse of the same data file never loads a partly written index.
+         *
+         * @param indexFile    The index file.
+         * @param dataFile     The indexed data file.
+         * @param interval     The index interval (K).
+         * @param recordReader The data file record reader.
+         * @throws IOException Error creating the index file.
+         */
+        Writer(Path indexFile, Path dataFile, int interval, ByteRecordReader recordReader) throws IOException {
+            Path indexDir = indexFile.toAbsolutePath().getParent();
+            this.indexFile = indexFile;
+            this.tempFile = Files.createTempFile(indexDir, indexFile.getFileName().toString(), ".tmp");
+            this.interval = interval;
+            try {
+                this.indexStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)));
+                indexStream.writeInt(MAGIC);
+                indexStream.writeInt(VERSION);
+                indexStream.writeLong(Files.size(dataFile));
+                indexStream.writeLong(Files.getLastModifiedTime(dataFile).toMillis());
+                indexStream.writeInt(interval);
+                indexStream.writeBoolean(recordReader.getRecordDelimiter() != null);
+                if (recordReader.getRecordDelimiter() != null) {
+                    indexStream.writeUTF(recordReader.getRecordDelimiter());
+                }
+                indexStream.writeBoolean(recordReader.isKeepDelimiter());
+                indexStream.writeUTF(recordReader.getCharset().name());
+            } catch (IOException e) {
+                Files.deleteIfExists(tempFile);
+                throw e;
+            }
+        }
+
+        /**
+         * Notify the writer of the start of a record.
+         * <p/>
+         * The offset is indexed if the record is the next record to be indexed.
+         *
+         * @param recordCount The number of records preceding the record.
+         * @param offset      The file offset of the record.
+         * @throws IOException Error writing the index file.
+         */
+        void recordStart(long recordCount, long offset) throws IOException {
+            if (recordCount == entryCount * interval) {
+                indexStream.writeLong(offset);
+                entryCount++;
+            }
+        }
+
+        /**
+         * Abandon the index, deleting the temporary index file.  The index file is left as it was.
+         *
+         * @throws IOException Error deleting the temporary index file.
+         */
+        void abort() throws IOException {
+            try {
+                indexStream.close();
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        /**
+         * Complete the index, moving it into place of the index file.
+         *
+         * @throws IOException Error completing the index file.  The temporary index file is deleted.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                indexStream.close();
+                try {
+                    Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smooks.cartridges.flatfile.SpilledValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Delimited record reader.
+ * <p/>
+ * A record reader is stateful (data read past the end of a record is held over for the next record)
+ * and is bound to the data source it was created for.
+ * <p/>
+ * Record length can be bounded (see {@link #setMaxRecordLength(int, OversizeRecordPolicy)}), in which case
+ * implementations move the text of an oversize record out of the record buffer as it is read (see
+ * {@link #isRecordOverLength(StringBuilder)} and {@link #flushRecordText(StringBuilder, int)}), and hand each
+ * record to {@link #completeRecord(StringBuilder)} before returning it.
+ *
+ * @see VariableFieldRecordParserFactory#newRecordReader(org.xml.sax.InputSource)
+ */
+public abstract class RecordReader implements Closeable {
+
+    public static final int DEFAULT_WINDOW_SIZE = 8192;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordReader.class);
+
+    private int maxRecordLength;
+    private OversizeRecordPolicy oversizeRecordPolicy = OversizeRecordPolicy.REJECT;
+    private boolean oversize;
+    private int keptLength;
+    private long oversizeLength;
+    private Path spillFile;
+    private Writer spillWriter;
+    private SpilledValue spilledRecord;
+    private long rejectedRecordCount;
+
+    /**
+     * Read the next record (up to the next record delimiter).
+     * <p/>
+     * The record buffer is left empty once the end of the stream has been reached.
+     *
+     * @param recordBuffer The record buffer into which the record is read.
+     * @throws IOException Error reading record.
+     */
+    public abstract void readRecord(StringBuilder recordBuffer) throws IOException;
+
+    /**
+     * Skip past the next records, without handing back the record text.
+     * <p/>
+     * Skipping stops at the end of the stream, which (as with {@link #readRecord(StringBuilder)}) is
+     * signalled by an empty record.  This default implementation reads and discards the records.
+     *
+     * @param count The number of records to skip.
+     * @return The number of records skipped.  Less than <code>count</code> if the end of the stream was reached.
+     * @throws IOException Error reading records.
+     */
+    public int skipRecords(int count) throws IOException {
+        StringBuilder recordBuffer = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            readRecord(recordBuffer);
+            if (getSpilledRecord() != null) {
+                getSpilledRecord().delete();
+            }
+            if (recordBuffer.length() == 0) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Bound the length of the records read by this reader.
+     *
+     * @param maxRecordLength The maximum record length, in chars.  Records are not bounded if less than 1.
+     * @param policy          The policy applied to records exceeding the maximum record length.
+     */
+    public void setMaxRecordLength(int maxRecordLength, OversizeRecordPolicy policy) {
+        this.maxRecordLength = maxRecordLength;
+        this.oversizeRecordPolicy = policy;
+    }
+
+    /**
+     * Get the maximum record length.
+     *
+     * @return The maximum record length, in chars, or a value less than 1 if records are not bounded.
+     */
+    public int getMaxRecordLength() {
+        return maxRecordLength;
+    }
+
+    /**
+     * Get the record spilled to disk by the last {@link #readRecord(StringBuilder)} call.
+     * <p/>
+     * The record buffer holds the first <code>maxRecordLength</code> chars of a spilled record.
+     * The caller owns the spill file, and should delete it once it's done with the record.
+     *
+     * @return The spilled record, or <code>null</code> if the last record was not spilled.
+     */
+    public SpilledValue getSpilledRecord() {
+        return spilledRecord;
+    }
+
+    /**
+     * Get the number of oversize records rejected by this reader.
+     *
+     * @return The number of rejected records.
+     */
+    public long getRejectedRecordCount() {
+        return rejectedRecordCount;
+    }
+
+    /**
+     * Does the record text held in the record buffer exceed the maximum record length.
+     *
+     * @param recordBuffer The record buffer.
+     * @return True if the record text held exceeds the maximum record length, otherwise false.
+     */
+    protected final boolean isRecordOverLength(StringBuilder recordBuffer) {
+        return isRecordOverLength(recordBuffer.length());
+    }
+
+    /**
+     * Does record text held up to the specified buffer index exceed the maximum record length.
+     *
+     * @param end The buffer index.
+     * @return True if the record text held up to the index exceeds the maximum record length, otherwise false.
+     */
+    protected final boolean isRecordOverLength(int end) {
+        return maxRecordLength > 0 && end - keptLength > maxRecordLength;
+    }
+
+    /**
+     * Move the text of an oversize record out of the record buffer, up to the specified buffer index.
+     * <p/>
+     * The text is spilled or discarded, depending on the oversize record policy.  The first
+     * <code>maxRecordLength</code> chars of a spilled record are kept in the buffer.
+     *
+     * @param recordBuffer The record buffer.
+     * @param end          The buffer index up to which the record text is moved.
+     * @return The number of chars removed from the record buffer.  Buffer indexes past <code>end</code> move back
+     * by this amount.
+     * @throws IOException Error writing the spill file.
+     */
+    protected final int flushRecordText(StringBuilder recordBuffer, int end) throws IOException {
+        if (!oversize) {
+            oversize = true;
+            keptLength = 0;
+            oversizeLength = 0;
+            if (oversizeRecordPolicy == OversizeRecordPolicy.SPILL) {
+                spillFile = Files.createTempFile("smooks-flatfile-record-", ".txt");
+                spillWriter = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8);
+            }
+        }
+        if (end <= keptLength) {
+            return 0;
+        }
+
+        if (spillWriter != null) {
+            spillWriter.append(recordBuffer, keptLength, end);
+        }
+        oversizeLength += end - keptLength;
+
+        int removeFrom = keptLength;
+        if (spillWriter != null && keptLength == 0) {
+            // Keep the head of the record...
+            removeFrom = Math.min(maxRecordLength, end);
+            keptLength = removeFrom;
+        }
+        recordBuffer.delete(removeFrom, end);
+
+        return end - removeFrom;
+    }
+
+    /**
+     * Complete the record read into the record buffer, applying the oversize record policy.
+     *
+     * @param recordBuffer The record buffer.
+     * @return True if the record is to be returned, or false if it was rejected and the next record should be read.
+     * @throws IOException Error writing the spill file.
+     */
+    protected final boolean completeRecord(StringBuilder recordBuffer) throws IOException {
+        spilledRecord = null;
+        if (!oversize && !isRecordOverLength(recordBuffer)) {
+            return true;
+        }
+
+        flushRecordText(recordBuffer, recordBuffer.length());
+        oversize = false;
+        keptLength = 0;
+        if (oversizeRecordPolicy == OversizeRecordPolicy.REJECT) {
+            rejectedRecordCount++;
+            LOGGER.warn("Rejected flat file record of length {}.  Exceeds the maximum record length of {}.", oversizeLength, maxRecordLength);
+            recordBuffer.setLength(0);
+            return false;
+        }
+
+        spillWriter.close();
+        spillWriter = null;
+        spilledRecord = new SpilledValue(spillFile, oversizeLength);
+        spillFile = null;
+        return true;
+    }
+
+    /**
+     * Close the record reader, releasing any resources it opened on the data source.
+     * <p/>
+     * Streams supplied by the caller are not closed.
+     *
+     * @throws IOException Error closing the record reader.
+     */
+    @Override
+    public void close() throws IOException {
+        if (spillWriter != null) {
+            // Closed mid-record...
+            spillWriter.close();
+            Files.deleteIfExists(spillFile);
+            spillWriter = null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * {@link InputStream} based byte domain record reader.
+ * <p/>
+ * Fills a reusable byte window from the underlying {@link InputStream}, locates record boundaries
+ * in the encoded bytes and only decodes completed records (see {@link ByteRecordReader}).
+ */
+public class StreamRecordReader extends ByteRecordReader {
+
+    private final InputStream inputStream;
+    private boolean endOfStream;
+
+    /**
+     * Public constructor.
+     *
+     * @param inputStream     The record {@link InputStream}.
+     * @param charset         The stream charset.
+     * @param recordDelimiter The literal record delimiter, or <code>null</code> if records are
+     *                        delimited by a CR or LF.
+     * @param keepDelimiter   Keep the record delimiter as part of the record text.
+     */
+    public StreamRecordReader(InputStream inputStream, Charset charset, String recordDelimiter, boolean keepDelimiter) {
+        this(inputStream, charset, recordDelimiter, keepDelimiter, DEFAULT_WINDOW_SIZE);
+    }
+
+    StreamRecordReader(InputStream inputStream, Charset charset, String recordDelimiter, boolean keepDelimiter, int windowSize) {
+        super(charset, recordDelimiter, keepDelimiter);
+        this.inputStream = inputStream;
+        this.window = ByteBuffer.wrap(new byte[Math.max(windowSize, 1)]);
+    }
+
+    @Override
+    protected boolean fill() throws IOException {
+        if (endOfStream) {
+            return false;
+        }
+
+        byte[] bytes = window.array();
+        if (position > 0) {
+            System.arraycopy(bytes, position, bytes, 0, limit - position);
+            limit -= position;
+            position = 0;
+        } else if (limit == bytes.length) {
+            // Grow the window to fit the current record...
+            byte[] grownBytes = new byte[bytes.length * 2];
+            System.arraycopy(bytes, 0, grownBytes, 0, limit);
+            bytes = grownBytes;
+            window = ByteBuffer.wrap(bytes);
+        }
+
+        int count;
+        do {
+            count = inputStream.read(bytes, limit, bytes.length - limit);
+        } while (count == 0);
+
+        if (count == -1) {
+            endOfStream = true;
+            return false;
+        }
+        limit += count;
+
+        return true;
+    }
+}
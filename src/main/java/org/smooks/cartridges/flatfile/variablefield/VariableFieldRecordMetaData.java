@@ -132,6 +132,29 @@ public class VariableFieldRecordMetaData {
         return (recordMetaData == null && recordMetaDataMap != null);
     }
 
+    /**
+     * Get the number of leading field values of a record that are bound to fields, for any record type.
+     * <p/>
+     * In a multi-type record set, this includes the leading record type field value.
+     *
+     * @return The number of used field values, or {@link Integer#MAX_VALUE} if all field values are used.
+     * @see RecordMetaData#getUsedFieldCount()
+     */
+    public int getUsedFieldCount() {
+        if (!isMultiTypeRecordSet()) {
+            return Math.max(1, recordMetaData.getUsedFieldCount());
+        }
+
+        int usedFieldCount = 1;
+        for (RecordMetaData multiRecordMetaData : recordMetaDataMap.values()) {
+            if (multiRecordMetaData.getUsedFieldCount() == Integer.MAX_VALUE) {
+                return Integer.MAX_VALUE;
+            }
+            usedFieldCount = Math.max(usedFieldCount, multiRecordMetaData.getUsedFieldCount() + 1);
+        }
+        return usedFieldCount;
+    }
+
     /**
      * Get the record metadata for the variable field record parser.
      *
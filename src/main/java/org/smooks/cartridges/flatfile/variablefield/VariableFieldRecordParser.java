@@ -47,13 +47,18 @@ import org.slf4j.LoggerFactory;
 import org.smooks.cartridges.flatfile.Field;
 import org.smooks.cartridges.flatfile.FieldMetaData;
 import org.smooks.cartridges.flatfile.Record;
+import org.smooks.cartridges.flatfile.RecordBatch;
 import org.smooks.cartridges.flatfile.RecordMetaData;
 import org.smooks.cartridges.flatfile.RecordParser;
+import org.smooks.cartridges.flatfile.SpilledValue;
 import org.smooks.cartridges.flatfile.function.StringFunctionExecutor;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Abstract variable field record parser.
@@ -68,6 +73,20 @@ public abstract class VariableFieldRecordParser<T extends VariableFieldRecordPar
     private int lineNumber = 0;
     private int recordCount = 0;
     private RecordMetaData inMessageRecordMetaData;
+    private CharRecordReader charRecordReader;
+    private final Map<RecordMetaData, FieldProjection> fieldProjections = new IdentityHashMap<RecordMetaData, FieldProjection>();
+    // The Record and Fields returned by nextRecord(), if they're reused...
+    private Record reusedRecord;
+    private List<Field> reusedFields;
+    private final List<Field> fieldPool = new ArrayList<Field>();
+    private int reusedFieldCount;
+    // The RecordBatch returned by nextBatch(), if it's reused...
+    private RecordBatch reusedBatch;
+    // The last RecordBatch returned by nextBatch(), if it holds spilled values...
+    private RecordBatch spilledBatch;
+    // The projected field values of a record go to a Field list (nextRecord()) or a RecordBatch (nextBatch())...
+    private final FieldListSink fieldListSink = new FieldListSink();
+    private final BatchSink batchSink = new BatchSink();
 
     /**
      * Parse the next record from the flat file input stream and produce the set
@@ -78,6 +97,68 @@ public abstract class VariableFieldRecordParser<T extends VariableFieldRecordPar
      */
     public abstract List<String> nextRecordFieldValues() throws IOException;
 
+    /**
+     * Get the value of the record last read by {@link #nextRecordFieldValues()}, if the record exceeded the
+     * maximum record length and was spilled to disk.
+     * <p/>
+     * The field values of a spilled record hold the head of the record only.  This default implementation
+     * returns <code>null</code>.
+     *
+     * @return The spilled record value, or <code>null</code> if the last record was not spilled.
+     */
+    protected SpilledValue getSpilledRecordValue() {
+        return null;
+    }
+
+    /**
+     * Are the field values read by {@link #nextRecordFieldValues()} those of a record that could not be tokenized.
+     * <p/>
+     * The only field value of an unmatched record is the record text, which is output as an
+     * <code>UNMATCHED</code> record.  This default implementation returns <code>false</code>.
+     *
+     * @param fieldValues The record field values.
+     * @return True if the record is unmatched, otherwise false.
+     */
+    protected boolean isUnmatchedRecord(List<String> fieldValues) {
+        return false;
+    }
+
+    /**
+     * Read a record from the specified reader (up to the next recordDelimiter).
+     * <p/>
+     * For implementations that read records from a {@link Reader} themselves.  The {@link RecordReader} reading
+     * the records ahead is held on this parser instance, and replaced if a different reader is supplied.
+     *
+     * @param reader       The record {@link Reader}.
+     * @param recordBuffer The record buffer into which the record is read.
+     * @throws IOException Error reading record.
+     */
+    protected void readRecord(Reader reader, StringBuilder recordBuffer) throws IOException {
+        if (charRecordReader == null || charRecordReader.getReader() != reader) {
+            charRecordReader = factory.newRecordReader(reader);
+        }
+        charRecordReader.readRecord(recordBuffer);
+    }
+
+    /**
+     * Skip past the next records in the flat file input stream, without producing the record field values.
+     * <p/>
+     * This default implementation reads and discards the field values.  Implementations should override
+     * it to advance past the record boundaries without tokenizing the records.
+     *
+     * @param count The number of records to skip.
+     * @return The number of records skipped.  Less than <code>count</code> if the end of the stream was reached.
+     * @throws IOException Error reading message stream.
+     */
+    protected int skipRecordFieldValues(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (nextRecordFieldValues() == null) {
+                return i;
+            }
+        }
+        return count;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -91,14 +172,18 @@ public abstract class VariableFieldRecordParser<T extends VariableFieldRecordPar
     public void initialize() throws IOException {
         int skipLines = factory.getSkipLines();
 
-        // Move past the lines to be skipped ...
-        while (lineNumber < skipLines) {
-            _nextRecordFieldValues();
+        // Move past the lines to be skipped, without tokenizing them...
+        if (lineNumber < skipLines) {
+            skipRecords(skipLines - lineNumber);
         }
 
         // If the fields are defined in the message... read the next record
         if (factory.fieldsInMessage() || factory.validateHeader()) {
             List<String> fields = _nextRecordFieldValues();
+            if (getSpilledRecordValue() != null) {
+                // Only the head of an oversize header is used...
+                getSpilledRecordValue().delete();
+            }
 
             if (factory.validateHeader()) {
                 validateHeader(fields);
@@ -109,12 +194,20 @@ public abstract class VariableFieldRecordParser<T extends VariableFieldRecordPar
                 inMessageRecordMetaData = VariableFieldRecordMetaData.buildRecordMetaData(factory.getRecordElementName(), fields);
             }
         }
+
+        // Move to the first record to be parsed...
+        if (factory.getStartRecord() > 1) {
+            skipRecords(factory.getStartRecord() - 1);
+        }
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Deletes the spill files of the last batch returned by {@link #nextBatch(int)}.
      */
     public void uninitialize() {
+        deleteBatchSpilledValues();
     }
 
     /**
@@ -135,6 +228,16 @@ public abstract class VariableFieldRecordParser<T extends VariableFieldRecordPar
         return recordCount;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int skipRecords(int count) throws IOException {
+        int skipped = skipRecordFieldValues(count);
+        lineNumber += skipped;
+        return skipped;
+    }
+
     private List<String> _nextRecordFieldValues() throws IOException {
         lineNumber++;
         return nextRecordFieldValues();
@@ -150,6 +253,151 @@ public abstract class VariableFieldRecordParser<T extends VariableFieldRecordPar
             return null;
         }
 
+        SpilledValue spilledValue = getSpilledRecordValue();
+        if (spilledValue != null) {
+            // An oversize record, spilled to disk.  It's not tokenized...
+            RecordMetaData recordMetaData = VariableFieldRecordMetaData.UNKNOWN_RECORD_TYPE;
+            List<Field> fields = new ArrayList<Field>();
+            fields.add(new Field(recordMetaData.getFields().get(0).getName(), spilledValue));
+            recordCount++;
+            return new Record(recordMetaData.getName(), fields, recordMetaData);
+        }
+
+        RecordMetaData recordMetaData;
+        if (isUnmatchedRecord(fieldValues)) {
+            recordMetaData = VariableFieldRecordMetaData.UNKNOWN_RECORD_TYPE;
+        } else {
+            recordMetaData = getRecordMetaData(fieldValues);
+            if (recordMetaData == null) {
+                return nextRecord();
+            }
+        }
+
+        List<Field> fields = newFieldList();
+
+        try {
+            fieldListSink.fields = fields;
+            projectFieldValues(recordMetaData, fieldValues, fieldListSink);
+        } finally {
+            recordCount++;
+        }
+
+        return newRecord(recordMetaData.getName(), fields, recordMetaData);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Fills the batch straight from the record field values, without producing {@link Record} and
+     * {@link Field} instances.  The batch is reused if the parser is configured to reuse its records
+     * (see {@link VariableFieldRecordParserFactory#isReuseRecords()}).  The spill files of the batch's
+     * spilled values are deleted on the next call, or when the parser is uninitialized.
+     */
+    @Override
+    public RecordBatch nextBatch(int maxRecords) throws IOException {
+        deleteBatchSpilledValues();
+
+        RecordBatch batch;
+        if (factory.isReuseRecords()) {
+            if (reusedBatch == null) {
+                reusedBatch = new RecordBatch();
+            }
+            batch = reusedBatch;
+            batch.clear();
+        } else {
+            batch = new RecordBatch();
+        }
+
+        while (batch.size() < maxRecords) {
+            List<String> fieldValues = _nextRecordFieldValues();
+
+            if (fieldValues == null || fieldValues.isEmpty()) {
+                break;
+            }
+
+            SpilledValue spilledValue = getSpilledRecordValue();
+            if (spilledValue != null) {
+                batch.startRecord(VariableFieldRecordMetaData.UNKNOWN_RECORD_TYPE);
+                batch.addSpilledValue(spilledValue);
+                batch.endRecord();
+                spilledBatch = batch;
+                recordCount++;
+                continue;
+            }
+
+            RecordMetaData recordMetaData;
+            if (isUnmatchedRecord(fieldValues)) {
+                recordMetaData = VariableFieldRecordMetaData.UNKNOWN_RECORD_TYPE;
+            } else {
+                recordMetaData = getRecordMetaData(fieldValues);
+                if (recordMetaData == null) {
+                    continue;
+                }
+            }
+
+            batch.startRecord(recordMetaData);
+            batchSink.batch = batch;
+            projectFieldValues(recordMetaData, fieldValues, batchSink);
+            batch.endRecord();
+            recordCount++;
+        }
+
+        return (batch.size() > 0 ? batch : null);
+    }
+
+    private void deleteBatchSpilledValues() {
+        if (spilledBatch != null) {
+            spilledBatch.deleteSpilledValues();
+            spilledBatch = null;
+        }
+    }
+
+    /**
+     * Project the field values of a record onto the record type's fields.
+     *
+     * @param recordMetaData The record type.
+     * @param fieldValues    The record field values.
+     * @param sink           The sink receiving the projected field values, in field order.
+     */
+    private void projectFieldValues(RecordMetaData recordMetaData, List<String> fieldValues, FieldValueSink sink) {
+        if (recordMetaData == VariableFieldRecordMetaData.UNKNOWN_RECORD_TYPE) {
+            sink.addValue(recordMetaData.getFields().get(0).getName(), null, fieldValues, 0);
+            return;
+        }
+
+        int fieldValueOffset = getFieldValueOffset();
+        FieldProjection projection = getFieldProjection(recordMetaData);
+        int fieldValueCount = fieldValues.size() - fieldValueOffset;
+
+        if (projection.isWildCard()) {
+            for (int i = 0; i < fieldValueCount; i++) {
+                sink.addValue(projection.getWildCardFieldName(i), null, fieldValues, i + fieldValueOffset);
+            }
+        } else {
+            for (int i = 0; i < projection.size(); i++) {
+                int sourceIndex = projection.getSourceIndex(i);
+                if (sourceIndex >= fieldValueCount) {
+                    // We're done... the record has no more field values...
+                    break;
+                }
+
+                StringFunctionExecutor stringFunction = projection.getStringFunction(i);
+                if (stringFunction != null) {
+                    sink.addValue(projection.getFieldName(i), projection.getFieldMetaData(i), stringFunction.execute(fieldValues.get(sourceIndex + fieldValueOffset)));
+                } else {
+                    sink.addValue(projection.getFieldName(i), projection.getFieldMetaData(i), fieldValues, sourceIndex + fieldValueOffset);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the record type of a record.
+     *
+     * @param fieldValues The record field values.
+     * @return The record type, or null if the record is corrupt and is to be ignored.
+     */
+    private RecordMetaData getRecordMetaData(List<String> fieldValues) {
         RecordMetaData recordMetaData;
         if (inMessageRecordMetaData != null) {
             recordMetaData = inMessageRecordMetaData;
@@ -157,74 +405,138 @@ public abstract class VariableFieldRecordParser<T extends VariableFieldRecordPar
             recordMetaData = factory.getRecordMetaData(fieldValues);
         }
 
-        List<FieldMetaData> fieldsMetaData = recordMetaData.getFields();
         if (factory.strict() && fieldValues.size() < getUnignoredFieldCount(recordMetaData)) {
             LOGGER.debug("[CORRUPT] Record #" + recordCount + " invalid [" + fieldValues
-                    + "].  The record should contain " + fieldsMetaData.size() + " fields ["
+                    + "].  The record should contain " + recordMetaData.getFields().size() + " fields ["
                     + recordMetaData.getFieldNames() + "], but contains " + fieldValues.size() + " fields.  Ignoring!!");
-            return nextRecord();
+            return null;
         }
+        return recordMetaData;
+    }
 
-        List<Field> fields = new ArrayList<Field>();
+    private int getFieldValueOffset() {
+        // In message field definitions do not support variable field definitions... just one record type supported...
+        if (inMessageRecordMetaData == null && factory.isMultiTypeRecordSet()) {
+            // Skip the first field value because it's the field name...
+            return 1;
+        }
+        return 0;
+    }
 
-        try {
-            if (recordMetaData == VariableFieldRecordMetaData.UNKNOWN_RECORD_TYPE) {
-                fields.add(new Field(recordMetaData.getFields().get(0).getName(), fieldValues.get(0)));
-                return new Record(recordMetaData.getName(), fields, recordMetaData);
-            } else {
-                int fieldValueOffset = 0;
+    private FieldProjection getFieldProjection(RecordMetaData recordMetaData) {
+        FieldProjection projection = fieldProjections.get(recordMetaData);
+        if (projection == null) {
+            projection = FieldProjection.compile(recordMetaData);
+            fieldProjections.put(recordMetaData, projection);
+        }
+        return projection;
+    }
 
-                // In message field definitions do not support variable field definitions... just one record type supported...
-                if (inMessageRecordMetaData == null && factory.isMultiTypeRecordSet()) {
-                    // Skip the first field value because it's the field name...
-                    fieldValueOffset = +1;
-                }
+    private Field newField(String name, List<String> fieldValues, int fieldValueIndex) {
+        if (fieldValues instanceof LazyFieldValues) {
+            // Leave it to the field to build the value, if it's ever needed...
+            return newField(name, ((LazyFieldValues) fieldValues).getValueChars(fieldValueIndex));
+        }
+        return newField(name, fieldValues.get(fieldValueIndex));
+    }
 
-                for (int i = 0; i < fieldValues.size(); i++) {
-                    int fieldValueIndex = i + fieldValueOffset;
-
-                    if (fieldValueIndex > fieldValues.size() - 1) {
-                        break;
-                    }
-                    if (!recordMetaData.isWildCardRecord() && i > fieldsMetaData.size() - 1) {
-                        // We're done... ignore the rest of the fields...
-                        break;
-                    }
-
-                    Field field;
-                    String value = fieldValues.get(fieldValueIndex);
-
-                    if (recordMetaData.isWildCardRecord() || i > fieldsMetaData.size() - 1) {
-                        field = new Field("field_" + i, value);
-                    } else {
-                        FieldMetaData fieldMetaData = fieldsMetaData.get(i);
-
-                        if (fieldMetaData.ignore()) {
-                            i += fieldMetaData.getIgnoreCount() - 1;
-                            if (i < 0) {
-                                // An overflow has resulted...
-                                i = Integer.MAX_VALUE - 1;
-                            }
-                            continue;
-                        }
-
-                        StringFunctionExecutor stringFunction = fieldMetaData.getStringFunctionExecutor();
-                        if (stringFunction != null) {
-                            value = stringFunction.execute(value);
-                        }
-
-                        field = new Field(fieldMetaData.getName(), value);
-                        field.setMetaData(fieldMetaData);
-                    }
-
-                    fields.add(field);
-                }
+    private Field newField(String name, CharSequence value) {
+        if (reusedFields != null) {
+            if (reusedFieldCount == fieldPool.size()) {
+                fieldPool.add(new Field(name, (String) null));
             }
-        } finally {
-            recordCount++;
+            return fieldPool.get(reusedFieldCount++).reset(name, value);
+        } else if (value == null || value instanceof String) {
+            return new Field(name, (String) value);
+        }
+        return new Field(name, value);
+    }
+
+    private List<Field> newFieldList() {
+        if (factory.isReuseRecords()) {
+            if (reusedFields == null) {
+                reusedFields = new ArrayList<Field>();
+            }
+            reusedFields.clear();
+            reusedFieldCount = 0;
+            return reusedFields;
+        }
+        return new ArrayList<Field>();
+    }
+
+    private Record newRecord(String name, List<Field> fields, RecordMetaData recordMetaData) {
+        if (reusedFields != null) {
+            if (reusedRecord == null) {
+                reusedRecord = new Record(name, fields, recordMetaData);
+            }
+            return reusedRecord.reset(name, fields, recordMetaData);
+        }
+        return new Record(name, fields, recordMetaData);
+    }
+
+    /**
+     * Receives the projected field values of a record.
+     */
+    private interface FieldValueSink {
+
+        /**
+         * Add a field value held in the record field values.
+         *
+         * @param fieldName       The field name.
+         * @param fieldMetaData   The field metadata, or null if the field has none.
+         * @param fieldValues     The record field values.
+         * @param fieldValueIndex The index of the field value in the record field values.
+         */
+        void addValue(String fieldName, FieldMetaData fieldMetaData, List<String> fieldValues, int fieldValueIndex);
+
+        /**
+         * Add a field value computed from the record field values.
+         *
+         * @param fieldName     The field name.
+         * @param fieldMetaData The field metadata, or null if the field has none.
+         * @param value         The field value.
+         */
+        void addValue(String fieldName, FieldMetaData fieldMetaData, String value);
+    }
+
+    /**
+     * Adds the projected field values to a {@link Field} list, for {@link #nextRecord()}.
+     */
+    private final class FieldListSink implements FieldValueSink {
+
+        private List<Field> fields;
+
+        @Override
+        public void addValue(String fieldName, FieldMetaData fieldMetaData, List<String> fieldValues, int fieldValueIndex) {
+            fields.add(newField(fieldName, fieldValues, fieldValueIndex).setMetaData(fieldMetaData));
         }
 
-        return new Record(recordMetaData.getName(), fields, recordMetaData);
+        @Override
+        public void addValue(String fieldName, FieldMetaData fieldMetaData, String value) {
+            fields.add(newField(fieldName, value).setMetaData(fieldMetaData));
+        }
+    }
+
+    /**
+     * Adds the projected field values to a {@link RecordBatch}, for {@link #nextBatch(int)}.
+     */
+    private static final class BatchSink implements FieldValueSink {
+
+        private RecordBatch batch;
+
+        @Override
+        public void addValue(String fieldName, FieldMetaData fieldMetaData, List<String> fieldValues, int fieldValueIndex) {
+            if (fieldValues instanceof LazyFieldValues) {
+                batch.addValue(((LazyFieldValues) fieldValues).getValueChars(fieldValueIndex));
+            } else {
+                batch.addValue(fieldValues.get(fieldValueIndex));
+            }
+        }
+
+        @Override
+        public void addValue(String fieldName, FieldMetaData fieldMetaData, String value) {
+            batch.addValue(value);
+        }
     }
 
     /**
@@ -42,6 +42,8 @@
  */
 package org.smooks.cartridges.flatfile.variablefield;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.smooks.api.ExecutionContext;
 import org.smooks.api.Registry;
 import org.smooks.api.SmooksConfigException;
@@ -62,15 +64,29 @@ import org.smooks.engine.delivery.DefaultContentHandlerBinding;
 import org.smooks.engine.expression.MVELExpressionEvaluator;
 import org.smooks.support.XmlUtils;
 import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
 
 import jakarta.annotation.PostConstruct;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.regex.Matcher;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 /**
@@ -80,6 +96,7 @@ import java.util.regex.Pattern;
  */
 public abstract class VariableFieldRecordParserFactory implements RecordParserFactory, VisitorAppender {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(VariableFieldRecordParserFactory.class);
     private static final String RECORD_BEAN = "recordBean";
 
     @Inject
@@ -123,10 +140,43 @@ public abstract class VariableFieldRecordParserFactory implements RecordParserFa
     @Inject
     private Boolean strict = false;
 
+    @Inject
+    private Boolean memoryMapped = false;
+
+    @Inject
+    private Integer mappedWindowSize = MappedFileRecordReader.DEFAULT_MAPPED_WINDOW_SIZE;
+
+    @Inject
+    private Integer recordIndexInterval = 0;
+
+    @Inject
+    private Optional<String> recordIndexFile;
+
+    @Inject
+    private Integer startRecord = 1;
+
+    @Inject
+    private Integer maxRecordLength = 0;
+
+    @Inject
+    @Named("oversizeRecordPolicy")
+    private String oversizeRecordPolicyName = "reject";
+    private OversizeRecordPolicy oversizeRecordPolicy;
+
+    @Inject
+    private Integer parallelism = 1;
+
+    @Inject
+    private Integer parallelChunkSize = ParallelRecordReader.DEFAULT_CHUNK_SIZE;
+
+    @Inject
+    private Boolean reuseRecords = false;
+
     @Inject
     private Registry registry;
 
-    private String overFlowFromLastRecord = "";
+    // Only for the deprecated readRecord(Reader, StringBuilder, int)... the reading state of each stream, until its end...
+    private final Map<Reader, CharRecordReader> streamRecordReaders = Collections.synchronizedMap(new IdentityHashMap<Reader, CharRecordReader>());
 
     public int getSkipLines() {
         if (skipLines < 0) {
@@ -136,6 +186,28 @@ public abstract class VariableFieldRecordParserFactory implements RecordParserFa
         }
     }
 
+    /**
+     * Get the number of the first record to be parsed, following any skipped lines and header.
+     *
+     * @return The number of the first record to be parsed.
+     */
+    public int getStartRecord() {
+        return Math.max(startRecord, 1);
+    }
+
+    /**
+     * Do the parsers reuse their {@link org.smooks.cartridges.flatfile.Record} and
+     * {@link org.smooks.cartridges.flatfile.Field} instances.
+     * <p/>
+     * If they do, each call to {@link VariableFieldRecordParser#nextRecord()} resets and returns the same
+     * mutable instances, so a record (and its fields) is only valid until the next call.
+     *
+     * @return True if the records are reused, otherwise false.
+     */
+    public boolean isReuseRecords() {
+        return reuseRecords;
+    }
+
     public boolean fieldsInMessage() {
         return fieldsInMessage;
     }
@@ -167,6 +239,32 @@ public abstract class VariableFieldRecordParserFactory implements RecordParserFa
         return vfRecordMetaData.getRecordMetaData(fieldValues);
     }
 
+    /**
+     * Get the {@link RecordMetaData} instance for the specified record type.
+     *
+     * @param recordTypeName The name of the record type.
+     * @return The RecordMetaData instance, or <code>null</code> if the record type is not defined.
+     * @see #isMultiTypeRecordSet()
+     */
+    public RecordMetaData getRecordMetaData(String recordTypeName) {
+        return vfRecordMetaData.getRecordMetaData(recordTypeName);
+    }
+
+    /**
+     * Get the number of leading field values of a record that the parser binds to fields.
+     * <p/>
+     * A parser can stop tokenizing a record once it has this many field values, as the rest are dropped.  All
+     * field values are used where the fields are defined in the message or the header is validated.
+     *
+     * @return The number of used field values, or {@link Integer#MAX_VALUE} if all field values are used.
+     */
+    public int getUsedFieldCount() {
+        if (fieldsInMessage || validateHeader) {
+            return Integer.MAX_VALUE;
+        }
+        return vfRecordMetaData.getUsedFieldCount();
+    }
+
     /**
      * Is the parser configured to parse multiple record types.
      *
@@ -255,45 +353,241 @@ public abstract class VariableFieldRecordParserFactory implements RecordParserFa
         }
     }
 
+    @PostConstruct
+    public final void resolveOversizeRecordPolicy() {
+        try {
+            oversizeRecordPolicy = OversizeRecordPolicy.valueOf(oversizeRecordPolicyName.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new SmooksConfigException("Unsupported 'oversizeRecordPolicy' value '" + oversizeRecordPolicyName + "'.  Must be one of 'reject' or 'spill'.");
+        }
+    }
+
     @PostConstruct
     public final void buildRecordMetaData() {
-        vfRecordMetaData = new VariableFieldRecordMetaData(recordElementName, fields.orElse(null));
+        // Idempotent... subclass @PostConstruct methods, which can run first, may need the record metadata...
+        if (vfRecordMetaData == null) {
+            vfRecordMetaData = new VariableFieldRecordMetaData(recordElementName, fields.orElse(null));
+        }
+    }
+
+    /**
+     * Create a new {@link RecordReader} for reading delimited records from the specified data source.
+     * <p/>
+     * Where the record delimiter can be located in the byte domain (see {@link ByteRecordReader#isSupported(Charset, String)}),
+     * records are read from the data source byte stream and only completed records are decoded.  If the factory is configured
+     * as <code>memoryMapped</code> and the data source is a local file (a {@link FileInputStream} byte stream, or a
+     * <code>file:</code> system ID), the file is memory mapped (see {@link MappedFileRecordReader}).  If the factory is
+     * configured with a <code>recordIndexInterval</code> and the data source has a <code>file:</code> system ID, the memory
+     * mapped file is read through a sidecar record offset index (see {@link IndexedRecordReader}).  Otherwise, records are
+     * read from the data source character stream.
+     * <p/>
+     * The data source byte stream is only read directly if there's no character stream, so that a supplied character
+     * stream always decodes the records.
+     *
+     * @param source The flat file data source.
+     * @return A new {@link RecordReader} instance, configured with this factory's record delimiter settings.
+     * @throws IOException Error opening the data source.
+     */
+    public RecordReader newRecordReader(InputSource source) throws IOException {
+        RecordReader recordReader = openRecordReader(source);
+        recordReader.setMaxRecordLength(maxRecordLength, oversizeRecordPolicy);
+        return recordReader;
+    }
+
+    private RecordReader openRecordReader(InputSource source) throws IOException {
+        Charset charset = getCharset(source);
+        String literalRecordDelimiter = (recordDelimiterPattern == null ? recordDelimiter.orElse(null) : null);
+        Reader reader = source.getCharacterStream();
+        InputStream byteStream = source.getByteStream();
+
+        if (recordDelimiterPattern == null && ByteRecordReader.isSupported(charset, literalRecordDelimiter)) {
+            if (recordIndexInterval > 0) {
+                RecordReader indexedRecordReader = newIndexedRecordReader(source, charset, literalRecordDelimiter);
+                if (indexedRecordReader != null) {
+                    return indexedRecordReader;
+                }
+            }
+            if (memoryMapped) {
+                RecordReader mappedRecordReader = newMappedFileRecordReader(source, charset, literalRecordDelimiter);
+                if (mappedRecordReader != null) {
+                    return mappedRecordReader;
+                }
+            }
+            if (byteStream != null && reader == null) {
+                return new StreamRecordReader(byteStream, charset, literalRecordDelimiter, keepDelimiter);
+            }
+        } else if (memoryMapped || recordIndexInterval > 0) {
+            LOGGER.warn("Unable to memory map or index the flat file data source.  Record delimiter not supported in the byte domain for charset '{}'.", charset.name());
+        }
+
+        if (reader == null && byteStream != null) {
+            reader = new InputStreamReader(byteStream, charset);
+        }
+        if (reader == null) {
+            throw new IllegalStateException("Invalid InputSource type supplied to the record parser.  Must contain a Reader or InputStream instance.");
+        }
+
+        return newRecordReader(reader);
+    }
+
+    /**
+     * Create a new {@link RecordReader} for reading delimited records from the specified reader.
+     *
+     * @param recordReader The record {@link Reader}.
+     * @return A new {@link RecordReader} instance, configured with this factory's record delimiter settings.
+     */
+    public CharRecordReader newRecordReader(Reader recordReader) {
+        CharRecordReader charRecordReader = new CharRecordReader(recordReader, (recordDelimiterPattern == null ? recordDelimiter.orElse(null) : null), recordDelimiterPattern, keepDelimiter);
+        charRecordReader.setMaxRecordLength(maxRecordLength, oversizeRecordPolicy);
+        return charRecordReader;
     }
 
     /**
      * Read a record from the specified reader (up to the next recordDelimiter).
+     * <p/>
+     * Records are read ahead of the record returned, so the reading state of the reader is held until the end of
+     * its stream is reached, or record number 1 is read from it again.
      *
      * @param recordReader The record {@link Reader}.
      * @param recordBuffer The record buffer into which the record is read.
+     * @param recordNumber The number of the record being read, starting at 1 for the first record of the stream.
      * @throws IOException Error reading record.
+     * @deprecated The reading state belongs with the parser reading the stream.  Hold a {@link RecordReader} on
+     * the parser instance (see {@link #newRecordReader(InputSource)} and {@link #newRecordReader(Reader)}), or use
+     * {@link VariableFieldRecordParser#readRecord(Reader, StringBuilder)}.
      */
+    @Deprecated
     public void readRecord(Reader recordReader, StringBuilder recordBuffer, int recordNumber) throws IOException {
-        recordBuffer.setLength(0);
-        recordBuffer.append(overFlowFromLastRecord);
+        CharRecordReader charRecordReader = (recordNumber > 1 ? streamRecordReaders.get(recordReader) : null);
+        if (charRecordReader == null) {
+            charRecordReader = newRecordReader(recordReader);
+            streamRecordReaders.put(recordReader, charRecordReader);
+        }
+
+        charRecordReader.readRecord(recordBuffer);
+        if (recordBuffer.length() == 0) {
+            // End of the stream... release its reading state...
+            streamRecordReaders.remove(recordReader);
+        }
+    }
 
-        RecordBoundaryLocator boundaryLocator;
-        if (recordDelimiterPattern != null) {
-            boundaryLocator = new RegexRecordBoundaryLocator(recordBuffer, recordNumber);
+    /**
+     * Create a new {@link ParallelRecordReader} for reading and processing the records of the specified data source
+     * in parallel byte ranges.
+     * <p/>
+     * Only applies if the factory is configured with a <code>parallelism</code> greater than 1, the data source is a
+     * local file (a {@link FileInputStream} byte stream, or a <code>file:</code> system ID) and the record delimiter
+     * allows a byte range to be resynchronised to a record boundary (see {@link ParallelRecordReader#isSupported(Charset, String)}).
+     *
+     * @param source                 The flat file data source.
+     * @param recordProcessorFactory Record processor factory.  See {@link ParallelRecordReader}.
+     * @param <R>                    The processed record type.
+     * @return A new {@link ParallelRecordReader} instance, or <code>null</code> if the data source can't be read in parallel.
+     * @throws IOException Error opening the data source.
+     */
+    public <R> ParallelRecordReader<R> newParallelRecordReader(InputSource source, Supplier<Function<CharSequence, R>> recordProcessorFactory) throws IOException {
+        if (parallelism <= 1) {
+            return null;
+        }
+        if (maxRecordLength > 0) {
+            LOGGER.warn("Unable to parse the flat file data source in parallel.  Not supported with a 'maxRecordLength'.");
+            return null;
+        }
+
+        Charset charset = getCharset(source);
+        String literalRecordDelimiter = (recordDelimiterPattern == null ? recordDelimiter.orElse(null) : null);
+        if (recordDelimiterPattern != null || !ParallelRecordReader.isSupported(charset, literalRecordDelimiter)) {
+            LOGGER.warn("Unable to parse the flat file data source in parallel.  Record delimiter not supported in parallel byte ranges for charset '{}'.", charset.name());
+            return null;
+        }
+
+        if (source.getByteStream() instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) source.getByteStream()).getChannel();
+            return new ParallelRecordReader<>(channel, false, charset, literalRecordDelimiter, keepDelimiter, parallelism, parallelChunkSize, recordProcessorFactory);
+        }
+
+        Path file = toLocalFile(source.getSystemId());
+        if (file != null) {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            return new ParallelRecordReader<>(channel, true, charset, literalRecordDelimiter, keepDelimiter, parallelism, parallelChunkSize, recordProcessorFactory);
+        }
+
+        LOGGER.warn("Unable to parse the flat file data source in parallel.  Not a local file.");
+        return null;
+    }
+
+    private RecordReader newIndexedRecordReader(InputSource source, Charset charset, String literalRecordDelimiter) throws IOException {
+        Path file = toLocalFile(source.getSystemId());
+        if (file == null) {
+            LOGGER.warn("Unable to index the flat file data source.  Not a local file with a 'file:' system ID.");
+            return null;
+        }
+
+        MappedFileRecordReader mappedRecordReader;
+        if (source.getByteStream() instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) source.getByteStream()).getChannel();
+            mappedRecordReader = new MappedFileRecordReader(channel, false, charset, literalRecordDelimiter, keepDelimiter, mappedWindowSize);
         } else {
-            boundaryLocator = new SimpleRecordBoundaryLocator(recordBuffer, recordNumber);
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            mappedRecordReader = new MappedFileRecordReader(channel, true, charset, literalRecordDelimiter, keepDelimiter, mappedWindowSize);
         }
 
-        int c;
-        while ((c = recordReader.read()) != -1) {
-            if (recordBuffer.length() == 0) {
-                if (c == '\n' || c == '\r') {
-                    // A leading CR or LF... ignore...
-                    continue;
-                }
-            }
+        Path indexFile = (recordIndexFile.isPresent() ? Paths.get(recordIndexFile.get()) : file.resolveSibling(file.getFileName() + ".ffidx"));
+        try {
+            return new IndexedRecordReader(mappedRecordReader, file, indexFile, recordIndexInterval);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to open the record index '{}' for flat file '{}'.  Reading the file without an index.", indexFile, file, e);
+            return mappedRecordReader;
+        }
+    }
+
+    private RecordReader newMappedFileRecordReader(InputSource source, Charset charset, String literalRecordDelimiter) throws IOException {
+        if (source.getByteStream() instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) source.getByteStream()).getChannel();
+            return new MappedFileRecordReader(channel, false, charset, literalRecordDelimiter, keepDelimiter, mappedWindowSize);
+        }
+
+        Path file = toLocalFile(source.getSystemId());
+        if (file != null) {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            return new MappedFileRecordReader(channel, true, charset, literalRecordDelimiter, keepDelimiter, mappedWindowSize);
+        }
+
+        LOGGER.debug("Unable to memory map the flat file data source.  Not a local file.");
+        return null;
+    }
+
+    private static Charset getCharset(InputSource source) {
+        if (source.getEncoding() != null) {
+            return Charset.forName(source.getEncoding());
+        }
 
-            recordBuffer.append((char) c);
-            if (boundaryLocator.atEndOfRecord()) {
-                break;
+        // A closed InputStreamReader has no encoding...
+        String readerEncoding = (source.getCharacterStream() instanceof InputStreamReader ? ((InputStreamReader) source.getCharacterStream()).getEncoding() : null);
+        if (readerEncoding != null) {
+            return Charset.forName(readerEncoding);
+        } else {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    private static Path toLocalFile(String systemId) {
+        if (systemId == null) {
+            return null;
+        }
+
+        Path file;
+        try {
+            URI uri = new URI(systemId);
+            if (!"file".equalsIgnoreCase(uri.getScheme())) {
+                return null;
             }
+            file = Paths.get(uri);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
         }
 
-        overFlowFromLastRecord = boundaryLocator.getOverflowCharacters();
+        return (Files.isRegularFile(file) ? file : null);
     }
 
     private void addFieldBindings(Bean bean) {
@@ -344,117 +638,4 @@ public abstract class VariableFieldRecordParserFactory implements RecordParserFa
             return false;
         }
     }
-
-    private class SimpleRecordBoundaryLocator extends RecordBoundaryLocator {
-
-        private SimpleRecordBoundaryLocator(StringBuilder recordBuffer, int recordNumber) {
-            super(recordBuffer, recordNumber);
-        }
-
-        @Override
-        boolean atEndOfRecord() {
-            int builderLen = recordBuffer.length();
-            char lastChar = recordBuffer.charAt(builderLen - 1);
-
-            if (recordDelimiter.isPresent()) {
-                int stringLen = recordDelimiter.get().length();
-
-                if (builderLen < stringLen) {
-                    return false;
-                }
-
-                int stringIndx = 0;
-                for (int i = (builderLen - stringLen); i < builderLen; i++) {
-                    if (recordBuffer.charAt(i) != recordDelimiter.get().charAt(stringIndx)) {
-                        return false;
-                    }
-                    stringIndx++;
-                }
-
-                if (!keepDelimiter) {
-                    // Strip off the delimiter from the end before returning...
-                    recordBuffer.setLength(builderLen - stringLen);
-                }
-
-                return true;
-            } else if (lastChar == '\r' || lastChar == '\n') {
-                if (!keepDelimiter) {
-                    // Strip off the delimiter from the end before returning...
-                    recordBuffer.setLength(builderLen - 1);
-                }
-                return true;
-            }
-
-            return false;
-        }
-
-        @Override
-        String getOverflowCharacters() {
-            return "";
-        }
-    }
-
-    private class RegexRecordBoundaryLocator extends RecordBoundaryLocator {
-
-        private int startFindIndex;
-        private int endRecordIndex;
-        private String overFlow = "";
-
-        protected RegexRecordBoundaryLocator(StringBuilder recordBuffer, int recordNumber) {
-            super(recordBuffer, recordNumber);
-            startFindIndex = recordBuffer.length();
-        }
-
-        @Override
-        boolean atEndOfRecord() {
-            Matcher matcher = recordDelimiterPattern.matcher(recordBuffer);
-
-            if (matcher.find(startFindIndex)) {
-                if (recordNumber == 1 && startFindIndex == 0) {
-                    // Need to find the second instance of the pattern in the
-                    // first record buffer
-                    // The second instance marks the start of the second record,
-                    // which will be captured
-                    // as overflow from this record read and will be auto added
-                    // to the read of the next record.
-                    startFindIndex = matcher.end();
-                    return false;
-                } else {
-                    // For records following the first record, we already have
-                    // the start so we just need to find
-                    // the first instance of the pattern, which marks the start
-                    // of the next record, which again
-                    // will be captured as overflow from this record read and
-                    // will be auto added to the read of
-                    // the next record.
-                    endRecordIndex = matcher.start();
-                    overFlow = recordBuffer.substring(endRecordIndex);
-                    recordBuffer.setLength(endRecordIndex);
-                    return true;
-                }
-            }
-
-            return false;
-        }
-
-        @Override
-        String getOverflowCharacters() {
-            return overFlow;
-        }
-    }
-
-    private abstract class RecordBoundaryLocator {
-
-        protected StringBuilder recordBuffer;
-        protected int recordNumber;
-
-        protected RecordBoundaryLocator(StringBuilder recordBuffer, int recordNumber) {
-            this.recordBuffer = recordBuffer;
-            this.recordNumber = recordNumber;
-        }
-
-        abstract boolean atEndOfRecord();
-
-        abstract String getOverflowCharacters();
-    }
 }
@@ -0,0 +1,89 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CharSpanTest {
+
+    @Test
+    public void test_view() {
+        StringBuilder buffer = new StringBuilder("HDR|abc|de");
+        CharSpan span = new CharSpan(buffer, 4, 7);
+
+        assertEquals(3, span.length());
+        assertEquals('b', span.charAt(1));
+        assertEquals("bc", span.subSequence(1, 3).toString());
+        assertEquals("abc", span.toString());
+
+        char[] chars = new char[5];
+        span.getChars(chars, 1);
+        assertEquals("\u0000abc\u0000", new String(chars));
+
+        // A view... not a copy...
+        buffer.setCharAt(5, 'X');
+        assertEquals("aXc", span.toString());
+
+        try {
+            span.charAt(3);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            assertEquals("Index: 3, Length: 3", e.getMessage());
+        }
+    }
+
+    @Test
+    public void test_field() {
+        StringBuilder buffer = new StringBuilder("a|bc");
+        Field field = new Field("second", new CharSpan(buffer, 2, 4));
+
+        assertEquals("bc", field.getValueChars().toString());
+        String value = field.getValue();
+        assertEquals("bc", value);
+        assertSame(value, field.getValueChars());
+    }
+}
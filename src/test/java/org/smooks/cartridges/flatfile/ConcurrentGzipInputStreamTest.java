@@ -0,0 +1,167 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ConcurrentGzipInputStreamTest {
+
+    @Test
+    public void test_single_member() throws IOException {
+        byte[] text = records(0, 5000);
+        for (int threads = 1; threads < 4; threads++) {
+            assertArrayEquals(text, inflate(gzip(text), threads));
+        }
+    }
+
+    @Test
+    public void test_multi_member() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++) {
+            byte[] member = records(i * 100, 100);
+            // Mix block (BGZF) members and plain members...
+            compressed.write(i % 3 == 0 ? gzip(member) : bgzf(member));
+            expected.write(member);
+        }
+        // BGZF end of file marker block...
+        compressed.write(bgzf(new byte[0]));
+
+        for (int threads = 1; threads < 4; threads++) {
+            assertArrayEquals(expected.toByteArray(), inflate(compressed.toByteArray(), threads));
+        }
+    }
+
+    @Test
+    public void test_corrupt_block() throws IOException {
+        byte[] block = bgzf(records(0, 10));
+        // Corrupt the CRC...
+        block[block.length - 8] ^= 1;
+
+        try {
+            inflate(block, 2);
+            fail("Expected ZipException.");
+        } catch (ZipException e) {
+            assertEquals("Corrupt GZIP trailer.  CRC mismatch.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void test_not_gzip() throws IOException {
+        try {
+            inflate("a|b|c".getBytes(StandardCharsets.UTF_8), 2);
+            fail("Expected ZipException.");
+        } catch (ZipException e) {
+            assertEquals("Not in GZIP format.", e.getMessage());
+        }
+    }
+
+    private byte[] inflate(byte[] compressed, int threads) throws IOException {
+        try (InputStream stream = new ConcurrentGzipInputStream(new ByteArrayInputStream(compressed), threads)) {
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+            byte[] buffer = new byte[777];
+            int count;
+            while ((count = stream.read(buffer, 0, buffer.length)) != -1) {
+                inflated.write(buffer, 0, count);
+            }
+            return inflated.toByteArray();
+        }
+    }
+
+    private static byte[] records(int start, int count) {
+        StringBuilder records = new StringBuilder();
+        for (int i = start; i < start + count; i++) {
+            records.append(i).append("|name-").append(i).append("|é\n");
+        }
+        return records.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+            gzipStream.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] bgzf(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] deflated = new byte[bytes.length + 1024];
+        int deflatedLength = deflater.deflate(deflated);
+        deflater.end();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        int blockSize = 18 + deflatedLength + 8;
+        block.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0}, 0, 16);
+        writeInt(block, blockSize - 1, 2);
+        block.write(deflated, 0, deflatedLength);
+        writeInt(block, crc.getValue(), 4);
+        writeInt(block, bytes.length, 4);
+        return block.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream stream, long value, int length) {
+        for (int i = 0; i < length; i++) {
+            stream.write((int) (value >>> (i * 8)) & 0xFF);
+        }
+    }
+}
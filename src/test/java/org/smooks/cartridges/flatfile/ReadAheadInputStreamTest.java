@@ -0,0 +1,185 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReadAheadInputStreamTest {
+
+    @Test
+    public void test_read() throws IOException {
+        byte[] bytes = new byte[10000];
+        new Random(3).nextBytes(bytes);
+
+        for (int bufferCount = 1; bufferCount < 4; bufferCount++) {
+            for (int bufferSize : new int[]{1, 7, 4096, 20000}) {
+                try (ReadAheadInputStream stream = new ReadAheadInputStream(new ByteArrayInputStream(bytes), bufferCount, bufferSize)) {
+                    assertArrayEquals(bytes, readFully(stream, 13));
+                    assertEquals(-1, stream.read());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_read_chars() throws IOException {
+        String text = "a|b|c\nd|é|f\n";
+
+        for (int bufferSize = 1; bufferSize < 14; bufferSize++) {
+            try (ReadAheadReader reader = new ReadAheadReader(new StringReader(text), 2, bufferSize)) {
+                StringWriter writer = new StringWriter();
+                char[] chars = new char[5];
+                int count;
+                while ((count = reader.read(chars, 0, chars.length)) != -1) {
+                    writer.write(chars, 0, count);
+                }
+                assertEquals(text, writer.toString());
+            }
+        }
+    }
+
+    @Test
+    public void test_read_error() throws IOException {
+        InputStream failingStream = new InputStream() {
+            private int count;
+
+            @Override
+            public int read() throws IOException {
+                if (count++ >= 4) {
+                    throw new IOException("Disk gone.");
+                }
+                return 'x';
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                bytes[offset] = (byte) read();
+                return 1;
+            }
+        };
+
+        try (ReadAheadInputStream stream = new ReadAheadInputStream(failingStream, 2, 2)) {
+            for (int i = 0; i < 4; i++) {
+                assertEquals('x', stream.read());
+            }
+            stream.read();
+            fail("Expected IOException.");
+        } catch (IOException e) {
+            assertTrue(e.getCause().getMessage().contains("Disk gone."));
+        }
+    }
+
+    @Test
+    public void test_read_error_unchecked() throws IOException {
+        InputStream failingStream = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("Not an IOException.");
+            }
+        };
+
+        try (ReadAheadInputStream stream = new ReadAheadInputStream(failingStream, 2, 2)) {
+            stream.read();
+            fail("Expected IOException.");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+    }
+
+    @Test
+    public void test_close() throws IOException, InterruptedException {
+        AtomicInteger readCount = new AtomicInteger();
+        InputStream slowStream = new InputStream() {
+            @Override
+            public int read() {
+                // A blocking read that's not interrupted...
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+                readCount.incrementAndGet();
+                return 'x';
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                bytes[offset] = (byte) read();
+                return 1;
+            }
+        };
+
+        ReadAheadInputStream stream = new ReadAheadInputStream(slowStream, 1000, 1);
+        assertEquals('x', stream.read());
+        stream.close();
+
+        // The underlying stream is no longer read once the stream is closed...
+        int closedReadCount = readCount.get();
+        Thread.sleep(100);
+        assertEquals(closedReadCount, readCount.get());
+    }
+
+    private byte[] readFully(InputStream stream, int readSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[readSize];
+        int count;
+        while ((count = stream.read(buffer, 0, buffer.length)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,189 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecordBatchTest {
+
+    private static final RecordMetaData HEADER = new RecordMetaData("header", Arrays.asList(new FieldMetaData("date"), new FieldMetaData("count")));
+    private static final RecordMetaData ITEM = new RecordMetaData("item", Arrays.asList(new FieldMetaData("sku"), new FieldMetaData("quantity"), new FieldMetaData("price")));
+
+    @Test
+    public void test_columns() {
+        RecordBatch batch = new RecordBatch();
+
+        addRecord(batch, HEADER, "20261018", "2");
+        addRecord(batch, ITEM, new StringBuilder("AB-1"), new CharSpan("|3|", 1, 2), "9.99");
+        addRecord(batch, ITEM, "CD-22", "", "0.50");
+
+        assertEquals(3, batch.size());
+        assertEquals(3, batch.getColumnCount());
+        assertEquals(2, batch.getRecordTypeCount());
+        assertSame(HEADER, batch.getRecordType(batch.getRecordTypeIds()[0]));
+        assertSame(ITEM, batch.getRecordType(batch.getRecordTypeIds()[1]));
+        assertEquals(batch.getRecordTypeIds()[1], batch.getRecordTypeIds()[2]);
+
+        assertEquals("AB-1", batch.getValue(0, 1));
+        assertEquals("3", batch.getValue(1, 1));
+        assertEquals("9.99", new String(batch.getChars(), batch.getOffsets(2)[1], batch.getLengths(2)[1]));
+
+        // The header has no third field...
+        assertNull(batch.getValue(2, 0));
+        assertTrue(batch.isNull(2, 0));
+        assertEquals(-1, batch.getOffsets(2)[0]);
+        assertTrue(batch.isNullOrEmpty(2, 0));
+
+        // The second item has an empty quantity...
+        assertFalse(batch.isNull(1, 2));
+        assertTrue(batch.isNullOrEmpty(1, 2));
+        assertEquals("", batch.getValue(1, 2));
+        assertEquals(0b100L, batch.getNullOrEmptyBitmap(1)[0]);
+        assertEquals(0b001L, batch.getNullOrEmptyBitmap(2)[0]);
+    }
+
+    @Test
+    public void test_new_column() {
+        RecordBatch batch = new RecordBatch();
+
+        addRecord(batch, HEADER, "20261018", "2");
+        addRecord(batch, HEADER, "20261019", "1");
+        addRecord(batch, ITEM, "AB-1", "3", "9.99");
+
+        // The records added before the third column was have no value for it...
+        assertTrue(batch.isNull(2, 0));
+        assertTrue(batch.isNull(2, 1));
+        assertEquals(0b011L, batch.getNullOrEmptyBitmap(2)[0]);
+        assertEquals("9.99", batch.getValue(2, 2));
+    }
+
+    @Test
+    public void test_grow() {
+        RecordBatch batch = new RecordBatch();
+
+        for (int i = 0; i < 1000; i++) {
+            if (i % 2 == 0) {
+                addRecord(batch, ITEM, "SKU-" + i, "", Integer.toString(i));
+            } else {
+                addRecord(batch, HEADER, "2026101" + (i % 10), null);
+            }
+        }
+
+        assertEquals(1000, batch.size());
+        for (int i = 0; i < 1000; i++) {
+            if (i % 2 == 0) {
+                assertEquals("SKU-" + i, batch.getValue(0, i));
+                assertTrue(batch.isNullOrEmpty(1, i));
+                assertFalse(batch.isNull(1, i));
+                assertEquals(Integer.toString(i), batch.getValue(2, i));
+            } else {
+                assertEquals("2026101" + (i % 10), batch.getValue(0, i));
+                assertTrue(batch.isNull(1, i));
+                assertTrue(batch.isNull(2, i));
+            }
+        }
+    }
+
+    @Test
+    public void test_clear() {
+        RecordBatch batch = new RecordBatch();
+
+        addRecord(batch, HEADER, "20261018", "");
+        addRecord(batch, ITEM, "AB-1", "3", "9.99");
+        batch.clear();
+        assertEquals(0, batch.size());
+
+        addRecord(batch, ITEM, "CD-22", "1", "0.50");
+        assertEquals(1, batch.size());
+        assertEquals("CD-22", batch.getValue(0, 0));
+        assertFalse(batch.isNullOrEmpty(1, 0));
+        // The record type ids are kept...
+        assertEquals(1, batch.getRecordTypeIds()[0]);
+        assertSame(ITEM, batch.getRecordType(1));
+    }
+
+    @Test
+    public void test_out_of_order() {
+        RecordBatch batch = new RecordBatch();
+
+        try {
+            batch.addValue("abc");
+            fail("Expected IllegalStateException.");
+        } catch (IllegalStateException e) {
+            assertEquals("Call to addValue() before startRecord().", e.getMessage());
+        }
+
+        batch.startRecord(HEADER);
+        try {
+            batch.startRecord(HEADER);
+            fail("Expected IllegalStateException.");
+        } catch (IllegalStateException e) {
+            assertEquals("Call to startRecord() before the previous record was ended.", e.getMessage());
+        }
+        batch.endRecord();
+
+        try {
+            batch.getValue(0, 1);
+            fail("Expected IndexOutOfBoundsException.");
+        } catch (IndexOutOfBoundsException e) {
+            assertEquals("Record: 1, Size: 1", e.getMessage());
+        }
+    }
+
+    private static void addRecord(RecordBatch batch, RecordMetaData recordMetaData, CharSequence... values) {
+        batch.startRecord(recordMetaData);
+        for (CharSequence value : values) {
+            batch.addValue(value);
+        }
+        batch.endRecord();
+    }
+}
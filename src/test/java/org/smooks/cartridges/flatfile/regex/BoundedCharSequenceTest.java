@@ -0,0 +1,122 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.junit.Test;
+import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.cartridges.flatfile.Record;
+import org.smooks.cartridges.flatfile.variablefield.VariableFieldRecordMetaData;
+import org.smooks.engine.resource.config.DefaultResourceConfig;
+import org.xml.sax.InputSource;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class BoundedCharSequenceTest {
+
+    @Test
+    public void test_charAt() {
+        BoundedCharSequence sequence = new BoundedCharSequence().reset("abc", 2);
+        assertEquals(3, sequence.length());
+        assertEquals('a', sequence.charAt(0));
+        assertEquals('a', sequence.charAt(0));
+        try {
+            sequence.charAt(1);
+            fail("Expected StepBudgetExceededException.");
+        } catch (BoundedCharSequence.StepBudgetExceededException e) {
+            assertEquals("Match step budget exceeded.", e.getMessage());
+        }
+
+        // The budget is reset with the sequence...
+        sequence.reset("xyz", 3);
+        assertEquals('z', sequence.charAt(2));
+        assertEquals("xyz", sequence.toString());
+    }
+
+    @Test(timeout = 30000)
+    @SuppressWarnings("unchecked")
+    public void test_catastrophic_backtracking() throws IOException {
+        ResourceConfig resourceConfig = new DefaultResourceConfig();
+        resourceConfig.setParameter("fields", "value");
+        resourceConfig.setParameter("regexPattern", "(a+)+b");
+        resourceConfig.setParameter("maxMatchSteps", "100000");
+        RegexParserFactory factory = RegexParserFactoryTest.newFactory(resourceConfig);
+
+        // The matcher backtracks through the long run of 'a's of the second record, well past the budget, before
+        // ruling it out.  The record holds the required 'b', so it gets as far as the matcher...
+        StringBuilder runaway = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            runaway.append('a');
+        }
+        runaway.append("cb");
+
+        RegexParser<RegexParserFactory> recordParser = (RegexParser<RegexParserFactory>) factory.newRecordParser();
+        recordParser.setRecordParserFactory(factory);
+        recordParser.setDataSource(new InputSource(new StringReader("aab\n" + runaway + "\nab\n")));
+        recordParser.initialize();
+
+        Record record = recordParser.nextRecord();
+        assertEquals("record", record.getName());
+        assertEquals("aa", record.getFields().get(0).getValue());
+        assertEquals(0, recordParser.getOverBudgetRecordCount());
+
+        // Cut off, and passed on unmatched...
+        record = recordParser.nextRecord();
+        assertEquals(VariableFieldRecordMetaData.UNKNOWN_RECORD_TYPE.getName(), record.getName());
+        assertEquals(runaway.toString(), record.getFields().get(0).getValue());
+        assertEquals(1, recordParser.getOverBudgetRecordCount());
+
+        // ... and the next record still matches...
+        record = recordParser.nextRecord();
+        assertEquals("record", record.getName());
+        assertEquals("a", record.getFields().get(0).getValue());
+        assertEquals(1, recordParser.getOverBudgetRecordCount());
+
+        assertNull(recordParser.nextRecord());
+        recordParser.uninitialize();
+    }
+}
@@ -0,0 +1,248 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DfaMatchingEngineTest {
+
+    private static final int FLAGS = Pattern.MULTILINE | Pattern.DOTALL;
+
+    private final DfaMatchingEngine engine = new DfaMatchingEngine();
+
+    @Test
+    public void test_supported() {
+        assertSupported("^([a-z])\\|([a-z])\\|([a-z])$");
+        assertSupported("^([a-z]+)\\|([\\w ]+)\\|([\\w ]+)$");
+        assertSupported("([\\d:\\./ ]+) ([AB])(\\d{1,2}) : EVENT=(\\w+), E_ID=(\\d+), D_ID=D(\\d+), M_ID=M([\\d]+), R=(\\d+)|([\\d:\\./ ]+) ([AB])(\\d{1,2}) : EVENT=(\\w+)");
+        assertSupported("(?<type>[^|]*)\\|(.*?)\\|(?:x|y)+\\t\\x41\\u00e9");
+
+        assertUnsupported("(a)\\1");
+        assertUnsupported("(?=a)(a)");
+        assertUnsupported("\\b(a)");
+        assertUnsupported("(a*+)");
+        assertUnsupported("(a*)*");
+        assertUnsupported("(?i)(a)");
+        assertUnsupported("(a)^");
+        assertUnsupported("([a-z&&[^e]])");
+        assertNull(engine.compile(Pattern.compile("(a)", Pattern.CASE_INSENSITIVE)));
+    }
+
+    @Test
+    public void test_matches() {
+        MatchingEngine.PatternMatcher matcher = engine.compile(Pattern.compile("^([a-z]+)\\|(?:([0-9]+)|([A-Z]+))\\|(.*?)(x*)$", FLAGS)).matcher();
+
+        assertTrue(matcher.matches("abc|123|zzxx"));
+        assertEquals("abc|123|zzxx", matcher.group(0));
+        assertEquals("abc", matcher.group(1));
+        assertEquals("123", matcher.group(2));
+        assertNull(matcher.group(3));
+        assertEquals(-1, matcher.start(3));
+        assertEquals(-1, matcher.end(3));
+        assertEquals("zz", matcher.group(4));
+        assertEquals(8, matcher.start(4));
+        assertEquals(10, matcher.end(4));
+        assertEquals("xx", matcher.group(5));
+
+        assertFalse(matcher.matches("abc|123"));
+        assertTrue(matcher.matches(new StringBuilder("a|B|\n")));
+        assertEquals("B", matcher.group(3));
+        assertEquals("\n", matcher.group(4));
+    }
+
+    @Test
+    public void test_supplementary_chars() {
+        assertSameMatch(Pattern.compile("(.)(.)?", FLAGS), "\uD83D\uDE00");
+        assertSameMatch(Pattern.compile("([^a])b", FLAGS), "\uD83D\uDE00b");
+    }
+
+    @Test
+    public void test_state_cache_reset() {
+        // Each record reaches a different set of states... more than the cache holds...
+        Pattern pattern = Pattern.compile("([ab]*)a[ab]{12}", FLAGS);
+        MatchingEngine.PatternMatcher matcher = engine.compile(pattern).matcher();
+        Random random = new Random(3);
+
+        for (int i = 0; i < 500; i++) {
+            String input = randomString(random, "ab", 40);
+            assertEquals(input, pattern.matcher(input).matches(), matcher.matches(input));
+        }
+    }
+
+    @Test
+    public void test_suite_patterns() {
+        // The grouped regexPatterns configured across the parser tests, against records like theirs...
+        String[] inputs = {"a|b|c", "ab|cd|ef", "gh|ij|kl|x", "bad", "a|b", "a|b|c|d", "", "|", "||", "abc|def ghi|jkl", "1|Tom Fennelly|Ireland",
+                "2012/01/01 00:00:00 A1 : EVENT=START, E_ID=1, D_ID=D2, M_ID=M3, R=4", "2012/01/01 00:00:00 B12 : EVENT=STOP", "aaaaaaaaaaaaaaaaaaaaaaaa|b!", "aaaaa|b"};
+        String[] regexes = {"^([a-z])\\|([a-z])\\|([a-z])$", "^([a-z]+)\\|([a-z]+)\\|([a-z]+)(?:\\|(x))?$", "^([a-z]+)\\|([\\w ]+)\\|([\\w ]+)$",
+                "^[0-9]+\\|([\\w ]+)\\|([\\w ]+)$", "^(.*a.*a.*a.*a.*a)\\|(b)$",
+                "([\\d:\\./ ]+) ([AB])(\\d{1,2}) : EVENT=(\\w+), E_ID=(\\d+), D_ID=D(\\d+), M_ID=M([\\d]+), R=(\\d+)|([\\d:\\./ ]+) ([AB])(\\d{1,2}) : EVENT=(\\w+)",
+                "(?<recordType0>HDR:([0-9]{8}):([0-9]+))|(?<recordType1>([A-Z]+-[0-9]+),([0-9]+),([0-9.]+))"};
+
+        for (String regex : regexes) {
+            Pattern pattern = Pattern.compile(regex, FLAGS);
+            for (String input : inputs) {
+                assertSameMatch(pattern, input);
+            }
+        }
+    }
+
+    @Test
+    public void test_random_patterns() {
+        Random random = new Random(11);
+        int compiled = 0;
+
+        for (int i = 0; i < 2000; i++) {
+            Pattern pattern = Pattern.compile(randomRegex(random, 3), FLAGS);
+            if (engine.compile(pattern) == null) {
+                continue;
+            }
+            compiled++;
+            for (int j = 0; j < 30; j++) {
+                assertSameMatch(pattern, randomString(random, "ab1-", 8));
+            }
+        }
+        assertTrue("Compiled " + compiled, compiled > 1000);
+    }
+
+    private void assertSameMatch(Pattern pattern, String input) {
+        MatchingEngine.CompiledPattern compiledPattern = engine.compile(pattern);
+        assertNotNull(pattern.pattern(), compiledPattern);
+        MatchingEngine.PatternMatcher matcher = compiledPattern.matcher();
+        Matcher expected = pattern.matcher(input);
+        String message = "Pattern '" + pattern.pattern() + "', input '" + input + "'";
+
+        assertEquals(message, expected.matches(), matcher.matches(input));
+        if (expected.matches()) {
+            for (int group = 0; group <= expected.groupCount(); group++) {
+                assertEquals(message + ", group " + group, expected.group(group), matcher.group(group));
+                assertEquals(message + ", group " + group + " start", expected.start(group), matcher.start(group));
+                assertEquals(message + ", group " + group + " end", expected.end(group), matcher.end(group));
+            }
+        }
+    }
+
+    private static String randomRegex(Random random, int depth) {
+        StringBuilder regex = new StringBuilder();
+        int terms = 1 + random.nextInt(3);
+
+        for (int i = 0; i < terms; i++) {
+            int kind = random.nextInt(depth > 0 ? 9 : 5);
+            switch (kind) {
+                case 0:
+                    regex.append("ab1".charAt(random.nextInt(3)));
+                    break;
+                case 1:
+                    regex.append(random.nextBoolean() ? "[ab]" : "[^a]");
+                    break;
+                case 2:
+                    regex.append(random.nextBoolean() ? "." : "\\d");
+                    break;
+                case 3:
+                    regex.append(random.nextBoolean() ? "\\-" : "[a-b1]");
+                    break;
+                case 4:
+                    regex.append("b");
+                    break;
+                case 5:
+                case 6:
+                    regex.append('(').append(randomRegex(random, depth - 1)).append(')');
+                    break;
+                case 7:
+                    regex.append("(?:").append(randomRegex(random, depth - 1)).append('|').append(randomRegex(random, depth - 1)).append(')');
+                    break;
+                default:
+                    regex.append('(').append(randomRegex(random, depth - 1)).append('|').append(randomRegex(random, depth - 1)).append(')');
+            }
+
+            switch (random.nextInt(8)) {
+                case 0:
+                    regex.append('*');
+                    break;
+                case 1:
+                    regex.append('+');
+                    break;
+                case 2:
+                    regex.append('?');
+                    break;
+                case 3:
+                    regex.append("{1,2}");
+                    break;
+                default:
+                    continue;
+            }
+            if (random.nextInt(3) == 0) {
+                regex.append('?');
+            }
+        }
+
+        return regex.toString();
+    }
+
+    private static String randomString(Random random, String alphabet, int maxLength) {
+        StringBuilder string = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            string.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return string.toString();
+    }
+
+    private void assertSupported(String regex) {
+        assertNotNull(regex, engine.compile(Pattern.compile(regex, FLAGS)));
+    }
+
+    private void assertUnsupported(String regex) {
+        assertNull(regex, engine.compile(Pattern.compile(regex, FLAGS)));
+    }
+}
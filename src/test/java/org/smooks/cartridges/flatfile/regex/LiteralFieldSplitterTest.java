@@ -0,0 +1,137 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class LiteralFieldSplitterTest {
+
+    @Test
+    public void test_toLiteral() {
+        assertEquals("|", LiteralFieldSplitter.toLiteral("\\|"));
+        assertEquals(",", LiteralFieldSplitter.toLiteral(","));
+        assertEquals("\t", LiteralFieldSplitter.toLiteral("\\t"));
+        assertEquals("::", LiteralFieldSplitter.toLiteral("::"));
+        assertEquals("a.b", LiteralFieldSplitter.toLiteral("a\\.b"));
+        assertEquals("|*|", LiteralFieldSplitter.toLiteral(Pattern.quote("|*|")));
+
+        assertNull(LiteralFieldSplitter.toLiteral("a|b"));
+        assertNull(LiteralFieldSplitter.toLiteral(",+"));
+        assertNull(LiteralFieldSplitter.toLiteral("\\s"));
+        assertNull(LiteralFieldSplitter.toLiteral("[,;]"));
+        assertNull(LiteralFieldSplitter.toLiteral("\\"));
+    }
+
+    @Test
+    public void test_forPattern() {
+        assertNotNull(LiteralFieldSplitter.forPattern(Pattern.compile("\\|", (Pattern.MULTILINE | Pattern.DOTALL))));
+        assertNull(LiteralFieldSplitter.forPattern(Pattern.compile("")));
+        assertNull(LiteralFieldSplitter.forPattern(Pattern.compile("x", Pattern.CASE_INSENSITIVE)));
+        assertNull(LiteralFieldSplitter.forPattern(Pattern.compile("(a)")));
+    }
+
+    @Test
+    public void test_split() {
+        for (String delimiter : new String[]{"|", ",", "\t", "::", "aba"}) {
+            Pattern pattern = Pattern.compile(Pattern.quote(delimiter), (Pattern.MULTILINE | Pattern.DOTALL));
+            LiteralFieldSplitter splitter = LiteralFieldSplitter.forPattern(pattern);
+            assertEquals(delimiter, splitter.getDelimiter());
+
+            for (String record : new String[]{"", delimiter, delimiter + delimiter, "a", delimiter + "a", "a" + delimiter,
+                    "a" + delimiter + delimiter + "b" + delimiter + delimiter, "ababababa"}) {
+                assertSplit(pattern, splitter, record);
+            }
+        }
+    }
+
+    @Test
+    public void test_split_random() {
+        Random random = new Random(7);
+        for (String delimiter : new String[]{"|", "::", "aba"}) {
+            Pattern pattern = Pattern.compile(Pattern.quote(delimiter), (Pattern.MULTILINE | Pattern.DOTALL));
+            LiteralFieldSplitter splitter = LiteralFieldSplitter.forPattern(pattern);
+
+            for (int i = 0; i < 1000; i++) {
+                StringBuilder record = new StringBuilder();
+                int length = random.nextInt(20);
+                for (int j = 0; j < length; j++) {
+                    record.append("ab|:".charAt(random.nextInt(4)));
+                }
+                assertSplit(pattern, splitter, record.toString());
+            }
+        }
+    }
+
+    @Test
+    public void test_split_maxFields() {
+        Random random = new Random(11);
+        for (String delimiter : new String[]{"|", "::", "aba"}) {
+            Pattern pattern = Pattern.compile(Pattern.quote(delimiter), (Pattern.MULTILINE | Pattern.DOTALL));
+            LiteralFieldSplitter splitter = LiteralFieldSplitter.forPattern(pattern);
+
+            for (int i = 0; i < 1000; i++) {
+                StringBuilder record = new StringBuilder();
+                int length = random.nextInt(20);
+                for (int j = 0; j < length; j++) {
+                    record.append("ab|:".charAt(random.nextInt(4)));
+                }
+                int maxFields = 1 + random.nextInt(4);
+                List<String> fields = Arrays.asList(pattern.split(record));
+                assertEquals("Record '" + record + "', maxFields " + maxFields, fields.subList(0, Math.min(maxFields, fields.size())), splitter.split(record, maxFields));
+            }
+        }
+    }
+
+    private void assertSplit(Pattern pattern, LiteralFieldSplitter splitter, String record) {
+        assertEquals("Record '" + record + "'", Arrays.asList(pattern.split(record)), splitter.split(new StringBuilder(record)));
+    }
+}
@@ -0,0 +1,192 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PatternOptimizerTest {
+
+    private static final int FLAGS = Pattern.MULTILINE | Pattern.DOTALL;
+
+    @Test
+    public void test_optimize() {
+        assertOptimized("^([^|]*+)\\|([^|]*+)\\|(.*+)$", "^([^|]*)\\|([^|]*)\\|(.*)$");
+        assertOptimized("(\\d++) ((?>GET|PUT|DELETE)) (\\S++)", "(\\d+) (GET|PUT|DELETE) (\\S+)");
+        assertOptimized("(?>a|b)c*+", "(?:a|b)c*");
+        assertOptimized("([a-z]*)(a)", "([a-z]*)(a)");
+        assertOptimized("(\\w+)\\w", "(\\w+)\\w");
+        assertOptimized("(?:ab|ac)", "(?:ab|ac)");
+        assertOptimized("(?:a++b)*", "(?:a+b)*");
+        assertOptimized("(\\w*+)[\\n]?+$", "(\\w*)[\\n]?$");
+
+        // A $ can match before a line terminator, other than at the end of a whole input match...
+        assertEquals("([^|]*)$", PatternOptimizer.optimize(Pattern.compile("(a|b)([^|]*)$", FLAGS), false).pattern().substring(9));
+        assertOptimized("a*?b*+", "a*?b*");
+        assertOptimized("(?:a*+b)*", "(?:a*b)*");
+
+        // Unchanged or unsupported...
+        assertNull(PatternOptimizer.optimize(Pattern.compile("([a-z]*)(a)", FLAGS), true));
+        assertNull(PatternOptimizer.optimize(Pattern.compile("(a)\\1*", FLAGS), true));
+    }
+
+    @Test
+    public void test_random_patterns() {
+        Random random = new Random(17);
+        int rewritten = 0;
+
+        for (int i = 0; i < 3000; i++) {
+            Pattern pattern = Pattern.compile(randomRegex(random, 3), FLAGS);
+            Pattern matchOptimized = PatternOptimizer.optimize(pattern, true);
+            Pattern splitOptimized = PatternOptimizer.optimize(pattern, false);
+            if (matchOptimized == null) {
+                continue;
+            }
+            rewritten++;
+            for (int j = 0; j < 40; j++) {
+                String input = randomString(random, 10);
+                String message = "Pattern '" + pattern.pattern() + "' rewritten as '" + matchOptimized.pattern() + "', input '" + input + "'";
+
+                Matcher expected = pattern.matcher(input);
+                Matcher actual = matchOptimized.matcher(input);
+                assertEquals(message, expected.matches(), actual.matches());
+                if (expected.matches()) {
+                    for (int group = 0; group <= expected.groupCount(); group++) {
+                        assertEquals(message + ", group " + group, expected.group(group), actual.group(group));
+                    }
+                }
+                if (splitOptimized != null) {
+                    message = "Pattern '" + pattern.pattern() + "' rewritten as '" + splitOptimized.pattern() + "', input '" + input + "'";
+                    assertEquals(message, Arrays.asList(pattern.split(input)), Arrays.asList(splitOptimized.split(input)));
+                }
+            }
+        }
+        assertTrue("Rewritten " + rewritten, rewritten > 800);
+    }
+
+    private void assertOptimized(String expected, String regex) {
+        Pattern optimized = PatternOptimizer.optimize(Pattern.compile(regex, FLAGS), true);
+        assertEquals(expected, (optimized != null ? optimized.pattern() : regex));
+    }
+
+    private static String randomRegex(Random random, int depth) {
+        StringBuilder regex = new StringBuilder();
+        int terms = 1 + random.nextInt(4);
+
+        for (int i = 0; i < terms; i++) {
+            switch (random.nextInt(depth > 0 ? 9 : 5)) {
+                case 0:
+                    regex.append("ab|".charAt(random.nextInt(3)) == '|' ? "\\|" : String.valueOf("ab".charAt(random.nextInt(2))));
+                    break;
+                case 1:
+                    regex.append(random.nextBoolean() ? "[^|]" : "[ab]");
+                    break;
+                case 2:
+                    regex.append(random.nextBoolean() ? "." : "\\d");
+                    break;
+                case 3:
+                    regex.append(random.nextBoolean() ? "\\w" : "[a1]");
+                    break;
+                case 4:
+                    regex.append(random.nextBoolean() ? "1" : "b");
+                    break;
+                case 5:
+                    regex.append('(').append(randomRegex(random, depth - 1)).append(')');
+                    break;
+                case 6:
+                    regex.append(random.nextBoolean() ? "(?:ab|ba|1)" : "(a1|b)");
+                    break;
+                case 7:
+                    regex.append("(?:").append(randomRegex(random, depth - 1)).append('|').append(randomRegex(random, depth - 1)).append(')');
+                    break;
+                default:
+                    regex.append('(').append(randomRegex(random, depth - 1)).append('|').append(randomRegex(random, depth - 1)).append(')');
+            }
+
+            switch (random.nextInt(7)) {
+                case 0:
+                    regex.append('*');
+                    break;
+                case 1:
+                    regex.append('+');
+                    break;
+                case 2:
+                    regex.append('?');
+                    break;
+                case 3:
+                    regex.append("{1,3}");
+                    break;
+                default:
+                    continue;
+            }
+            if (random.nextInt(4) == 0) {
+                regex.append('?');
+            }
+        }
+
+        if (random.nextInt(4) == 0) {
+            regex.insert(0, '^');
+        }
+        if (random.nextInt(4) == 0) {
+            regex.append('$');
+        }
+        return regex.toString();
+    }
+
+    private static String randomString(Random random, int maxLength) {
+        StringBuilder string = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            string.append("ab1|\n".charAt(random.nextInt(5)));
+        }
+        return string.toString();
+    }
+}
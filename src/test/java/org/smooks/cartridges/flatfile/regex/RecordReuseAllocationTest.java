@@ -0,0 +1,196 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.cartridges.flatfile.Field;
+import org.smooks.cartridges.flatfile.Record;
+import org.smooks.cartridges.flatfile.RecordBatch;
+import org.smooks.cartridges.flatfile.RecordParser;
+import org.smooks.engine.resource.config.DefaultResourceConfig;
+import org.xml.sax.InputSource;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RecordReuseAllocationTest {
+
+    private static final String RECORD = "abc|defg|hi|jklmn\n";
+    private static final int WARM_UP_RECORDS = 200000;
+    private static final int MEASURED_RECORDS = 200000;
+    private static final int BATCH_SIZE = 1000;
+    // Fixed, whatever the number of records... e.g. for buffers grown while parsing...
+    private static final long MAX_ALLOCATED_BYTES = 64 * 1024;
+
+    @Test
+    public void test_reuseRecords() throws IOException {
+        com.sun.management.ThreadMXBean threadMXBean = getThreadMXBean();
+        RecordParser<RegexParserFactory> recordParser = newRecordParser(true);
+        recordParser.setDataSource(new InputSource(new RepeatingReader(RECORD, WARM_UP_RECORDS + MEASURED_RECORDS)));
+        recordParser.initialize();
+
+        Record firstRecord = recordParser.nextRecord();
+        Field firstField = firstRecord.getFields().get(0);
+        for (int i = 1; i < WARM_UP_RECORDS; i++) {
+            assertSame(firstRecord, recordParser.nextRecord());
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        int valueChars = 0;
+        for (int i = 0; i < MEASURED_RECORDS; i++) {
+            Record record = recordParser.nextRecord();
+            List<Field> fields = record.getFields();
+            for (int j = 0; j < fields.size(); j++) {
+                valueChars += fields.get(j).getValueChars().length();
+            }
+        }
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertEquals(MEASURED_RECORDS * 10, valueChars);
+        assertSame(firstField, firstRecord.getFields().get(0));
+        assertEquals("jklmn", firstRecord.getFields().get(2).getValue());
+        assertTrue("Allocated " + allocatedBytes + " bytes for " + MEASURED_RECORDS + " records.", allocatedBytes < MAX_ALLOCATED_BYTES);
+        assertEquals(null, recordParser.nextRecord());
+        recordParser.uninitialize();
+    }
+
+    @Test
+    public void test_reuseBatch() throws IOException {
+        com.sun.management.ThreadMXBean threadMXBean = getThreadMXBean();
+        RecordParser<RegexParserFactory> recordParser = newRecordParser(false);
+        recordParser.setDataSource(new InputSource(new RepeatingReader(RECORD, WARM_UP_RECORDS + MEASURED_RECORDS)));
+        recordParser.initialize();
+
+        RecordBatch firstBatch = recordParser.nextBatch(BATCH_SIZE);
+        for (int i = BATCH_SIZE; i < WARM_UP_RECORDS; i += BATCH_SIZE) {
+            assertSame(firstBatch, recordParser.nextBatch(BATCH_SIZE));
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        int valueChars = 0;
+        for (int i = 0; i < MEASURED_RECORDS; i += BATCH_SIZE) {
+            RecordBatch batch = recordParser.nextBatch(BATCH_SIZE);
+            for (int column = 0; column < batch.getColumnCount(); column++) {
+                int[] lengths = batch.getLengths(column);
+                for (int j = 0; j < batch.size(); j++) {
+                    valueChars += lengths[j];
+                }
+            }
+        }
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertEquals(MEASURED_RECORDS * 10, valueChars);
+        assertEquals("jklmn", firstBatch.getValue(2, BATCH_SIZE - 1));
+        assertTrue("Allocated " + allocatedBytes + " bytes for " + MEASURED_RECORDS + " records.", allocatedBytes < MAX_ALLOCATED_BYTES);
+        assertNull(recordParser.nextBatch(BATCH_SIZE));
+        recordParser.uninitialize();
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+        return threadMXBean;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RecordParser<RegexParserFactory> newRecordParser(boolean bufferBackedFieldValues) {
+        ResourceConfig resourceConfig = new DefaultResourceConfig();
+        resourceConfig.setParameter("fields", "first,$ignore$,third,fourth");
+        resourceConfig.setParameter("regexPattern", "([a-z]+)\\|([a-z]+)\\|([a-z]+)\\|([a-z]+)");
+        resourceConfig.setParameter("bufferBackedFieldValues", Boolean.toString(bufferBackedFieldValues));
+        resourceConfig.setParameter("reuseRecords", "true");
+
+        RegexParserFactory factory = RegexParserFactoryTest.newFactory(resourceConfig);
+
+        RecordParser<RegexParserFactory> recordParser = factory.newRecordParser();
+        assertNotNull(recordParser);
+        recordParser.setRecordParserFactory(factory);
+        return recordParser;
+    }
+
+    /**
+     * Reads the same record over and over, without allocating.
+     */
+    private static final class RepeatingReader extends Reader {
+
+        private final char[] record;
+        private long remaining;
+        private int position;
+
+        private RepeatingReader(String record, int count) {
+            this.record = record.toCharArray();
+            this.remaining = (long) record.length() * count;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int count = (int) Math.min(length, remaining);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = record[position];
+                position = (position + 1) % record.length;
+            }
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
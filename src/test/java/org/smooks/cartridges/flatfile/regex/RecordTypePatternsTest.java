@@ -0,0 +1,152 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.junit.Test;
+import org.smooks.api.SmooksConfigException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecordTypePatternsTest {
+
+    @Test
+    public void test_combine() {
+        Map<String, String> typePatterns = new LinkedHashMap<String, String>();
+        typePatterns.put("header", "HDR\\|(.*)");
+        typePatterns.put("marker", "---");
+        typePatterns.put("item", "(?:(x)|([a-z]+))\\|(\\d+)");
+
+        RecordTypePatterns recordTypePatterns = RecordTypePatterns.combine(typePatterns);
+        assertEquals("(?<recordType0>HDR\\|(.*))|(?<recordType1>---)|(?<recordType2>(?:(x)|([a-z]+))\\|(\\d+))", recordTypePatterns.getRegex());
+        assertEquals(2, recordTypePatterns.getFirstFieldGroup(0));
+        assertEquals(1, recordTypePatterns.getFieldGroupCount(0));
+        assertEquals(0, recordTypePatterns.getFieldGroupCount(1));
+        assertEquals(5, recordTypePatterns.getFirstFieldGroup(2));
+        assertEquals(3, recordTypePatterns.getFieldGroupCount(2));
+
+        Pattern pattern = Pattern.compile(recordTypePatterns.getRegex(), (Pattern.MULTILINE | Pattern.DOTALL));
+        for (MatchingEngine matchingEngine : new MatchingEngine[]{new DfaMatchingEngine(), new JdkMatchingEngine()}) {
+            MatchingEngine.CompiledPattern compiledPattern = matchingEngine.compile(pattern);
+            assertNotNull(matchingEngine.getName(), compiledPattern);
+            MatchingEngine.PatternMatcher matcher = compiledPattern.matcher();
+
+            assertTrue(matcher.matches("HDR|a|b"));
+            assertEquals("header", recordTypePatterns.getRecordTypeName(recordTypePatterns.getMatchedRecordType(matcher)));
+            assertEquals("a|b", matcher.group(2));
+
+            assertTrue(matcher.matches("---"));
+            assertEquals("marker", recordTypePatterns.getRecordTypeName(recordTypePatterns.getMatchedRecordType(matcher)));
+
+            assertTrue(matcher.matches("abc|42"));
+            assertEquals("item", recordTypePatterns.getRecordTypeName(recordTypePatterns.getMatchedRecordType(matcher)));
+            assertNull(matcher.group(5));
+            assertEquals("abc", matcher.group(6));
+            assertEquals("42", matcher.group(7));
+
+            assertFalse(matcher.matches("abc|x"));
+        }
+    }
+
+    @Test
+    public void test_backreferences() {
+        Map<String, String> typePatterns = new LinkedHashMap<String, String>();
+        typePatterns.put("header", "HDR\\|(.*)");
+        typePatterns.put("item", "([a-z])\\|\\1\\|(\\d+)");
+
+        try {
+            RecordTypePatterns.combine(typePatterns);
+            fail("Expected SmooksConfigException.");
+        } catch (SmooksConfigException e) {
+            assertEquals("Invalid 'regexPattern.item' pattern '([a-z])\\|\\1\\|(\\d+)'.  Numeric backreferences are not supported, as the record type patterns are renumbered when they're combined.  Use a named group and backreference (\\k<name>).", e.getMessage());
+        }
+
+        // Escaped backslashes and digits, quoted digits and octal escapes aren't backreferences...
+        typePatterns.put("item", "(x)\\\\1\\Q\\1\\E\\01");
+        assertEquals(1, RecordTypePatterns.combine(typePatterns).getFieldGroupCount(1));
+
+        // Named backreferences still refer to their group...
+        typePatterns.put("item", "(?<sku>[a-z])\\|\\k<sku>\\|(\\d+)");
+        RecordTypePatterns recordTypePatterns = RecordTypePatterns.combine(typePatterns);
+        MatchingEngine.PatternMatcher matcher = new JdkMatchingEngine().compile(Pattern.compile(recordTypePatterns.getRegex(), (Pattern.MULTILINE | Pattern.DOTALL))).matcher();
+        assertTrue(matcher.matches("a|a|42"));
+        assertEquals("item", recordTypePatterns.getRecordTypeName(recordTypePatterns.getMatchedRecordType(matcher)));
+        assertFalse(matcher.matches("a|b|42"));
+    }
+
+    @Test
+    public void test_group_names() {
+        Map<String, String> typePatterns = new LinkedHashMap<String, String>();
+        typePatterns.put("header", "(?<code>HDR)\\|(.*)");
+        typePatterns.put("item", "(?<code>DTL)\\|(.*)");
+
+        try {
+            RecordTypePatterns.combine(typePatterns);
+            fail("Expected SmooksConfigException.");
+        } catch (SmooksConfigException e) {
+            assertEquals("Invalid 'regexPattern.item' pattern '(?<code>DTL)\\|(.*)'.  Group name 'code' is already defined in the 'regexPattern.header' pattern.  Group names must be unique across the record type patterns, as they're combined into one pattern.", e.getMessage());
+        }
+
+        typePatterns.put("item", "(?<recordType1>DTL)\\|(.*)");
+        try {
+            RecordTypePatterns.combine(typePatterns);
+            fail("Expected SmooksConfigException.");
+        } catch (SmooksConfigException e) {
+            assertEquals("Invalid 'regexPattern.item' pattern '(?<recordType1>DTL)\\|(.*)'.  Group name 'recordType1' is reserved.  Group names starting with 'recordType' name the groups wrapping the record type patterns when they're combined.", e.getMessage());
+        }
+
+        // Lookbehinds, quoted and escaped text and character classes don't define group names...
+        typePatterns.put("item", "(?<=x)(?<!y)\\Q(?<code>\\E\\(?<code>[(?<code>]\\|(?<itemCode>DTL)");
+        RecordTypePatterns recordTypePatterns = RecordTypePatterns.combine(typePatterns);
+        assertEquals(1, recordTypePatterns.getFieldGroupCount(1));
+        Pattern.compile(recordTypePatterns.getRegex());
+    }
+}
@@ -0,0 +1,307 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.junit.Test;
+import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.cartridges.flatfile.Field;
+import org.smooks.cartridges.flatfile.Record;
+import org.smooks.cartridges.flatfile.RecordBatch;
+import org.smooks.cartridges.flatfile.RecordParser;
+import org.smooks.cartridges.flatfile.SpilledValue;
+import org.smooks.engine.resource.config.DefaultResourceConfig;
+import org.xml.sax.InputSource;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RegexParserBatchTest {
+
+    private static final String MULTI_TYPE_INPUT = "HDR:20261018:3\nAB-1,3,9.99\nCD-22,,0.50\n???\nEF-3,1,2.00\n";
+    private static final String SPILL_INPUT = "a|b\nd|e|f|g\nh";
+    private static final String SPLIT_INPUT = "a|b|c\nd||f\ng\nh|i|j|k|l\n";
+
+    @Test
+    public void test_nextBatch_multiType() throws IOException {
+        RecordParser<RegexParserFactory> recordParser = newRecordParser(newMultiTypeConfig(false), MULTI_TYPE_INPUT);
+
+        RecordBatch batch = recordParser.nextBatch(3);
+        assertEquals(3, batch.size());
+        assertEquals(3, batch.getColumnCount());
+        assertEquals("header", batch.getRecordType(batch.getRecordTypeIds()[0]).getName());
+        assertEquals("item", batch.getRecordType(batch.getRecordTypeIds()[1]).getName());
+        assertEquals(batch.getRecordTypeIds()[1], batch.getRecordTypeIds()[2]);
+        assertEquals("20261018", batch.getValue(0, 0));
+        assertEquals("3", batch.getValue(1, 0));
+        assertTrue(batch.isNull(2, 0));
+        assertEquals("AB-1", batch.getValue(0, 1));
+        assertEquals("9.99", batch.getValue(2, 1));
+        assertFalse(batch.isNull(1, 2));
+        assertTrue(batch.isNullOrEmpty(1, 2));
+
+        RecordBatch nextBatch = recordParser.nextBatch(3);
+        assertEquals(2, nextBatch.size());
+        assertEquals("UNMATCHED", nextBatch.getRecordType(nextBatch.getRecordTypeIds()[0]).getName());
+        assertEquals("???", nextBatch.getValue(0, 0));
+        assertTrue(nextBatch.isNull(1, 0));
+        assertEquals("EF-3", nextBatch.getValue(0, 1));
+
+        assertNull(recordParser.nextBatch(3));
+        recordParser.uninitialize();
+    }
+
+    @Test
+    public void test_nextBatch_reuseRecords() throws IOException {
+        RecordParser<RegexParserFactory> recordParser = newRecordParser(newMultiTypeConfig(true), MULTI_TYPE_INPUT);
+
+        RecordBatch batch = recordParser.nextBatch(3);
+        assertEquals("CD-22", batch.getValue(0, 2));
+        assertSame(batch, recordParser.nextBatch(3));
+        assertEquals(2, batch.size());
+        assertEquals("EF-3", batch.getValue(0, 1));
+        assertEquals("item", batch.getRecordType(batch.getRecordTypeIds()[1]).getName());
+        recordParser.uninitialize();
+    }
+
+    @Test
+    public void test_nextBatch_nextRecord_split() throws IOException {
+        assertBatchesMatchRecords(newSplitConfig(), SPLIT_INPUT);
+    }
+
+    @Test
+    public void test_nextBatch_nextRecord_multiType() throws IOException {
+        ResourceConfig resourceConfig = newMultiTypeConfig(false);
+        resourceConfig.setParameter("lazyFieldValues", "true");
+        assertBatchesMatchRecords(resourceConfig, MULTI_TYPE_INPUT);
+    }
+
+    @Test
+    public void test_nextBatch_spilled() throws IOException {
+        RecordParser<RegexParserFactory> recordParser = newRecordParser(newSpillConfig(), SPILL_INPUT);
+
+        RecordBatch batch = recordParser.nextBatch(2);
+        assertEquals(2, batch.size());
+        assertEquals("a", batch.getValue(0, 0));
+        assertSpilled(batch, 1);
+        SpilledValue spilledValue = batch.getSpilledValue(0, 1);
+
+        // The spill file is deleted on the next call...
+        batch = recordParser.nextBatch(2);
+        assertEquals(1, batch.size());
+        assertEquals("h", batch.getValue(0, 0));
+        assertDeleted(spilledValue);
+        assertNull(recordParser.nextBatch(2));
+        recordParser.uninitialize();
+    }
+
+    @Test
+    public void test_nextBatch_spilled_uninitialize() throws IOException {
+        RecordParser<RegexParserFactory> recordParser = newRecordParser(newSpillConfig(), SPILL_INPUT);
+
+        RecordBatch batch = recordParser.nextBatch(5);
+        assertSpilled(batch, 1);
+        SpilledValue spilledValue = batch.getSpilledValue(0, 1);
+
+        recordParser.uninitialize();
+        assertDeleted(spilledValue);
+    }
+
+    @Test
+    public void test_default_nextBatch_spilled() throws IOException {
+        RecordParser<RegexParserFactory> regexParser = newRecordParser(newSpillConfig(), SPILL_INPUT);
+        // A parser that only implements nextRecord()...
+        RecordParser<RegexParserFactory> recordParser = new RecordParser<RegexParserFactory>() {
+            public void setRecordParserFactory(RegexParserFactory factory) {
+            }
+
+            public void setDataSource(InputSource source) {
+            }
+
+            public void initialize() {
+            }
+
+            public Record nextRecord() throws IOException {
+                return regexParser.nextRecord();
+            }
+
+            public void uninitialize() {
+                regexParser.uninitialize();
+            }
+        };
+
+        RecordBatch batch = recordParser.nextBatch(5);
+        assertEquals(3, batch.size());
+        assertSpilled(batch, 1);
+        SpilledValue spilledValue = batch.getSpilledValue(0, 1);
+
+        // The caller deletes the spill files...
+        batch.deleteSpilledValues();
+        assertDeleted(spilledValue);
+        recordParser.uninitialize();
+    }
+
+    @Test
+    public void test_nextRecord_spilled() throws IOException {
+        RecordParser<RegexParserFactory> recordParser = newRecordParser(newSpillConfig(), SPILL_INPUT);
+
+        recordParser.nextRecord();
+        Field field = recordParser.nextRecord().getFields().get(0);
+        assertNotNull(field.getSpilledValue());
+        assertNull(field.getValueChars());
+        // Read back into memory on demand...
+        assertEquals("d|e|f|g", field.getValue());
+        assertEquals(7, field.getSpilledValue().getLength());
+        field.getSpilledValue().delete();
+        // ... and held on the field...
+        assertEquals("d|e|f|g", field.getValue());
+        recordParser.uninitialize();
+    }
+
+    private static void assertSpilled(RecordBatch batch, int record) throws IOException {
+        assertEquals("UNMATCHED", batch.getRecordType(batch.getRecordTypeIds()[record]).getName());
+        assertTrue(batch.isSpilled(0, record));
+        assertFalse(batch.isNullOrEmpty(0, record));
+        // Not read into the batch...
+        assertEquals(-2, batch.getOffsets(0)[record]);
+        assertEquals(0, batch.getLengths(0)[record]);
+        try {
+            batch.getValue(0, record);
+            fail("Expected IllegalStateException.");
+        } catch (IllegalStateException e) {
+            assertEquals("Value of column 0, record " + record + " is spilled to disk.  Read it through getSpilledValue().", e.getMessage());
+        }
+
+        SpilledValue spilledValue = batch.getSpilledValue(0, record);
+        assertEquals(7, spilledValue.getLength());
+        try (Reader reader = spilledValue.openReader()) {
+            char[] chars = new char[16];
+            assertEquals(7, reader.read(chars));
+            assertEquals("d|e|f|g", new String(chars, 0, 7));
+        }
+    }
+
+    private static void assertDeleted(SpilledValue spilledValue) {
+        try {
+            spilledValue.openReader().close();
+            fail("Expected NoSuchFileException.");
+        } catch (IOException e) {
+            assertTrue(e instanceof NoSuchFileException);
+        }
+    }
+
+    private static void assertBatchesMatchRecords(ResourceConfig resourceConfig, String input) throws IOException {
+        RecordParser<RegexParserFactory> batchParser = newRecordParser(resourceConfig, input);
+        RecordParser<RegexParserFactory> recordParser = newRecordParser(resourceConfig, input);
+
+        int recordCount = 0;
+        RecordBatch batch;
+        while ((batch = batchParser.nextBatch(2)) != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                Record record = recordParser.nextRecord();
+                assertNotNull(record);
+                assertEquals(record.getName(), batch.getRecordType(batch.getRecordTypeIds()[i]).getName());
+
+                List<Field> fields = record.getFields();
+                for (int column = 0; column < batch.getColumnCount(); column++) {
+                    if (column < fields.size()) {
+                        assertEquals(fields.get(column).getValue(), batch.getValue(column, i));
+                    } else {
+                        assertTrue(batch.isNull(column, i));
+                    }
+                }
+                recordCount++;
+            }
+        }
+        assertNull(recordParser.nextRecord());
+        assertTrue(recordCount > 0);
+
+        batchParser.uninitialize();
+        recordParser.uninitialize();
+    }
+
+    private static ResourceConfig newMultiTypeConfig(boolean reuseRecords) {
+        ResourceConfig resourceConfig = new DefaultResourceConfig();
+        resourceConfig.setParameter("fields", "header[date,count]|item[sku,quantity,price]");
+        resourceConfig.setParameter("regexPattern.header", "HDR:([0-9]{8}):([0-9]+)");
+        resourceConfig.setParameter("regexPattern.item", "([A-Z]+-[0-9]+),([0-9]*),([0-9.]+)");
+        resourceConfig.setParameter("reuseRecords", Boolean.toString(reuseRecords));
+        return resourceConfig;
+    }
+
+    private static ResourceConfig newSpillConfig() {
+        ResourceConfig resourceConfig = newSplitConfig();
+        resourceConfig.setParameter("maxRecordLength", "4");
+        resourceConfig.setParameter("oversizeRecordPolicy", "spill");
+        return resourceConfig;
+    }
+
+    private static ResourceConfig newSplitConfig() {
+        ResourceConfig resourceConfig = new DefaultResourceConfig();
+        resourceConfig.setParameter("fields", "first,$ignore$,third,fourth");
+        resourceConfig.setParameter("regexPattern", "\\|");
+        return resourceConfig;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RecordParser<RegexParserFactory> newRecordParser(ResourceConfig resourceConfig, String input) throws IOException {
+        RegexParserFactory factory = RegexParserFactoryTest.newFactory(resourceConfig);
+
+        RecordParser<RegexParserFactory> recordParser = factory.newRecordParser();
+        assertNotNull(recordParser);
+        recordParser.setRecordParserFactory(factory);
+        recordParser.setDataSource(new InputSource(new StringReader(input)));
+        recordParser.initialize();
+        return recordParser;
+    }
+}
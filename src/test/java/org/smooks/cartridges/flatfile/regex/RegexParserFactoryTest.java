@@ -0,0 +1,291 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.junit.Test;
+import org.smooks.Smooks;
+import org.smooks.api.ApplicationContext;
+import org.smooks.api.SmooksConfigException;
+import org.smooks.api.SmooksException;
+import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.cartridges.flatfile.Record;
+import org.smooks.cartridges.flatfile.RecordParser;
+import org.smooks.cartridges.flatfile.variablefield.CharRecordReader;
+import org.smooks.cartridges.flatfile.variablefield.RecordReader;
+import org.smooks.engine.injector.Scope;
+import org.smooks.engine.lifecycle.PostConstructLifecyclePhase;
+import org.smooks.engine.lookup.LifecycleManagerLookup;
+import org.smooks.engine.resource.config.DefaultResourceConfig;
+import org.xml.sax.InputSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RegexParserFactoryTest {
+
+    @Test
+    public void test_characterStream_decoding() throws IOException {
+        ResourceConfig resourceConfig = new DefaultResourceConfig();
+        resourceConfig.setParameter("fields", "first,second");
+        resourceConfig.setParameter("regexPattern", "\\|");
+        RegexParserFactory factory = newFactory(resourceConfig);
+
+        byte[] bytes = "café|x\n".getBytes(StandardCharsets.UTF_8);
+        InputSource source = new InputSource(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.ISO_8859_1));
+        source.setByteStream(new ByteArrayInputStream(bytes));
+        // As set by FlatFileReader from a UTF-8 content encoding...
+        source.setEncoding("UTF-8");
+
+        RecordParser<RegexParserFactory> recordParser = factory.newRecordParser();
+        assertNotNull(recordParser);
+        recordParser.setRecordParserFactory(factory);
+        recordParser.setDataSource(source);
+        recordParser.initialize();
+
+        // The supplied character stream decodes the records, not the byte stream...
+        Record record = recordParser.nextRecord();
+        assertEquals("cafÃ©", record.getFields().get(0).getValue());
+        assertEquals("x", record.getFields().get(1).getValue());
+        assertNull(recordParser.nextRecord());
+        recordParser.uninitialize();
+    }
+
+    @Test
+    public void test_closed_characterStream() throws IOException {
+        RegexParserFactory factory = newFactory(newSplitConfig());
+        InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream("a|b\n".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+        reader.close();
+
+        // A closed reader has no encoding... the records are still opened on it...
+        try (RecordReader recordReader = factory.newRecordReader(new InputSource(reader))) {
+            assertTrue(recordReader instanceof CharRecordReader);
+        }
+    }
+
+    @Test
+    public void test_recordIndexFile_unwritable() throws IOException {
+        Path dataFile = Files.createTempFile("records", ".txt");
+        try {
+            Files.write(dataFile, "a|b\nc|d\ne|f\n".getBytes(StandardCharsets.UTF_8));
+            ResourceConfig resourceConfig = newSplitConfig();
+            resourceConfig.setParameter("recordIndexInterval", "2");
+            resourceConfig.setParameter("recordIndexFile", dataFile.resolveSibling("no-such-dir").resolve("records.ffidx").toString());
+            RegexParserFactory factory = newFactory(resourceConfig);
+
+            // The index can't be created... the file is read without it...
+            try (RecordReader recordReader = factory.newRecordReader(new InputSource(dataFile.toUri().toString()))) {
+                assertEquals(1, recordReader.skipRecords(1));
+                StringBuilder recordBuffer = new StringBuilder();
+                recordReader.readRecord(recordBuffer);
+                assertEquals("c|d", recordBuffer.toString());
+            }
+        } finally {
+            Files.delete(dataFile);
+        }
+    }
+
+    @Test
+    public void test_optimizeRegex() {
+        ResourceConfig resourceConfig = new DefaultResourceConfig();
+        resourceConfig.setParameter("fields", "first,second,third");
+        resourceConfig.setParameter("regexPattern", "^([^|]*)\\|([^|]*)\\|(.*)$");
+        resourceConfig.setParameter("optimizeRegex", "true");
+
+        // On the default regex engine...
+        RegexParserFactory factory = newFactory(resourceConfig);
+        assertEquals("^([^|]*+)\\|([^|]*+)\\|(.*+)$", factory.getRegexPattern().pattern());
+        assertEquals(JdkMatchingEngine.NAME, factory.getMatchingEngine().getName());
+
+        // The dfa engine doesn't support the rewritten pattern...
+        resourceConfig.setParameter("regexEngine", "dfa");
+        factory = newFactory(resourceConfig);
+        assertEquals("^([^|]*+)\\|([^|]*+)\\|(.*+)$", factory.getRegexPattern().pattern());
+        assertEquals(JdkMatchingEngine.NAME, factory.getMatchingEngine().getName());
+    }
+
+    @Test
+    public void test_bufferBackedFieldValues_without_reuseRecords() {
+        ResourceConfig resourceConfig = new DefaultResourceConfig();
+        resourceConfig.setParameter("fields", "first,second");
+        resourceConfig.setParameter("regexPattern", "^([a-z]+)\\|([a-z]+)$");
+        resourceConfig.setParameter("bufferBackedFieldValues", "true");
+
+        try {
+            newFactory(resourceConfig);
+            fail("Expected SmooksException.");
+        } catch (SmooksException e) {
+            // Thrown by the @PostConstruct method...
+            Throwable cause = e.getCause();
+            while (cause != null && !(cause instanceof SmooksConfigException)) {
+                cause = cause.getCause();
+            }
+            assertNotNull(cause);
+            assertEquals("Invalid regex parser configuration.  'bufferBackedFieldValues' requires 'reuseRecords'.  Buffer backed field values are only valid until the next record is read.", cause.getMessage());
+        }
+
+        resourceConfig.setParameter("reuseRecords", "true");
+        assertTrue(newFactory(resourceConfig).isBufferBackedFieldValues());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void test_readRecord_concurrent() throws Exception {
+        RegexParserFactory factory = newFactory(newSplitConfig());
+        int recordCount = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+            for (String prefix : new String[]{"a", "b"}) {
+                results.add(executor.submit(() -> {
+                    // Each thread reads its own stream through the shared factory...
+                    Reader reader = new StringReader(newRecords(prefix, recordCount));
+                    List<String> records = new ArrayList<String>();
+                    StringBuilder recordBuffer = new StringBuilder();
+                    factory.readRecord(reader, recordBuffer, 1);
+                    while (recordBuffer.length() > 0) {
+                        records.add(recordBuffer.toString());
+                        factory.readRecord(reader, recordBuffer, records.size() + 1);
+                    }
+                    return records;
+                }));
+            }
+
+            assertEquals(Arrays.asList(newRecords("a", recordCount).split("\n")), results.get(0).get());
+            assertEquals(Arrays.asList(newRecords("b", recordCount).split("\n")), results.get(1).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void test_readRecord_interleaved() throws IOException {
+        RegexParserFactory factory = newFactory(newSplitConfig());
+        Reader readerA = new StringReader(newRecords("a", 3));
+        Reader readerB = new StringReader(newRecords("b", 3));
+        StringBuilder recordBuffer = new StringBuilder();
+
+        // Each stream is read on from where it was left, on the same thread...
+        for (int recordNumber = 1; recordNumber <= 3; recordNumber++) {
+            factory.readRecord(readerA, recordBuffer, recordNumber);
+            assertEquals("a" + (recordNumber - 1) + "|x", recordBuffer.toString());
+            factory.readRecord(readerB, recordBuffer, recordNumber);
+            assertEquals("b" + (recordNumber - 1) + "|x", recordBuffer.toString());
+        }
+        factory.readRecord(readerA, recordBuffer, 4);
+        assertEquals("", recordBuffer.toString());
+        factory.readRecord(readerB, recordBuffer, 4);
+        assertEquals("", recordBuffer.toString());
+    }
+
+    @Test
+    public void test_parser_readRecord() throws IOException {
+        RegexParserFactory factory = newFactory(newSplitConfig());
+        ReaderRecordParser parserA = new ReaderRecordParser(factory);
+        ReaderRecordParser parserB = new ReaderRecordParser(factory);
+        Reader readerA = new StringReader(newRecords("a", 3));
+        Reader readerB = new StringReader(newRecords("b", 3));
+
+        // The parsers' reads are interleaved, each on the record reader it holds...
+        for (int i = 0; i < 3; i++) {
+            assertEquals("a" + i + "|x", parserA.read(readerA));
+            assertEquals("b" + i + "|x", parserB.read(readerB));
+        }
+        assertEquals("", parserA.read(readerA));
+    }
+
+    private static String newRecords(String prefix, int count) {
+        StringBuilder records = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            records.append(prefix).append(i).append("|x\n");
+        }
+        return records.toString();
+    }
+
+    private static ResourceConfig newSplitConfig() {
+        ResourceConfig resourceConfig = new DefaultResourceConfig();
+        resourceConfig.setParameter("fields", "first,second");
+        resourceConfig.setParameter("regexPattern", "\\|");
+        return resourceConfig;
+    }
+
+    private static final class ReaderRecordParser extends RegexParser<RegexParserFactory> {
+
+        private final StringBuilder recordBuffer = new StringBuilder();
+
+        private ReaderRecordParser(RegexParserFactory factory) {
+            setRecordParserFactory(factory);
+        }
+
+        private String read(Reader reader) throws IOException {
+            readRecord(reader, recordBuffer);
+            return recordBuffer.toString();
+        }
+    }
+
+    static RegexParserFactory newFactory(ResourceConfig resourceConfig) {
+        ApplicationContext applicationContext = new Smooks().getApplicationContext();
+        RegexParserFactory factory = new RegexParserFactory();
+        applicationContext.getRegistry().lookup(new LifecycleManagerLookup()).applyPhase(factory, new PostConstructLifecyclePhase(new Scope(applicationContext.getRegistry(), resourceConfig, factory)));
+        return factory;
+    }
+}
@@ -47,14 +47,26 @@ import org.custommonkey.xmlunit.XMLUnit;
 import org.junit.Assert;
 import org.junit.Test;
 import org.smooks.Smooks;
+import org.smooks.api.ExecutionContext;
+import org.smooks.io.payload.ByteSource;
 import org.smooks.io.payload.JavaResult;
 import org.smooks.io.payload.StringResult;
 import org.smooks.io.payload.StringSource;
 import org.smooks.support.StreamUtils;
 import org.xml.sax.SAXException;
 
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
@@ -131,12 +143,154 @@ public class RegexParserTest {
                 "10/26 03:04:21.076 A30 : EVENT=Msg_Rcvd, E_ID=7, D_ID=D2, M_ID=M4, R=97847854");
     }
 
+    @Test
+    public void test_11() throws IOException, SAXException {
+        File file = File.createTempFile("regex-", ".txt");
+        try {
+            Files.write(file.toPath(), "a|b|c\n\rd|e|f".getBytes(StandardCharsets.UTF_8));
+            try (FileInputStream fileStream = new FileInputStream(file)) {
+                testHelper("11", new StreamSource(fileStream));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void test_12() throws IOException, SAXException {
+        // Byte stream data source...
+        testHelper("01", new ByteSource("a|b|c\n\rd|e|f".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void test_13() throws IOException, SAXException {
+        // Parallel byte range parsing...
+        File file = File.createTempFile("regex-", ".txt");
+        try {
+            Files.write(file.toPath(), "a|b|c\n\rd|e|f".getBytes(StandardCharsets.UTF_8));
+            try (FileInputStream fileStream = new FileInputStream(file)) {
+                testHelper("13", new StreamSource(fileStream));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void test_14() throws IOException, SAXException {
+        // Read-ahead on the character stream and the byte stream...
+        testHelper("14", "a|b|c\n\rd|e|f");
+        testHelper("14", new ByteSource("a|b|c\n\rd|e|f".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void test_15() throws IOException, SAXException {
+        // GZIP compressed data source...
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+            gzipStream.write("a|b|c\n\rd|e|f".getBytes(StandardCharsets.UTF_8));
+        }
+        testHelper("15", new ByteSource(compressed.toByteArray()));
+    }
+
+    @Test
+    public void test_16() throws IOException, SAXException {
+        // Start record, through a record index...
+        File file = File.createTempFile("regex-", ".txt");
+        File indexFile = new File(file.getPath() + ".ffidx");
+        try {
+            Files.write(file.toPath(), "a|b|c\n\rd|e|f".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 2; i++) {
+                // The first pass writes the index, the second uses it...
+                Smooks smooks = new Smooks(getClass().getResourceAsStream("/smooks-config-16.xml"));
+                ExecutionContext executionContext = smooks.createExecutionContext();
+                StringResult result = new StringResult();
+
+                executionContext.setDocumentSource(file.toURI());
+                try (InputStream fileStream = new BufferedInputStream(new FileInputStream(file))) {
+                    smooks.filterSource(executionContext, new StreamSource(fileStream), result);
+                }
+
+                XMLUnit.setIgnoreWhitespace(true);
+                XMLAssert.assertXMLEqual(StreamUtils.readStreamAsString(getClass().getResourceAsStream("/expected-16.xml"), "UTF-8"), result.toString());
+                Assert.assertTrue(indexFile.isFile());
+            }
+        } finally {
+            file.delete();
+            indexFile.delete();
+        }
+    }
+
+    @Test
+    public void test_17() throws IOException, SAXException {
+        // Oversize record spilled to disk...
+        testHelper("17", "a|b\nd|e|f|g\nh");
+    }
+
+    @Test
+    public void test_18() throws IOException, SAXException {
+        // Split on a non literal pattern...
+        testHelper("18", " | a ;b\nc ; d | ;");
+    }
+
+    @Test
+    public void test_19() throws IOException, SAXException {
+        // Groups matched by the java.util.regex engine, on the rewritten pattern...
+        testHelper("19", "a|b|c\nd|e|f");
+    }
+
+    @Test
+    public void test_20() throws IOException, SAXException {
+        // A record that would backtrack for a third of a million steps, cut off by the match budget...
+        testHelper("20", "aaaaa|b\naaaaaaaaaaaaaaaaaaaaaaaa|b!\naaaaaaa|b");
+    }
+
+    @Test
+    public void test_21() throws IOException, SAXException {
+        // Records routed to their record type by which of the per record type patterns they match...
+        testHelper("21", "HDR:20261017:2\nAB-1,3,9.99\nCD-22,1,0.50\nHDR:2026");
+    }
+
+    @Test
+    public void test_22() throws IOException, SAXException {
+        // Records only split as far as the third field, the rest being $ignore$+'d...
+        testHelper("22", "a|b|c|d|e|f\ng ; h ; i\nj|k|||\nl|m||;|o");
+    }
+
+    @Test
+    public void test_23() throws IOException, SAXException {
+        // Group values held as spans of the record, and only built for the fields that are output...
+        testHelper("23", "ab|cd|ef\ngh|ij|kl|x\nbad");
+    }
+
+    @Test
+    public void test_24() throws IOException, SAXException {
+        // As test_23, with the group values of reused records emitted straight from the shared record buffer...
+        testHelper("24", "ab|cd|ef\ngh|ij|kl|x\nbad");
+    }
+
+    @Test
+    public void test_25() throws IOException, SAXException {
+        // As test_23, with the parser reusing one Record and its Fields...
+        testHelper("25", "ab|cd|ef\ngh|ij|kl|x\nbad");
+    }
+
+    @Test
+    public void test_26() throws IOException, SAXException {
+        // As test_23, with the groups matched by the opt-in dfa regex engine...
+        testHelper("26", "ab|cd|ef\ngh|ij|kl|x\nbad");
+    }
+
     public void testHelper(String config, String message) throws IOException, SAXException {
+        testHelper(config, new StringSource(message));
+    }
+
+    public void testHelper(String config, Source source) throws IOException, SAXException {
         Smooks smooks = new Smooks(getClass().getResourceAsStream("/smooks-config-" + config + ".xml"));
         String expected = StreamUtils.readStreamAsString(getClass().getResourceAsStream("/expected-" + config + ".xml"), "UTF-8");
 
         StringResult result = new StringResult();
-        smooks.filterSource(new StringSource(message), result);
+        smooks.filterSource(source, result);
 
         XMLUnit.setIgnoreWhitespace(true);
         XMLAssert.assertXMLEqual(expected, result.toString());
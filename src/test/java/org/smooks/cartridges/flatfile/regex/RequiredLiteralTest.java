@@ -0,0 +1,131 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.regex;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequiredLiteralTest {
+
+    private static final int FLAGS = Pattern.MULTILINE | Pattern.DOTALL;
+
+    @Test
+    public void test_forPattern() {
+        assertRequired("HDR|", true, "^HDR\\|([^|]*)\\|(.*)$");
+        assertRequired("|EUR|", false, "^([^|]*)\\|EUR\\|(.*)$");
+        assertRequired("|EUR|", false, "([^|]*)(\\|EUR\\|)(.*)");
+        assertRequired(" : EVENT=", false, "([\\d:\\./ ]+) ([AB])(\\d{1,2}) : EVENT=(\\w+), E_ID=(\\d+)|([\\d:\\./ ]+) ([AB])(\\d{1,2}) : EVENT=(\\w+)");
+        assertRequired("aab", true, "a{2}b+(x)");
+        assertRequired("abc", false, "[xy](?:abc)+(d)?");
+        assertRequired("HDRx", true, "HDR(x)");
+        assertFalse(RequiredLiteral.forPattern(Pattern.compile("^HDR\\|", FLAGS), false).isPrefix());
+
+        assertNull(RequiredLiteral.forPattern(Pattern.compile("(a|b)", FLAGS), true));
+        assertNull(RequiredLiteral.forPattern(Pattern.compile("[^|]*(x)?", FLAGS), true));
+        assertNull(RequiredLiteral.forPattern(Pattern.compile("(a)\\1", FLAGS), true));
+    }
+
+    @Test
+    public void test_isFoundIn() {
+        RequiredLiteral prefix = RequiredLiteral.forPattern(Pattern.compile("^HDR\\|(.*)", FLAGS), true);
+        assertTrue(prefix.isFoundIn(new StringBuilder("HDR|x")));
+        assertFalse(prefix.isFoundIn("xHDR|"));
+        assertFalse(prefix.isFoundIn("HD"));
+
+        RequiredLiteral literal = RequiredLiteral.forPattern(Pattern.compile("(.*)\\|EUR\\|(.*)", FLAGS), true);
+        assertTrue(literal.isFoundIn("1|EUR|2"));
+        assertTrue(literal.isFoundIn("|EUR|"));
+        assertFalse(literal.isFoundIn("1|USD|2"));
+        assertFalse(literal.isFoundIn("EUR|"));
+        assertFalse(literal.isFoundIn(""));
+    }
+
+    @Test
+    public void test_random_patterns() {
+        Random random = new Random(5);
+        String[] atoms = {"a", "b", "ab", "\\|", "[ab]", ".", "(ab|ba)", "(?:b|ab)", "(a)", "a+", "b{2}", "(?:ab)+", "x?"};
+
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder regex = new StringBuilder();
+            int count = 1 + random.nextInt(5);
+            for (int j = 0; j < count; j++) {
+                regex.append(atoms[random.nextInt(atoms.length)]);
+            }
+            Pattern pattern = Pattern.compile(regex.toString(), FLAGS);
+            RequiredLiteral matchLiteral = RequiredLiteral.forPattern(pattern, true);
+            RequiredLiteral findLiteral = RequiredLiteral.forPattern(pattern, false);
+
+            for (int j = 0; j < 50; j++) {
+                StringBuilder input = new StringBuilder();
+                int length = random.nextInt(8);
+                for (int k = 0; k < length; k++) {
+                    input.append("ab|x".charAt(random.nextInt(4)));
+                }
+                String message = "Pattern '" + regex + "', input '" + input + "'";
+
+                if (matchLiteral != null && !matchLiteral.isFoundIn(input)) {
+                    assertFalse(message, pattern.matcher(input).matches());
+                }
+                if (findLiteral != null) {
+                    assertEquals(message, input.toString().contains(findLiteral.getLiteral()), findLiteral.isFoundIn(input));
+                    if (!findLiteral.isFoundIn(input)) {
+                        assertFalse(message, pattern.matcher(input).find());
+                    }
+                }
+            }
+        }
+    }
+
+    private void assertRequired(String expected, boolean prefix, String regex) {
+        RequiredLiteral literal = RequiredLiteral.forPattern(Pattern.compile(regex, FLAGS), true);
+        assertEquals(expected, literal.getLiteral());
+        assertEquals(prefix, literal.isPrefix());
+    }
+}
@@ -0,0 +1,216 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.junit.Test;
+import org.smooks.cartridges.flatfile.SpilledValue;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CharRecordReaderTest {
+
+    @Test
+    public void test_line_delimited() throws IOException {
+        assertEquals(Arrays.asList("a|b|c", "d|e|f"), readRecords("a|b|c\n\rd|e|f", null, null, false, 3));
+        assertEquals(Arrays.asList("a|b|c", "d|e|f"), readRecords("\r\n\na|b|c\r\nd|e|f\n", null, null, false, 4));
+        assertEquals(Arrays.asList("a|b|c\r", "d|e|f\n"), readRecords("a|b|c\r\nd|e|f\n", null, null, true, 2));
+    }
+
+    @Test
+    public void test_literal_delimited() throws IOException {
+        for (int windowSize = 1; windowSize < 12; windowSize++) {
+            assertEquals(Arrays.asList("a|b", "c|d", "e"), readRecords("a|b~|~c|d~|~e", "~|~", null, false, windowSize));
+            assertEquals(Arrays.asList("a|b~|~", "c|d~|~", "e"), readRecords("a|b~|~c|d~|~e", "~|~", null, true, windowSize));
+            assertEquals(Arrays.asList("a~|\n", "b~"), readRecords("a~|\n~|~\n\rb~", "~|~", null, false, windowSize));
+        }
+    }
+
+    @Test
+    public void test_regex_delimited() throws IOException {
+        Pattern pattern = Pattern.compile("[0-9]+\\|", (Pattern.MULTILINE | Pattern.DOTALL));
+        for (int windowSize = 1; windowSize < 12; windowSize++) {
+            assertEquals(Arrays.asList("1|Tom|Fennelly", "2|Mike|Fennelly", "33|Joe|Bloggs"), readRecords("1|Tom|Fennelly2|Mike|Fennelly33|Joe|Bloggs", null, pattern, false, windowSize));
+        }
+    }
+
+    @Test
+    public void test_skipRecords() throws IOException {
+        Pattern pattern = Pattern.compile("[0-9]+\\|", (Pattern.MULTILINE | Pattern.DOTALL));
+        String[] inputs = {"a|b|c\n\rd|e|f\n\ng|h", "a|b~|~c|d~|~e~|~~|~f", "~|~a~|~\r\nb", "1|Tom|Fennelly2|Mike|Fennelly33|Joe|Bloggs"};
+
+        for (String input : inputs) {
+            for (String recordDelimiter : new String[]{null, "~|~"}) {
+                for (boolean keepDelimiter : new boolean[]{false, true}) {
+                    for (int windowSize = 1; windowSize < 8; windowSize++) {
+                        assertSkipRecords(input, recordDelimiter, null, keepDelimiter, windowSize);
+                    }
+                }
+            }
+            assertSkipRecords(input, null, pattern, false, 3);
+        }
+    }
+
+    @Test
+    public void test_maxRecordLength() throws IOException {
+        Pattern pattern = Pattern.compile("[0-9]+\\|", (Pattern.MULTILINE | Pattern.DOTALL));
+
+        for (int windowSize = 1; windowSize < 12; windowSize++) {
+            assertBoundedRecords(Arrays.asList("a|b", "this-is-a-long-record", "c|d"), "a|b\nthis-is-a-long-record\nc|d", null, null, windowSize);
+            assertBoundedRecords(Arrays.asList("a|b", "this-is-a-long-record", "c|d"), "a|b~|~this-is-a-long-record~|~c|d", "~|~", null, windowSize);
+            assertBoundedRecords(Arrays.asList("1|ab", "2|this-is-a-long-record", "3|cd"), "1|ab2|this-is-a-long-record3|cd", null, pattern, windowSize);
+            assertBoundedRecords(Arrays.asList("a|b", "this-is-a-long-record"), "a|b\nthis-is-a-long-record", null, null, windowSize);
+        }
+    }
+
+    @Test
+    public void test_maxRecordLength_regex_delimited() throws IOException {
+        Pattern pattern = Pattern.compile("[0-9]+\\|", (Pattern.MULTILINE | Pattern.DOTALL));
+        StringBuilder longRecord = new StringBuilder("2|");
+        for (int i = 0; longRecord.length() < CharRecordReader.MAX_DELIMITER_LOOKBACK * 20; i++) {
+            longRecord.append((char) ('a' + i % 26));
+        }
+        String input = "1|ab" + longRecord + "3|cd";
+
+        for (int windowSize : new int[]{7, 100, 8192}) {
+            assertBoundedRecords(Arrays.asList("1|ab", longRecord.toString(), "3|cd"), input, null, pattern, windowSize);
+        }
+
+        // The scan buffer stays bounded while the oversize record is read...
+        for (OversizeRecordPolicy policy : OversizeRecordPolicy.values()) {
+            CharRecordReader[] recordReader = new CharRecordReader[1];
+            int[] maxScanBufferLength = new int[1];
+            Reader reader = new FilterReader(new StringReader(input)) {
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    maxScanBufferLength[0] = Math.max(maxScanBufferLength[0], recordReader[0].getScanBufferLength());
+                    return super.read(cbuf, off, len);
+                }
+            };
+            recordReader[0] = new CharRecordReader(reader, null, pattern, false, 100);
+            recordReader[0].setMaxRecordLength(5, policy);
+
+            StringBuilder recordBuffer = new StringBuilder();
+            List<String> records = new ArrayList<>();
+            recordReader[0].readRecord(recordBuffer);
+            while (recordBuffer.length() > 0) {
+                records.add(recordBuffer.toString());
+                if (recordReader[0].getSpilledRecord() != null) {
+                    recordReader[0].getSpilledRecord().delete();
+                }
+                recordReader[0].readRecord(recordBuffer);
+            }
+            assertEquals(policy == OversizeRecordPolicy.REJECT ? Arrays.asList("1|ab", "3|cd") : Arrays.asList("1|ab", "2|abc", "3|cd"), records);
+            assertTrue("Scan buffer grew to " + maxScanBufferLength[0], maxScanBufferLength[0] <= CharRecordReader.MAX_DELIMITER_LOOKBACK * 3);
+        }
+    }
+
+    private void assertBoundedRecords(List<String> records, String input, String recordDelimiter, Pattern recordDelimiterPattern, int windowSize) throws IOException {
+        CharRecordReader rejectingReader = new CharRecordReader(new StringReader(input), recordDelimiter, recordDelimiterPattern, false, windowSize);
+        rejectingReader.setMaxRecordLength(5, OversizeRecordPolicy.REJECT);
+        List<String> expected = new ArrayList<>(records);
+        expected.remove(1);
+        assertEquals(expected, readRecords(rejectingReader));
+        assertEquals(1, rejectingReader.getRejectedRecordCount());
+
+        CharRecordReader spillingReader = new CharRecordReader(new StringReader(input), recordDelimiter, recordDelimiterPattern, false, windowSize);
+        spillingReader.setMaxRecordLength(5, OversizeRecordPolicy.SPILL);
+        StringBuilder recordBuffer = new StringBuilder();
+        List<String> spilledRecords = new ArrayList<>();
+        spillingReader.readRecord(recordBuffer);
+        while (recordBuffer.length() > 0) {
+            SpilledValue spilledRecord = spillingReader.getSpilledRecord();
+            if (spilledRecord != null) {
+                // The head of the record is kept...
+                assertEquals(records.get(spilledRecords.size()).substring(0, 5), recordBuffer.toString());
+                assertEquals(records.get(spilledRecords.size()).length(), spilledRecord.getLength());
+                spilledRecords.add(spilledRecord.read());
+                spilledRecord.delete();
+            } else {
+                spilledRecords.add(recordBuffer.toString());
+            }
+            spillingReader.readRecord(recordBuffer);
+        }
+        assertEquals(records, spilledRecords);
+    }
+
+    private void assertSkipRecords(String input, String recordDelimiter, Pattern recordDelimiterPattern, boolean keepDelimiter, int windowSize) throws IOException {
+        List<String> records = readRecords(input, recordDelimiter, recordDelimiterPattern, keepDelimiter, windowSize);
+
+        for (int skip = 0; skip <= records.size() + 1; skip++) {
+            CharRecordReader recordReader = new CharRecordReader(new StringReader(input), recordDelimiter, recordDelimiterPattern, keepDelimiter, windowSize);
+            int skipped = Math.min(skip, records.size());
+
+            assertEquals(skipped, recordReader.skipRecords(skip));
+            if (skip <= records.size()) {
+                assertEquals(records.subList(skipped, records.size()), readRecords(recordReader));
+            }
+        }
+    }
+
+    private List<String> readRecords(String input, String recordDelimiter, Pattern recordDelimiterPattern, boolean keepDelimiter, int windowSize) throws IOException {
+        return readRecords(new CharRecordReader(new StringReader(input), recordDelimiter, recordDelimiterPattern, keepDelimiter, windowSize));
+    }
+
+    private List<String> readRecords(RecordReader recordReader) throws IOException {
+        StringBuilder recordBuffer = new StringBuilder();
+        List<String> records = new ArrayList<>();
+
+        recordReader.readRecord(recordBuffer);
+        while (recordBuffer.length() > 0) {
+            records.add(recordBuffer.toString());
+            recordReader.readRecord(recordBuffer);
+        }
+
+        return records;
+    }
+}
@@ -0,0 +1,170 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.smooks.cartridges.flatfile.Field;
+import org.smooks.cartridges.flatfile.FieldMetaData;
+import org.smooks.cartridges.flatfile.RecordMetaData;
+import org.smooks.cartridges.flatfile.function.StringFunctionExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Record field binding benchmark.
+ * <p/>
+ * Binds the field values of a wide record to its fields, as {@link VariableFieldRecordParser} did before the
+ * {@link FieldProjection} plan (walking the field metadata list) and with the plan, and reports the cost per
+ * record of each.  Run from the IDE or via
+ * <code>mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=...</code>.
+ */
+public class FieldProjectionBenchmark {
+
+    private static final int RECORDS = 2 * 1000 * 1000;
+
+    public static void main(String[] args) {
+        List<String> fieldSpecs = new ArrayList<String>();
+        for (int i = 0; i < 12; i++) {
+            fieldSpecs.add(i % 3 == 1 ? "$ignore$" : "field" + i + (i % 4 == 0 ? "?trim" : ""));
+        }
+        fieldSpecs.add("$ignore$+");
+        RecordMetaData recordMetaData = VariableFieldRecordMetaData.buildRecordMetaData("record", fieldSpecs);
+        FieldProjection projection = FieldProjection.compile(recordMetaData);
+
+        List<String> fieldValues = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            fieldValues.add("value" + i);
+        }
+
+        // Warm up...
+        for (int i = 0; i < 5; i++) {
+            runMetaDataLoop(recordMetaData, fieldValues);
+            runProjection(projection, fieldValues);
+        }
+
+        System.out.printf("metadata loop | %.1f ns/record%n", (double) runMetaDataLoop(recordMetaData, fieldValues) / RECORDS);
+        System.out.printf("projection    | %.1f ns/record%n", (double) runProjection(projection, fieldValues) / RECORDS);
+    }
+
+    private static long runMetaDataLoop(RecordMetaData recordMetaData, List<String> fieldValues) {
+        long fieldCount = 0;
+        long start = System.nanoTime();
+
+        for (int record = 0; record < RECORDS; record++) {
+            List<FieldMetaData> fieldsMetaData = recordMetaData.getFields();
+            List<Field> fields = new ArrayList<Field>();
+
+            for (int i = 0; i < fieldValues.size(); i++) {
+                if (!recordMetaData.isWildCardRecord() && i > fieldsMetaData.size() - 1) {
+                    break;
+                }
+
+                Field field;
+                String value = fieldValues.get(i);
+
+                if (recordMetaData.isWildCardRecord()) {
+                    field = new Field("field_" + i, value);
+                } else {
+                    FieldMetaData fieldMetaData = fieldsMetaData.get(i);
+
+                    if (fieldMetaData.ignore()) {
+                        i += fieldMetaData.getIgnoreCount() - 1;
+                        if (i < 0) {
+                            i = Integer.MAX_VALUE - 1;
+                        }
+                        continue;
+                    }
+
+                    StringFunctionExecutor stringFunction = fieldMetaData.getStringFunctionExecutor();
+                    if (stringFunction != null) {
+                        value = stringFunction.execute(value);
+                    }
+
+                    field = new Field(fieldMetaData.getName(), value);
+                    field.setMetaData(fieldMetaData);
+                }
+
+                fields.add(field);
+            }
+            fieldCount += fields.size();
+        }
+
+        return checked(System.nanoTime() - start, fieldCount);
+    }
+
+    private static long runProjection(FieldProjection projection, List<String> fieldValues) {
+        long fieldCount = 0;
+        long start = System.nanoTime();
+
+        for (int record = 0; record < RECORDS; record++) {
+            List<Field> fields = new ArrayList<Field>();
+
+            for (int i = 0; i < projection.size(); i++) {
+                int sourceIndex = projection.getSourceIndex(i);
+                if (sourceIndex >= fieldValues.size()) {
+                    break;
+                }
+
+                String value = fieldValues.get(sourceIndex);
+                StringFunctionExecutor stringFunction = projection.getStringFunction(i);
+                if (stringFunction != null) {
+                    value = stringFunction.execute(value);
+                }
+
+                Field field = new Field(projection.getFieldName(i), value);
+                field.setMetaData(projection.getFieldMetaData(i));
+                fields.add(field);
+            }
+            fieldCount += fields.size();
+        }
+
+        return checked(System.nanoTime() - start, fieldCount);
+    }
+
+    private static long checked(long nanos, long fieldCount) {
+        if (fieldCount != (long) RECORDS * 8) {
+            throw new IllegalStateException("Unexpected field count " + fieldCount + ".");
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,86 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.junit.Test;
+import org.smooks.cartridges.flatfile.RecordMetaData;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FieldProjectionTest {
+
+    @Test
+    public void test_compile() {
+        RecordMetaData recordMetaData = VariableFieldRecordMetaData.buildRecordMetaData("record", Arrays.asList("a", "$ignore$", "b?upper_case", "$ignore$3", "c", "$ignore$+", "d"));
+        FieldProjection projection = FieldProjection.compile(recordMetaData);
+
+        assertFalse(projection.isWildCard());
+        assertEquals(3, projection.size());
+        assertEquals(0, projection.getSourceIndex(0));
+        assertEquals(2, projection.getSourceIndex(1));
+        assertEquals(6, projection.getSourceIndex(2));
+        assertEquals("a", projection.getFieldName(0));
+        assertEquals("b", projection.getFieldName(1));
+        assertEquals("c", projection.getFieldName(2));
+        assertSame(recordMetaData.getFields().get(2), projection.getFieldMetaData(1));
+        assertNull(projection.getStringFunction(0));
+        assertNotNull(projection.getStringFunction(1));
+    }
+
+    @Test
+    public void test_compile_wildCard() {
+        FieldProjection projection = FieldProjection.compile(VariableFieldRecordMetaData.buildRecordMetaData("record", Arrays.asList("a", "*")));
+
+        assertTrue(projection.isWildCard());
+        assertEquals("field_0", projection.getWildCardFieldName(0));
+        assertEquals("field_9", projection.getWildCardFieldName(9));
+        assertSame(projection.getWildCardFieldName(3), projection.getWildCardFieldName(3));
+    }
+}
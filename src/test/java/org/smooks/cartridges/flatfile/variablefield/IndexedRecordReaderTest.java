@@ -0,0 +1,224 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedRecordReaderTest {
+
+    private Path dataFile;
+    private Path indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dataFile = Files.createTempFile("records", ".txt");
+        indexFile = dataFile.resolveSibling(dataFile.getFileName() + ".ffidx");
+        StringBuilder records = new StringBuilder();
+        for (int i = 1; i <= 100; i++) {
+            records.append("record-").append(i).append("|é\n");
+        }
+        Files.write(dataFile, records.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dataFile);
+        Files.deleteIfExists(indexFile);
+    }
+
+    @Test
+    public void test_skipRecords() throws IOException {
+        for (int pass = 0; pass < 2; pass++) {
+            // The first pass writes the index, the second uses it...
+            for (int skip : new int[]{0, 1, 6, 7, 50, 99}) {
+                try (RecordReader recordReader = newRecordReader(7)) {
+                    assertEquals(skip, recordReader.skipRecords(skip));
+                    assertEquals("record-" + (skip + 1) + "|é", readRecord(recordReader));
+                }
+            }
+            assertTrue(Files.isRegularFile(indexFile));
+            // The index is moved into place from a temporary file...
+            try (Stream<Path> files = Files.list(indexFile.getParent())) {
+                assertFalse(files.anyMatch(file -> file.getFileName().toString().startsWith(indexFile.getFileName().toString()) && file.toString().endsWith(".tmp")));
+            }
+        }
+
+        try (RecordReader recordReader = newRecordReader(7)) {
+            assertEquals(100, recordReader.skipRecords(200));
+            assertEquals("", readRecord(recordReader));
+        }
+    }
+
+    @Test
+    public void test_index_seeks() throws IOException {
+        try (RecordReader recordReader = newRecordReader(10)) {
+            assertEquals(100, recordReader.skipRecords(100));
+        }
+
+        // Replace the line breaks in the first half of the file without changing its size or modified time.  Only an
+        // index seek can find record 61 now...
+        FileTime lastModified = Files.getLastModifiedTime(dataFile);
+        byte[] bytes = Files.readAllBytes(dataFile);
+        for (int i = 0; i < bytes.length / 2; i++) {
+            if (bytes[i] == '\n') {
+                bytes[i] = '_';
+            }
+        }
+        Files.write(dataFile, bytes);
+        Files.setLastModifiedTime(dataFile, lastModified);
+
+        try (RecordReader recordReader = newRecordReader(10)) {
+            assertEquals(60, recordReader.skipRecords(60));
+            assertEquals("record-61|é", readRecord(recordReader));
+        }
+    }
+
+    @Test
+    public void test_index_invalidated() throws IOException {
+        try (RecordReader recordReader = newRecordReader(10)) {
+            assertEquals(100, recordReader.skipRecords(100));
+        }
+
+        // Prepend a record... changes the size and modified time...
+        byte[] bytes = Files.readAllBytes(dataFile);
+        Files.write(dataFile, ("record-0|é\n" + new String(bytes, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(dataFile, FileTime.fromMillis(Files.getLastModifiedTime(dataFile).toMillis() + 2000));
+
+        try (RecordReader recordReader = newRecordReader(10)) {
+            assertEquals(50, recordReader.skipRecords(50));
+            assertEquals("record-50|é", readRecord(recordReader));
+        }
+    }
+
+    @Test
+    public void test_skipRecords_rejected_record() throws IOException {
+        StringBuilder records = new StringBuilder();
+        for (int i = 1; i <= 100; i++) {
+            records.append("record-").append(i).append(i == 15 ? "|this-is-a-long-record" : "|é").append('\n');
+        }
+        Files.write(dataFile, records.toString().getBytes(StandardCharsets.UTF_8));
+
+        // The index is written by reading the records, rejecting record 15...
+        try (RecordReader recordReader = newRecordReader(10)) {
+            recordReader.setMaxRecordLength(15, OversizeRecordPolicy.REJECT);
+            assertEquals("record-14|é", readRecord(recordReader, 14));
+            assertEquals("record-16|é", readRecord(recordReader));
+            assertEquals("record-100|é", readRecord(recordReader, 84));
+            assertEquals("", readRecord(recordReader));
+            assertEquals(1, recordReader.getRejectedRecordCount());
+        }
+
+        // A start record is skipped to by the number of records in the file, including the rejected record...
+        for (int startRecord : new int[]{10, 16, 21, 22, 31, 100}) {
+            try (RecordReader recordReader = newRecordReader(10)) {
+                recordReader.setMaxRecordLength(15, OversizeRecordPolicy.REJECT);
+                assertEquals(startRecord - 1, recordReader.skipRecords(startRecord - 1));
+                assertEquals("record-" + startRecord + "|é", readRecord(recordReader));
+            }
+        }
+    }
+
+    @Test
+    public void test_index_invalidated_by_record_settings() throws IOException {
+        try (RecordReader recordReader = newRecordReader(10)) {
+            assertEquals(100, recordReader.skipRecords(100));
+        }
+        assertIndexValid(true, StandardCharsets.UTF_8, null, false);
+        assertIndexValid(false, StandardCharsets.UTF_8, "\n", false);
+        assertIndexValid(false, StandardCharsets.UTF_8, null, true);
+        assertIndexValid(false, StandardCharsets.ISO_8859_1, null, false);
+
+        // The index is rebuilt for the new settings...
+        try (RecordReader recordReader = new IndexedRecordReader(newMappedRecordReader(StandardCharsets.UTF_8, "\n", true), dataFile, indexFile, 10)) {
+            assertEquals(50, recordReader.skipRecords(50));
+            assertEquals("record-51|é\n", readRecord(recordReader));
+            assertEquals(49, recordReader.skipRecords(100));
+        }
+        assertIndexValid(false, StandardCharsets.UTF_8, null, false);
+        assertIndexValid(true, StandardCharsets.UTF_8, "\n", true);
+    }
+
+    private void assertIndexValid(boolean valid, Charset charset, String recordDelimiter, boolean keepDelimiter) throws IOException {
+        try (MappedFileRecordReader mappedRecordReader = newMappedRecordReader(charset, recordDelimiter, keepDelimiter)) {
+            assertEquals(valid, RecordIndex.load(indexFile, dataFile, 10, mappedRecordReader) != null);
+        }
+    }
+
+    private RecordReader newRecordReader(int interval) throws IOException {
+        return new IndexedRecordReader(newMappedRecordReader(StandardCharsets.UTF_8, null, false), dataFile, indexFile, interval);
+    }
+
+    private MappedFileRecordReader newMappedRecordReader(Charset charset, String recordDelimiter, boolean keepDelimiter) throws IOException {
+        return new MappedFileRecordReader(FileChannel.open(dataFile, StandardOpenOption.READ), true, charset, recordDelimiter, keepDelimiter, 16);
+    }
+
+    private String readRecord(RecordReader recordReader, int count) throws IOException {
+        String record = null;
+        for (int i = 0; i < count; i++) {
+            record = readRecord(recordReader);
+        }
+        return record;
+    }
+
+    private String readRecord(RecordReader recordReader) throws IOException {
+        StringBuilder recordBuffer = new StringBuilder();
+        recordReader.readRecord(recordBuffer);
+        return recordBuffer.toString();
+    }
+}
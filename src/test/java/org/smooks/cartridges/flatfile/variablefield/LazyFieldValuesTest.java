@@ -0,0 +1,86 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.junit.Test;
+import org.smooks.cartridges.flatfile.Field;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class LazyFieldValuesTest {
+
+    @Test
+    public void test_spans() {
+        String record = "HDR|abc||de";
+        LazyFieldValues fieldValues = new LazyFieldValues(record, 1);
+        fieldValues.addValue("header");
+        fieldValues.addSpan(4, 7);
+        fieldValues.addSpan(8, 8);
+        fieldValues.addSpan(9, 11);
+
+        assertEquals(Arrays.asList("header", "abc", "", "de"), fieldValues);
+        assertEquals("de", fieldValues.getValueChars(3).toString());
+        assertSame(fieldValues.get(1), fieldValues.getValueChars(1));
+
+        try {
+            fieldValues.get(4);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            assertEquals("Index: 4, Size: 4", e.getMessage());
+        }
+    }
+
+    @Test
+    public void test_field() {
+        LazyFieldValues fieldValues = new LazyFieldValues("a|bc", 2);
+        fieldValues.addSpan(2, 4);
+
+        Field field = new Field("second", fieldValues.getValueChars(0));
+        assertEquals("bc", field.getValue());
+        assertSame(field.getValue(), field.getValue());
+    }
+}
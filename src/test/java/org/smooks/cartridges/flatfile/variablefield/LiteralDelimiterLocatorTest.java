@@ -0,0 +1,83 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class LiteralDelimiterLocatorTest {
+
+    @Test
+    public void test_indexIn() {
+        LiteralDelimiterLocator locator = new LiteralDelimiterLocator("<EOR>");
+
+        assertEquals(3, locator.indexIn("abc<EOR>def".toCharArray(), 0, 11));
+        assertEquals(-1, locator.indexIn("abc<EOR>def".toCharArray(), 4, 11));
+        assertEquals(-1, locator.indexIn("abc<EOR>def".toCharArray(), 0, 7));
+        assertEquals(0, new LiteralDelimiterLocator("\n").indexIn("\n".toCharArray(), 0, 1));
+    }
+
+    @Test
+    public void test_indexIn_random() {
+        Random random = new Random(1234);
+        String[] delimiters = {"~|~\n", "<EOR>", "aab", "aaaa", "āb", "ȁā"};
+        char[] alphabet = {'a', 'b', '~', '|', '\n', '<', 'E', 'O', 'R', '>', 'ā', 'ȁ'};
+
+        for (String delimiter : delimiters) {
+            LiteralDelimiterLocator locator = new LiteralDelimiterLocator(delimiter);
+            for (int n = 0; n < 2000; n++) {
+                char[] chars = new char[random.nextInt(40)];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = alphabet[random.nextInt(alphabet.length)];
+                }
+                int from = (chars.length == 0 ? 0 : random.nextInt(chars.length));
+                int expected = new String(chars).indexOf(delimiter, from);
+
+                assertEquals(expected, locator.indexIn(chars, from, chars.length));
+            }
+        }
+    }
+}
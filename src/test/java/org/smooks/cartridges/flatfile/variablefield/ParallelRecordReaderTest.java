@@ -0,0 +1,158 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelRecordReaderTest {
+
+    @Test
+    public void test_isSupported() {
+        assertTrue(ParallelRecordReader.isSupported(StandardCharsets.UTF_8, null));
+        assertTrue(ParallelRecordReader.isSupported(StandardCharsets.UTF_8, "~|"));
+        assertTrue(ParallelRecordReader.isSupported(StandardCharsets.ISO_8859_1, "¤"));
+        assertFalse(ParallelRecordReader.isSupported(StandardCharsets.UTF_8, "|\n"));
+        assertFalse(ParallelRecordReader.isSupported(StandardCharsets.UTF_8, "~~"));
+        assertFalse(ParallelRecordReader.isSupported(StandardCharsets.UTF_8, "~|~"));
+        assertFalse(ParallelRecordReader.isSupported(StandardCharsets.UTF_16, null));
+    }
+
+    @Test
+    public void test_line_delimited() throws IOException {
+        for (int chunkSize = 1; chunkSize < 16; chunkSize++) {
+            assertEquals(Arrays.asList("a|b|c", "d|é|f", "g|€|i"), readRecords("\na|b|c\n\rd|é|f\r\ng|€|i\n", StandardCharsets.UTF_8, null, false, chunkSize));
+            assertEquals(Arrays.asList("a|b|c\n", "d|é|f\r"), readRecords("a|b|c\nd|é|f\r", StandardCharsets.ISO_8859_1, null, true, chunkSize));
+        }
+    }
+
+    @Test
+    public void test_literal_delimited() throws IOException {
+        for (int chunkSize = 1; chunkSize < 16; chunkSize++) {
+            assertEquals(Arrays.asList("a|é", "c|d", "e"), readRecords("a|é~|c|d~|e", StandardCharsets.UTF_8, "~|", false, chunkSize));
+            assertEquals(Arrays.asList("a|é¤", "c|d¤"), readRecords("a|é¤c|d¤", StandardCharsets.UTF_8, "¤", true, chunkSize));
+        }
+    }
+
+    @Test
+    public void test_empty_record_ends_parsing() throws IOException {
+        for (int chunkSize = 1; chunkSize < 16; chunkSize++) {
+            assertEquals(Arrays.asList("a", "b"), readRecords("a~|b~|~|c~|d", StandardCharsets.UTF_8, "~|", false, chunkSize));
+        }
+    }
+
+    @Test
+    public void test_empty_file() throws IOException {
+        assertEquals(Arrays.asList(), readRecords("", StandardCharsets.UTF_8, null, false, 8));
+    }
+
+    @Test
+    public void test_matches_sequential_reader() throws IOException {
+        Random random = new Random(7);
+        String[] tokens = {"a", "b", "é", "€", "|", "~", "\r", "\n", "~|"};
+
+        for (int i = 0; i < 200; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(60);
+            for (int j = 0; j < length; j++) {
+                input.append(tokens[random.nextInt(tokens.length)]);
+            }
+            String recordDelimiter = (random.nextBoolean() ? "~|" : null);
+            boolean keepDelimiter = random.nextBoolean();
+            int chunkSize = 1 + random.nextInt(12);
+
+            assertEquals("Input: '" + input + "'", readRecordsSequentially(input.toString(), recordDelimiter, keepDelimiter),
+                    readRecords(input.toString(), StandardCharsets.UTF_8, recordDelimiter, keepDelimiter, chunkSize));
+        }
+    }
+
+    private List<String> readRecords(String input, Charset charset, String recordDelimiter, boolean keepDelimiter, int chunkSize) throws IOException {
+        File file = File.createTempFile("records", ".txt");
+        try {
+            Files.write(file.toPath(), input.getBytes(charset));
+            try (ParallelRecordReader<String> recordReader = new ParallelRecordReader<>(FileChannel.open(file.toPath(), StandardOpenOption.READ), true, charset, recordDelimiter, keepDelimiter, 3, chunkSize, () -> CharSequence::toString)) {
+                List<String> records = new ArrayList<>();
+
+                String record = recordReader.next();
+                while (record != null) {
+                    records.add(record);
+                    record = recordReader.next();
+                }
+
+                return records;
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private List<String> readRecordsSequentially(String input, String recordDelimiter, boolean keepDelimiter) throws IOException {
+        CharRecordReader recordReader = new CharRecordReader(new StringReader(input), recordDelimiter, null, keepDelimiter);
+        StringBuilder recordBuffer = new StringBuilder();
+        List<String> records = new ArrayList<>();
+
+        recordReader.readRecord(recordBuffer);
+        while (recordBuffer.length() > 0) {
+            records.add(recordBuffer.toString());
+            recordReader.readRecord(recordBuffer);
+        }
+
+        return records;
+    }
+}
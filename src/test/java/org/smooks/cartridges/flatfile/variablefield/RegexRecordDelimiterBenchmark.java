@@ -0,0 +1,102 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.regex.Pattern;
+
+/**
+ * Regex record delimiter scaling benchmark.
+ * <p/>
+ * Reads regex delimited records of increasing length and reports the cost per character, which
+ * should stay flat as the record size grows.  Run from the IDE or via
+ * <code>mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=...</code>.
+ */
+public class RegexRecordDelimiterBenchmark {
+
+    private static final Pattern DELIMITER = Pattern.compile("[0-9]+\\|", (Pattern.MULTILINE | Pattern.DOTALL));
+    private static final int TOTAL_CHARS = 8 * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        // Warm up...
+        for (int i = 0; i < 5; i++) {
+            run(1024);
+        }
+
+        System.out.println("record length | ns/char");
+        for (int recordLength = 256; recordLength <= 256 * 1024; recordLength *= 4) {
+            long nanos = run(recordLength);
+            System.out.printf("%13d | %.2f%n", recordLength, (double) nanos / TOTAL_CHARS);
+        }
+    }
+
+    private static long run(int recordLength) throws IOException {
+        String input = buildInput(recordLength);
+        CharRecordReader recordReader = new CharRecordReader(new StringReader(input), null, DELIMITER, false);
+        StringBuilder recordBuffer = new StringBuilder();
+
+        long start = System.nanoTime();
+        recordReader.readRecord(recordBuffer);
+        while (recordBuffer.length() > 0) {
+            recordReader.readRecord(recordBuffer);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static String buildInput(int recordLength) {
+        StringBuilder input = new StringBuilder(TOTAL_CHARS + recordLength);
+        int recordNumber = 0;
+
+        while (input.length() < TOTAL_CHARS) {
+            int recordStart = input.length();
+            input.append(recordNumber++).append('|');
+            while (input.length() - recordStart < recordLength) {
+                input.append("abcdefgh ");
+            }
+        }
+
+        return input.toString();
+    }
+}
@@ -0,0 +1,161 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-flatfile-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.flatfile.variablefield;
+
+import org.junit.Test;
+import org.smooks.cartridges.flatfile.SpilledValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StreamRecordReaderTest {
+
+    @Test
+    public void test_isSupported() {
+        assertTrue(ByteRecordReader.isSupported(StandardCharsets.UTF_8, null));
+        assertTrue(ByteRecordReader.isSupported(StandardCharsets.ISO_8859_1, "~|~"));
+        assertTrue(ByteRecordReader.isSupported(Charset.forName("windows-1252"), "€"));
+        assertFalse(ByteRecordReader.isSupported(StandardCharsets.US_ASCII, "€"));
+        assertFalse(ByteRecordReader.isSupported(StandardCharsets.UTF_16, null));
+        assertFalse(ByteRecordReader.isSupported(StandardCharsets.UTF_8, ""));
+    }
+
+    @Test
+    public void test_decoding() throws IOException {
+        for (int windowSize = 1; windowSize < 12; windowSize++) {
+            assertEquals(Arrays.asList("a|b|c", "d|é|f", "g|€|i"), readRecords("\na|b|c\n\rd|é|f\r\ng|€|i\n", StandardCharsets.UTF_8, null, windowSize));
+            assertEquals(Arrays.asList("a|b|c", "d|é|f"), readRecords("a|b|c\nd|é|f", StandardCharsets.ISO_8859_1, null, windowSize));
+            assertEquals(Arrays.asList("a|¤|c", "d|é|f"), readRecords("a|¤|c€d|é|f", Charset.forName("windows-1252"), "€", windowSize));
+            assertEquals(Arrays.asList("a|b|c", "d|e|f"), readRecords("a|b|c\nd|e|f", Charset.forName("IBM037"), null, windowSize));
+        }
+    }
+
+    @Test
+    public void test_malformed_input_replaced() throws IOException {
+        StreamRecordReader recordReader = new StreamRecordReader(new ByteArrayInputStream(new byte[]{'a', (byte) 0xC3, '\n', 'b'}), StandardCharsets.UTF_8, null, false);
+        StringBuilder recordBuffer = new StringBuilder();
+
+        recordReader.readRecord(recordBuffer);
+        assertEquals("a�", recordBuffer.toString());
+        recordReader.readRecord(recordBuffer);
+        assertEquals("b", recordBuffer.toString());
+    }
+
+    @Test
+    public void test_skipRecords() throws IOException {
+        String[] inputs = {"a|b|c\n\rd|é|f\n\ng|h", "a|é~|~c|d~|~e~|~~|~f", "~|~a~|~\r\nb"};
+
+        for (String input : inputs) {
+            for (String recordDelimiter : new String[]{null, "~|~"}) {
+                for (boolean keepDelimiter : new boolean[]{false, true}) {
+                    for (int windowSize = 1; windowSize < 8; windowSize++) {
+                        List<String> records = readRecords(new StreamRecordReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, recordDelimiter, keepDelimiter, windowSize));
+
+                        for (int skip = 0; skip <= records.size() + 1; skip++) {
+                            StreamRecordReader recordReader = new StreamRecordReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, recordDelimiter, keepDelimiter, windowSize);
+                            int skipped = Math.min(skip, records.size());
+
+                            assertEquals(skipped, recordReader.skipRecords(skip));
+                            if (skip <= records.size()) {
+                                assertEquals(records.subList(skipped, records.size()), readRecords(recordReader));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_maxRecordLength() throws IOException {
+        String input = "a|é\nthis-is-a-long-récord\nc|d";
+
+        for (int windowSize = 1; windowSize < 12; windowSize++) {
+            StreamRecordReader rejectingReader = new StreamRecordReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, null, false, windowSize);
+            rejectingReader.setMaxRecordLength(5, OversizeRecordPolicy.REJECT);
+            assertEquals(Arrays.asList("a|é", "c|d"), readRecords(rejectingReader));
+            assertEquals(1, rejectingReader.getRejectedRecordCount());
+
+            StreamRecordReader spillingReader = new StreamRecordReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, null, false, windowSize);
+            spillingReader.setMaxRecordLength(5, OversizeRecordPolicy.SPILL);
+            StringBuilder recordBuffer = new StringBuilder();
+            spillingReader.readRecord(recordBuffer);
+            assertEquals("a|é", recordBuffer.toString());
+            spillingReader.readRecord(recordBuffer);
+            assertEquals("this-", recordBuffer.toString());
+            SpilledValue spilledRecord = spillingReader.getSpilledRecord();
+            assertEquals("this-is-a-long-récord", spilledRecord.read());
+            spilledRecord.delete();
+            spillingReader.readRecord(recordBuffer);
+            assertEquals("c|d", recordBuffer.toString());
+            assertNull(spillingReader.getSpilledRecord());
+        }
+    }
+
+    private List<String> readRecords(String input, Charset charset, String recordDelimiter, int windowSize) throws IOException {
+        return readRecords(new StreamRecordReader(new ByteArrayInputStream(input.getBytes(charset)), charset, recordDelimiter, false, windowSize));
+    }
+
+    private List<String> readRecords(RecordReader recordReader) throws IOException {
+        StringBuilder recordBuffer = new StringBuilder();
+        List<String> records = new ArrayList<>();
+
+        recordReader.readRecord(recordBuffer);
+        while (recordBuffer.length() > 0) {
+            records.add(recordBuffer.toString());
+            recordReader.readRecord(recordBuffer);
+        }
+
+        return records;
+    }
+}